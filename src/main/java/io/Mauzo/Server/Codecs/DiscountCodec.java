@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Codecs;
+
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+import io.Mauzo.Server.Templates.Discount;
+
+/**
+ * Codificador Json de los descuentos, con los atributos id, codeDisc, descDisc
+ * y pricePerc.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class DiscountCodec extends JsonCodec<Discount> {
+    private static final DiscountCodec codec = new DiscountCodec();
+
+    public static DiscountCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void write(JsonGenerator generator, Discount discount) {
+        generator.writeStartObject();
+        writeNullable(generator, "id", discount.getId());
+        writeNullable(generator, "codeDisc", discount.getCode());
+        writeNullable(generator, "descDisc", discount.getDesc());
+        writeNullable(generator, "pricePerc", discount.getPricePerc());
+        generator.writeEnd();
+    }
+
+    @Override
+    public void merge(Discount patch, Discount discount) {
+        if (patch.getCode() != null)
+            discount.setCode(patch.getCode());
+
+        if (patch.getDesc() != null)
+            discount.setDesc(patch.getDesc());
+
+        if (patch.getPricePerc() != null)
+            discount.setPricePerc(patch.getPricePerc());
+    }
+
+    @Override
+    public String getMissingField(Discount discount) {
+        if (discount.getCode() == null)
+            return "codeDisc";
+
+        if (discount.getDesc() == null)
+            return "descDisc";
+
+        if (discount.getPricePerc() == null)
+            return "pricePerc";
+
+        return null;
+    }
+
+    @Override
+    protected Discount create() {
+        return new Discount();
+    }
+
+    @Override
+    protected void bind(Discount discount, String name, JsonParser parser, Event event) {
+        switch (name) {
+            case "codeDisc":
+                discount.setCode(getString(parser, event));
+                break;
+            case "descDisc":
+                discount.setDesc(getString(parser, event));
+                break;
+            case "pricePerc":
+                discount.setPricePerc(getFloat(parser, event));
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Codecs;
+
+import java.sql.Date;
+
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+import io.Mauzo.Server.Templates.Inform;
+
+/**
+ * Codificador Json de los informes, con los atributos id, nSales, nRefunds,
+ * nDiscounts, dStart y dEnd.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class InformCodec extends JsonCodec<Inform> {
+    private static final InformCodec codec = new InformCodec();
+
+    public static InformCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void write(JsonGenerator generator, Inform inform) {
+        generator.writeStartObject();
+        writeNullable(generator, "id", inform.getId());
+        writeNullable(generator, "nSales", inform.getnSales());
+        writeNullable(generator, "nRefunds", inform.getnRefunds());
+        writeNullable(generator, "nDiscounts", inform.getnDiscounts());
+        //TODO: Hashmap
+        writeNullable(generator, "dStart", inform.getdStart());
+        writeNullable(generator, "dEnd", inform.getdEnd());
+        generator.writeEnd();
+    }
+
+    @Override
+    public void merge(Inform patch, Inform inform) {
+        if (patch.getnSales() != null)
+            inform.setnSales(patch.getnSales());
+
+        if (patch.getnRefunds() != null)
+            inform.setnRefunds(patch.getnRefunds());
+
+        if (patch.getnDiscounts() != null)
+            inform.setnDiscounts(patch.getnDiscounts());
+
+        if (patch.getdStart() != null)
+            inform.setdStart(patch.getdStart());
+
+        if (patch.getdEnd() != null)
+            inform.setdEnd(patch.getdEnd());
+    }
+
+    @Override
+    protected Inform create() {
+        return new Inform();
+    }
+
+    @Override
+    protected void bind(Inform inform, String name, JsonParser parser, Event event) {
+        switch (name) {
+            case "nSales":
+                inform.setnSales(getInteger(parser, event));
+                break;
+            case "nRefunds":
+                inform.setnRefunds(getInteger(parser, event));
+                break;
+            case "nDiscounts":
+                inform.setnDiscounts(getInteger(parser, event));
+                break;
+            case "dStart":
+                inform.setdStart(toSqlDate(getTime(parser, event)));
+                break;
+            case "dEnd":
+                inform.setdEnd(toSqlDate(getTime(parser, event)));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static Date toSqlDate(Long time) {
+        return (time != null) ? new Date(time) : null;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Codecs;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParsingException;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.Response.Status;
+
+import io.Mauzo.Server.ServerUtils;
+
+/**
+ * Clase que lee el cuerpo Json de las peticiones POST y PUT a medida que
+ * llega, con el codificador de la plantilla correspondiente.
+ * 
+ * Cada interfaz web tiene un tamaño máximo de cuerpo, indicado en
+ * mauzo.requests.maxBodySize.(interfaz), o en mauzo.requests.maxBodySize si no
+ * tiene uno propio. Los cuerpos que lo superan se rechazan a partir del
+ * Content-Length, sin leer nada, o en cuanto se supera al leerlo si no se
+ * conoce su tamaño.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class JsonBody {
+    private static final Properties properties = ServerUtils.loadProperties();
+    private static final long defaultMaxSize = Long.valueOf(properties.getProperty("mauzo.requests.maxBodySize", "16384"));
+    private static final Map<String, Long> maxSizes = new ConcurrentHashMap<>();
+
+    /**
+     * Clase estatica para los cuerpos que no se pueden aceptar, con el estado
+     * HTTP con el que se debe responder.
+     */
+    public static class JsonBodyException extends Exception {
+        private static final long serialVersionUID = -4512397016218493207L;
+
+        private final Status status;
+
+        public JsonBodyException(String msg, Status status) {
+            super(msg);
+
+            this.status = status;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * Excepción privada que lanza el stream limitado al superar el tamaño
+     * máximo, para distinguirla de los errores de lectura del cuerpo.
+     */
+    private static class LimitExceededException extends IOException {
+        private static final long serialVersionUID = 2146311254781622934L;
+
+        LimitExceededException(long maxSize) {
+            super("El cuerpo supera el máximo de " + maxSize + " bytes");
+        }
+    }
+
+    /**
+     * Stream privado que deja de leer el cuerpo en cuanto se supera el tamaño
+     * máximo.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long maxSize;
+        private long count = 0;
+
+        LimitedInputStream(InputStream in, long maxSize) {
+            super(in);
+
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int value = super.read();
+
+            if (value != -1)
+                count(1);
+
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            final int read = super.read(buf, off, len);
+
+            if (read > 0)
+                count(read);
+
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+
+            count(skipped);
+
+            return skipped;
+        }
+
+        private void count(long read) throws LimitExceededException {
+            count += read;
+
+            if (count > maxSize)
+                throw new LimitExceededException(maxSize);
+        }
+    }
+
+    private JsonBody() {
+    }
+
+    /**
+     * Método para obtener el tamaño máximo del cuerpo de las peticiones de una
+     * interfaz web.
+     * 
+     * @param endpoint El nombre de la interfaz web.
+     * @return El tamaño máximo en bytes.
+     */
+    public static long getMaxSize(String endpoint) {
+        return maxSizes.computeIfAbsent(endpoint, (key) -> {
+            final String value = properties.getProperty("mauzo.requests.maxBodySize." + key);
+
+            return (value != null) ? Long.valueOf(value.trim()) : defaultMaxSize;
+        });
+    }
+
+    /**
+     * Método para leer un objeto del cuerpo Json de una petición, asignando los
+     * atributos a medida que se leen del stream.
+     * 
+     * Se responde con un 413 si el cuerpo supera el tamaño máximo de la
+     * interfaz web, y con un 400 si está vacio, no es un objeto Json valido o
+     * contiene una imagen que no se puede aceptar.
+     * 
+     * @param req      La petición HTTP.
+     * @param body     El cuerpo de la petición.
+     * @param endpoint El nombre de la interfaz web.
+     * @param codec    El codificador de la plantilla.
+     * @return El objeto leido.
+     * @throws JsonBodyException El cuerpo no se puede aceptar.
+     * @throws IOException Excepción al leer el cuerpo de la petición.
+     */
+    public static <T> T read(HttpServletRequest req, InputStream body, String endpoint, JsonCodec<T> codec) throws JsonBodyException, IOException {
+        final long maxSize = getMaxSize(endpoint);
+        final long length = req.getContentLengthLong();
+
+        if (length == 0)
+            throw new JsonBodyException("El cuerpo de la petición está vacio", Status.BAD_REQUEST);
+
+        // Rechazamos los cuerpos demasiado grandes sin leerlos.
+        if (length > maxSize)
+            throw new JsonBodyException("El cuerpo ocupa " + length + " bytes, el máximo es " + maxSize, Status.REQUEST_ENTITY_TOO_LARGE);
+
+        try (JsonParser parser = JsonCodec.getParserFactory().createParser(new LimitedInputStream(body, maxSize))) {
+            return codec.read(parser);
+        } catch (JsonParsingException e) {
+            throw new JsonBodyException("El cuerpo no es valido: " + e.getMessage(), Status.BAD_REQUEST);
+        } catch (JsonException e) {
+            // El parser envuelve los errores de lectura del stream.
+            if (e.getCause() instanceof LimitExceededException)
+                throw new JsonBodyException(e.getCause().getMessage(), Status.REQUEST_ENTITY_TOO_LARGE);
+
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+
+            throw new JsonBodyException("El cuerpo no es un objeto Json valido: " + e.getMessage(), Status.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Método para leer del cuerpo Json de una petición un objeto a crear,
+     * comprobando que tiene todos los atributos obligatorios.
+     * 
+     * Además de los casos de read, se responde con un 400 si falta algún
+     * atributo obligatorio, antes de ocupar ninguna conexión.
+     * 
+     * @param req      La petición HTTP.
+     * @param body     El cuerpo de la petición.
+     * @param endpoint El nombre de la interfaz web.
+     * @param codec    El codificador de la plantilla.
+     * @return El objeto leido.
+     * @throws JsonBodyException El cuerpo no se puede aceptar.
+     * @throws IOException Excepción al leer el cuerpo de la petición.
+     */
+    public static <T> T readComplete(HttpServletRequest req, InputStream body, String endpoint, JsonCodec<T> codec) throws JsonBodyException, IOException {
+        final T obj = read(req, body, endpoint, codec);
+        final String missingField = codec.getMissingField(obj);
+
+        if (missingField != null)
+            throw new JsonBodyException("Falta el atributo obligatorio " + missingField, Status.BAD_REQUEST);
+
+        return obj;
+    }
+}
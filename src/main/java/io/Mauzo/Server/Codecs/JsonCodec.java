@@ -0,0 +1,226 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Codecs;
+
+import java.util.Date;
+
+import javax.json.spi.JsonProvider;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+import javax.json.stream.JsonParsingException;
+
+import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Pictures.PictureUpload.PictureUploadException;
+
+/**
+ * Clase base de los codificadores Json de las plantillas del servidor, que
+ * escriben y leen cada plantilla atributo a atributo, sin reflexión.
+ * 
+ * Todos los codificadores comparten un único JsonProvider, y sus factorias de
+ * generadores y parsers, obtenidos una sola vez al cargar la clase, en vez de
+ * buscar el proveedor en cada llamada estatica a la clase Json. Los atributos
+ * nulos se escriben y leen comprobando su valor, sin capturar excepciones.
+ * 
+ * Las peticiones se leen a medida que llegan con un JsonParser, asignando cada
+ * atributo directamente sobre la plantilla, sin construir antes el documento
+ * Json completo en memoria.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public abstract class JsonCodec<T> {
+    private static final JsonProvider provider = JsonProvider.provider();
+    private static final JsonGeneratorFactory generatorFactory = provider.createGeneratorFactory(null);
+    private static final JsonParserFactory parserFactory = provider.createParserFactory(null);
+
+    /**
+     * Método para escribir todos los atributos de un objeto con un generador
+     * Json.
+     * 
+     * @param generator El generador Json.
+     * @param obj       El objeto a escribir.
+     */
+    public abstract void write(JsonGenerator generator, T obj);
+
+    /**
+     * Método para actualizar un objeto existente con los atributos leidos de
+     * una petición. Solo se modifican los atributos que no son nulos en la
+     * petición, el resto conserva su valor.
+     * 
+     * @param patch El objeto leido de la petición.
+     * @param obj   El objeto a actualizar.
+     */
+    public abstract void merge(T patch, T obj);
+
+    /**
+     * Método para crear el objeto vacio sobre el que se leen los atributos.
+     * 
+     * @return El objeto vacio.
+     */
+    protected abstract T create();
+
+    /**
+     * Método para asignar al objeto el valor de un atributo leido. Los valores
+     * nulos o de otro tipo se asignan como null.
+     * 
+     * @param obj    El objeto leido.
+     * @param name   El nombre del atributo.
+     * @param parser El parser, situado sobre el valor.
+     * @param event  El evento del valor.
+     */
+    protected abstract void bind(T obj, String name, JsonParser parser, Event event);
+
+    /**
+     * Método para comprobar que un objeto leido tiene todos los atributos
+     * obligatorios para crearlo. Por defecto no hay atributos obligatorios.
+     * 
+     * @param obj El objeto leido.
+     * @return El nombre del primer atributo obligatorio ausente, o null si están todos.
+     */
+    public String getMissingField(T obj) {
+        return null;
+    }
+
+    /**
+     * Método para leer un objeto de una petición con un JsonParser, asignando
+     * los atributos a medida que se leen. Los atributos ausentes o nulos quedan
+     * a null, y los atributos desconocidos se ignoran.
+     * 
+     * @param parser El parser sobre el cuerpo de la petición.
+     * @return El objeto leido.
+     */
+    public T read(JsonParser parser) {
+        if (!parser.hasNext() || parser.next() != Event.START_OBJECT)
+            throw new JsonParsingException("Se esperaba un objeto Json", parser.getLocation());
+
+        final T obj = create();
+        Event event;
+
+        while ((event = parser.next()) != Event.END_OBJECT) {
+            final String name = parser.getString();
+
+            // Saltamos los objetos y listas anidados, ninguna plantilla los tiene.
+            switch (event = parser.next()) {
+                case START_OBJECT:
+                    parser.skipObject();
+                    break;
+                case START_ARRAY:
+                    parser.skipArray();
+                    break;
+                default:
+                    bind(obj, name, parser, event);
+            }
+        }
+
+        return obj;
+    }
+
+    public static JsonGeneratorFactory getGeneratorFactory() {
+        return generatorFactory;
+    }
+
+    public static JsonParserFactory getParserFactory() {
+        return parserFactory;
+    }
+
+    protected static String getString(JsonParser parser, Event event) {
+        return (event == Event.VALUE_STRING) ? parser.getString() : null;
+    }
+
+    protected static Integer getInteger(JsonParser parser, Event event) {
+        return (event == Event.VALUE_NUMBER) ? parser.getInt() : null;
+    }
+
+    protected static Float getFloat(JsonParser parser, Event event) {
+        return (event == Event.VALUE_NUMBER) ? parser.getBigDecimal().floatValue() : null;
+    }
+
+    protected static Boolean getBoolean(JsonParser parser, Event event) {
+        if (event == Event.VALUE_TRUE)
+            return Boolean.TRUE;
+
+        return (event == Event.VALUE_FALSE) ? Boolean.FALSE : null;
+    }
+
+    protected static Long getTime(JsonParser parser, Event event) {
+        return (event == Event.VALUE_NUMBER) ? parser.getLong() : null;
+    }
+
+    /**
+     * Método para leer una imagen codificada en Base64, validando su tamaño,
+     * formato y dimensiones. Las imagenes que no se pueden aceptar rechazan el
+     * cuerpo completo de la petición.
+     * 
+     * @param parser El parser, situado sobre el valor.
+     * @param event  El evento del valor.
+     * @return La imagen en array de bytes, o null si no hay imagen.
+     */
+    protected static byte[] getPicture(JsonParser parser, Event event) {
+        try {
+            return ServerUtils.pictureFromBase64(getString(parser, event));
+        } catch (PictureUploadException e) {
+            throw new JsonParsingException(e.getMessage(), parser.getLocation());
+        }
+    }
+    protected static Date toDate(Long time) {
+        return (time != null) ? new Date(time) : null;
+    }
+
+    protected static void writeNullable(JsonGenerator generator, String name, String value) {
+        if (value != null)
+            generator.write(name, value);
+        else
+            generator.writeNull(name);
+    }
+
+    protected static void writeNullable(JsonGenerator generator, String name, Integer value) {
+        if (value != null)
+            generator.write(name, value);
+        else
+            generator.writeNull(name);
+    }
+
+    protected static void writeNullable(JsonGenerator generator, String name, Float value) {
+        if (value != null)
+            generator.write(name, value);
+        else
+            generator.writeNull(name);
+    }
+
+    protected static void writeNullable(JsonGenerator generator, String name, Boolean value) {
+        if (value != null)
+            generator.write(name, value);
+        else
+            generator.writeNull(name);
+    }
+
+    protected static void writeNullable(JsonGenerator generator, String name, Date value) {
+        if (value != null)
+            generator.write(name, value.getTime());
+        else
+            generator.writeNull(name);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Codecs;
+
+import java.util.Set;
+
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Managers.ProductsMgt;
+import io.Mauzo.Server.Templates.Product;
+
+/**
+ * Codificador Json de los productos, con los atributos id, prodCode, prodName,
+ * prodDesc, prodPrice, prodPicHash y prodPic, esta última en Base64.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class ProductCodec extends JsonCodec<Product> {
+    private static final ProductCodec codec = new ProductCodec();
+
+    public static ProductCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void write(JsonGenerator generator, Product product) {
+        write(generator, product, null);
+    }
+
+    /**
+     * Método para escribir los atributos solicitados de un producto con un
+     * generador Json, el id siempre se escribe.
+     * 
+     * @param generator El generador Json.
+     * @param product   El producto a escribir.
+     * @param fields    Los atributos a escribir, o null para todos.
+     */
+    public void write(JsonGenerator generator, Product product, Set<String> fields) {
+        generator.writeStartObject();
+        writeNullable(generator, "id", product.getId());
+
+        if (fields == null || fields.contains("prodCode"))
+            writeNullable(generator, "prodCode", product.getCode());
+
+        if (fields == null || fields.contains("prodName"))
+            writeNullable(generator, "prodName", product.getName());
+
+        if (fields == null || fields.contains("prodDesc"))
+            writeNullable(generator, "prodDesc", product.getDescription());
+
+        if (fields == null || fields.contains("prodPrice"))
+            writeNullable(generator, "prodPrice", product.getPrice());
+
+        if (fields == null || fields.contains(ProductsMgt.PICTURE_HASH_COLUMN))
+            writeNullable(generator, ProductsMgt.PICTURE_HASH_COLUMN, product.getPictureHash());
+
+        if (fields == null || fields.contains(ProductsMgt.PICTURE_COLUMN))
+            writeNullable(generator, ProductsMgt.PICTURE_COLUMN, ServerUtils.byteArrayToBase64(product.getPicture()));
+
+        generator.writeEnd();
+    }
+
+    @Override
+    public void merge(Product patch, Product product) {
+        if (patch.getName() != null)
+            product.setName(patch.getName());
+
+        if (patch.getCode() != null)
+            product.setCode(patch.getCode());
+
+        if (patch.getDescription() != null)
+            product.setDescription(patch.getDescription());
+
+        if (patch.getPrice() != null)
+            product.setPrice(patch.getPrice());
+
+        // Si no se envía imagen, se conserva la que tenía.
+        if (patch.getPicture() != null)
+            product.setPicture(patch.getPicture());
+    }
+
+    @Override
+    public String getMissingField(Product product) {
+        if (product.getName() == null)
+            return "prodName";
+
+        if (product.getCode() == null)
+            return "prodCode";
+
+        if (product.getPrice() == null)
+            return "prodPrice";
+
+        return null;
+    }
+
+    @Override
+    protected Product create() {
+        return new Product();
+    }
+
+    @Override
+    protected void bind(Product product, String name, JsonParser parser, Event event) {
+        switch (name) {
+            case "prodName":
+                product.setName(getString(parser, event));
+                break;
+            case "prodCode":
+                product.setCode(getString(parser, event));
+                break;
+            case "prodDesc":
+                product.setDescription(getString(parser, event));
+                break;
+            case "prodPrice":
+                product.setPrice(getFloat(parser, event));
+                break;
+            case ProductsMgt.PICTURE_COLUMN:
+                product.setPicture(getPicture(parser, event));
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Codecs;
+
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+import io.Mauzo.Server.Templates.Refund;
+
+/**
+ * Codificador Json de los reembolsos, con los atributos id, dateRefund,
+ * userId y saleId.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class RefundCodec extends JsonCodec<Refund> {
+    private static final RefundCodec codec = new RefundCodec();
+
+    public static RefundCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void write(JsonGenerator generator, Refund refund) {
+        generator.writeStartObject();
+        writeNullable(generator, "id", refund.getId());
+        writeNullable(generator, "dateRefund", refund.getDateRefund());
+        writeNullable(generator, "userId", refund.getUserId());
+        writeNullable(generator, "saleId", refund.getSaleId());
+        generator.writeEnd();
+    }
+
+    @Override
+    public void merge(Refund patch, Refund refund) {
+        if (patch.getDateRefund() != null)
+            refund.setDateRefund(patch.getDateRefund());
+
+        if (patch.getUserId() != null)
+            refund.setUserId(patch.getUserId());
+
+        if (patch.getSaleId() != null)
+            refund.setSaleId(patch.getSaleId());
+    }
+
+    @Override
+    public String getMissingField(Refund refund) {
+        if (refund.getDateRefund() == null)
+            return "dateRefund";
+
+        if (refund.getUserId() == null)
+            return "userId";
+
+        if (refund.getSaleId() == null)
+            return "saleId";
+
+        return null;
+    }
+
+    @Override
+    protected Refund create() {
+        return new Refund();
+    }
+
+    @Override
+    protected void bind(Refund refund, String name, JsonParser parser, Event event) {
+        switch (name) {
+            case "dateRefund":
+                refund.setDateRefund(toDate(getTime(parser, event)));
+                break;
+            case "userId":
+                refund.setUserId(getInteger(parser, event));
+                break;
+            case "saleId":
+                refund.setSaleId(getInteger(parser, event));
+                break;
+            default:
+                break;
+        }
+    }
+}
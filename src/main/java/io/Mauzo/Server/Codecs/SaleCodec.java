@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Codecs;
+
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+import io.Mauzo.Server.Templates.Sale;
+
+/**
+ * Codificador Json de las ventas, con los atributos id, stampRef, userId,
+ * prodId y discId.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class SaleCodec extends JsonCodec<Sale> {
+    private static final SaleCodec codec = new SaleCodec();
+
+    public static SaleCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void write(JsonGenerator generator, Sale sale) {
+        generator.writeStartObject();
+        writeNullable(generator, "id", sale.getId());
+        writeNullable(generator, "stampRef", sale.getStampRef());
+        writeNullable(generator, "userId", sale.getUserId());
+        writeNullable(generator, "prodId", sale.getProdId());
+        writeNullable(generator, "discId", sale.getDiscId());
+        generator.writeEnd();
+    }
+
+    @Override
+    public void merge(Sale patch, Sale sale) {
+        if (patch.getStampRef() != null)
+            sale.setStampRef(patch.getStampRef());
+
+        if (patch.getUserId() != null)
+            sale.setUserId(patch.getUserId());
+
+        if (patch.getProdId() != null)
+            sale.setProdId(patch.getProdId());
+
+        if (patch.getDiscId() != null)
+            sale.setDiscId(patch.getDiscId());
+    }
+
+    @Override
+    public String getMissingField(Sale sale) {
+        if (sale.getStampRef() == null)
+            return "stampRef";
+
+        if (sale.getUserId() == null)
+            return "userId";
+
+        if (sale.getProdId() == null)
+            return "prodId";
+
+        return null;
+    }
+
+    @Override
+    protected Sale create() {
+        return new Sale();
+    }
+
+    @Override
+    protected void bind(Sale sale, String name, JsonParser parser, Event event) {
+        switch (name) {
+            case "stampRef":
+                sale.setStampRef(toDate(getTime(parser, event)));
+                break;
+            case "userId":
+                sale.setUserId(getInteger(parser, event));
+                break;
+            case "prodId":
+                sale.setProdId(getInteger(parser, event));
+                break;
+            case "discId":
+                sale.setDiscId(getInteger(parser, event));
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Codecs;
+
+import java.util.Set;
+
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Managers.UsersMgt;
+import io.Mauzo.Server.Templates.User;
+
+/**
+ * Codificador Json de los usuarios, con los atributos id, username, firstname,
+ * lastname, email, isAdmin, userPicHash y userPic, esta última en Base64.
+ * 
+ * La contraseña se puede recibir, pero nunca se escribe.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class UserCodec extends JsonCodec<User> {
+    private static final UserCodec codec = new UserCodec();
+
+    public static UserCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void write(JsonGenerator generator, User user) {
+        write(generator, user, null);
+    }
+
+    /**
+     * Método para escribir los atributos solicitados de un usuario con un
+     * generador Json, el id siempre se escribe.
+     * 
+     * @param generator El generador Json.
+     * @param user      El usuario a escribir.
+     * @param fields    Los atributos a escribir, o null para todos.
+     */
+    public void write(JsonGenerator generator, User user, Set<String> fields) {
+        generator.writeStartObject();
+        writeNullable(generator, "id", user.getId());
+
+        if (fields == null || fields.contains("username"))
+            writeNullable(generator, "username", user.getUsername());
+
+        if (fields == null || fields.contains("firstname"))
+            writeNullable(generator, "firstname", user.getFirstName());
+
+        if (fields == null || fields.contains("lastname"))
+            writeNullable(generator, "lastname", user.getLastName());
+
+        if (fields == null || fields.contains("email"))
+            writeNullable(generator, "email", user.getEmail());
+
+        if (fields == null || fields.contains("isAdmin"))
+            writeNullable(generator, "isAdmin", user.isAdmin());
+
+        if (fields == null || fields.contains(UsersMgt.PICTURE_HASH_COLUMN))
+            writeNullable(generator, UsersMgt.PICTURE_HASH_COLUMN, user.getUserPicHash());
+
+        if (fields == null || fields.contains(UsersMgt.PICTURE_COLUMN))
+            writeNullable(generator, UsersMgt.PICTURE_COLUMN, ServerUtils.byteArrayToBase64(user.getUserPic()));
+
+        generator.writeEnd();
+    }
+
+    @Override
+    public void merge(User patch, User user) {
+        // El nombre de usuario solo se indica al registrarlo.
+        if (patch.getFirstName() != null)
+            user.setFirstName(patch.getFirstName());
+
+        if (patch.getLastName() != null)
+            user.setLastName(patch.getLastName());
+
+        if (patch.getEmail() != null)
+            user.setEmail(patch.getEmail());
+
+        if (patch.getPassword() != null)
+            user.setPassword(patch.getPassword());
+
+        if (patch.isAdmin() != null)
+            user.setAdmin(patch.isAdmin());
+
+        // Si no se envía imagen, se conserva la que tenía.
+        if (patch.getUserPic() != null)
+            user.setUserPic(patch.getUserPic());
+    }
+
+    @Override
+    public String getMissingField(User user) {
+        if (user.getUsername() == null)
+            return "username";
+
+        if (user.getFirstName() == null)
+            return "firstname";
+
+        if (user.getLastName() == null)
+            return "lastname";
+
+        if (user.getEmail() == null)
+            return "email";
+
+        if (user.getPassword() == null)
+            return UsersMgt.PASSWORD_COLUMN;
+
+        if (user.isAdmin() == null)
+            return "isAdmin";
+
+        return null;
+    }
+
+    @Override
+    protected User create() {
+        return new User();
+    }
+
+    @Override
+    protected void bind(User user, String name, JsonParser parser, Event event) {
+        switch (name) {
+            case "username":
+                user.setUsername(getString(parser, event));
+                break;
+            case "firstname":
+                user.setFirstName(getString(parser, event));
+                break;
+            case "lastname":
+                user.setLastName(getString(parser, event));
+                break;
+            case "email":
+                user.setEmail(getString(parser, event));
+                break;
+            case UsersMgt.PASSWORD_COLUMN:
+                user.setPassword(getString(parser, event));
+                break;
+            case "isAdmin":
+                user.setAdmin(getBoolean(parser, event));
+                break;
+            case UsersMgt.PICTURE_COLUMN:
+                user.setUserPic(getPicture(parser, event));
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -25,15 +25,10 @@
 package io.Mauzo.Server.Controllers;
 
 // Paquetes relativos al framework estandar de Java.
-import java.io.StringReader;
-
-// Paquetes relativos a los Json de entrada y salida.
-import javax.json.Json;
-import javax.json.JsonArrayBuilder;
-import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
+import java.io.InputStream;
 
 // Paquetes relativos a la interfaz web.
+import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.Produces;
 import javax.ws.rs.DELETE;
@@ -47,15 +42,21 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.UriInfo;
 import javax.servlet.http.HttpServletRequest;
 
+import io.Mauzo.Server.Codecs.DiscountCodec;
+import io.Mauzo.Server.Codecs.JsonBody;
 import io.Mauzo.Server.Managers.Connections;
 import io.Mauzo.Server.Managers.DiscountsMgt;
+import io.Mauzo.Server.Managers.TableVersions;
 import io.Mauzo.Server.Templates.Discount;
 import org.springframework.stereotype.Component;
 
 // Paquetes propios de la aplicación.
 import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Security.UserPrincipal;
 import io.Mauzo.Server.ServerApp;
 import io.Mauzo.Server.Managers.ManagersIntf.ManagerErrorException;
 
@@ -81,38 +82,32 @@ public class DiscountsCtrl {
      * El contenido que recibirá esta vista http es mediante una peticion GET con
      * la estructura de atributos de id, codeDisc, descDisc y pricePerc.
      *
-     * @param req      El header de la petición HTTP.
+     * La respuesta lleva una ETag debil según la versión de la tabla de
+     * descuentos, si el cliente la envía en If-None-Match y no ha cambiado se
+     * responde con un 304 sin consultar la base de datos.
+     *
+     * @param uriInfo  La URL de la petición HTTP.
+     * @param request  La petición, para evaluar la ETag del listado.
      * @return La respuesta generada por parte de la vista.
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getDiscountMethod(@Context final HttpServletRequest req) {
-        return ServerUtils.genericUserMethod(req, null, null, () -> {
-            JsonArrayBuilder jsonResponse = Json.createArrayBuilder();
-
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response getDiscountMethod(@Context final UriInfo uriInfo, @Context final Request request) {
+        return ServerUtils.genericMethod(() -> ServerUtils.versionedResponse(request, uriInfo, () -> Response.ok(ServerUtils.jsonStream((generator) -> {
             DiscountsMgt discountMgt = Connections.getController().acquireDiscounts();
 
             try {
-                // Recorremos la lista que nos ha entregado el servidor.
-                for (Discount discount : discountMgt.getList()) {
-                    // Inicializamos los objetos a usar.
-                    JsonObjectBuilder jsonObj = Json.createObjectBuilder();
+                generator.writeStartArray();
 
-                    // Construimos el objeto Json con los atributo del descuento.
-                    jsonObj.add("id", discount.getId());
-                    jsonObj.add("codeDisc", discount.getCode());
-                    jsonObj.add("descDisc", discount.getDesc());
-                    jsonObj.add("pricePerc", discount.getPricePerc());
+                // Recorremos los descuentos a medida que los entrega el servidor.
+                discountMgt.forEach((discount) -> DiscountCodec.getCodec().write(generator, discount));
 
-                    // Lo añadimos al Json Array.
-                    jsonResponse.add(jsonObj);
-                }
+                generator.writeEnd();
             } finally {
                 Connections.getController().releaseDiscounts(discountMgt);
             }
-
-            return Response.ok(jsonResponse.build().toString(), MediaType.APPLICATION_JSON);
-        });
+        }), MediaType.APPLICATION_JSON), TableVersions.DISCOUNTS));
     }
 
     /**
@@ -124,39 +119,37 @@ public class DiscountsCtrl {
      * la estructura de atributos de id, codeDisc, descDisc y pricePerc.
      *
      * @param req      El header de la petición HTTP.
-     * @param jsonData El body de la petición HTTP.
+     * @param body     El body de la petición HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response addDiscountMethod(@Context final HttpServletRequest req, String jsonData) {
-        return ServerUtils.genericAdminMethod(req, null, jsonData, () -> {
-            ResponseBuilder response = Response.status(Status.BAD_REQUEST);
+    @RolesAllowed(UserPrincipal.ROLE_ADMIN)
+    public Response addDiscountMethod(@Context final HttpServletRequest req, InputStream body) {
+        return ServerUtils.genericMethod(() -> {
+            ResponseBuilder response = null;
 
-            // Si la informacion que recibe es nula, no se procesa nada.
-            if (jsonData.length() != 0) {
-                // Convertimos la información JSON recibida en un objeto.
-                final JsonObject jsonRequest = Json.createReader( new StringReader(jsonData)).readObject();
+            try {
+                // Leemos el descuento del cuerpo de la petición antes de ocupar una conexión.
+                final Discount disAux = JsonBody.readComplete(req, body, "discounts", DiscountCodec.getCodec());
 
+                // Adquirimos una conexión de descuentos
                 DiscountsMgt discountMgt = Connections.getController().acquireDiscounts();
 
                 try {
-                    // Inicializamos el objeto
-                    Discount disAux = new Discount();
-
-                    // Agregamos la información al descuento.
-                    disAux.setCode(jsonRequest.getString("codeDisc"));
-                    disAux.setDesc(jsonRequest.getString("descDisc"));
-                    disAux.setPricePerc(jsonRequest.getJsonNumber("pricePerc").bigDecimalValue().floatValue());
-
-                    // Agregamos el descuento al la lista.
+                    // Agregamos el descuento a la lista.
                     discountMgt.add(disAux);
+
+                    // Si todo ha ido bien hasta ahora, lanzamos la respuesta 200 OK.
+                    response = Response.status(Status.OK);
                 } finally {
+                    // Devolvemos la conexión de descuentos
                     Connections.getController().releaseDiscounts(discountMgt);
                 }
-
-                // Si todo ha ido bien hasta ahora, lanzamos la respuesta 200 OK.
-                response = Response.status(Status.OK);
+            } catch (JsonBody.JsonBodyException e) {
+                // Si el cuerpo no es valido, respondemos con el estado correspondiente.
+                ServerApp.getLoggerSystem().debug(e.toString());
+                response = Response.status(e.getStatus());
             }
 
             return response;
@@ -171,27 +164,21 @@ public class DiscountsCtrl {
      * El contenido que recibirá esta vista http es mediante una peticion GET con
      * la estructura de atributos de id, codeDisc, descDisc y pricePerc.
      *
-     * @param req      El header de la petición HTTP.
      * @param param  El ID de usuario en la peticion HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @GET
     @Path("{param_id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getDiscount(@Context final HttpServletRequest req, @PathParam("param_id") int param) {
-        return ServerUtils.genericAdminMethod(req, param, null, () -> {
+    @RolesAllowed(UserPrincipal.ROLE_ADMIN)
+    public Response getDiscount(@PathParam("param_id") int param) {
+        return ServerUtils.genericMethod(() -> {
             ResponseBuilder response = null;
             DiscountsMgt discountsMgt = Connections.getController().acquireDiscounts();
             try {
-                JsonObjectBuilder jsonResponse = Json.createObjectBuilder();
                 Discount discount = discountsMgt.get(param);
 
-                jsonResponse.add("id", discount.getId());
-                jsonResponse.add("codeDisc", discount.getId());
-                jsonResponse.add("descDisc", discount.getDesc());
-                jsonResponse.add("pricePerc", discount.getPricePerc());
-
-                response = Response.ok(jsonResponse.build().toString(), MediaType.APPLICATION_JSON);
+                response = Response.ok(ServerUtils.jsonStream((generator) -> DiscountCodec.getCodec().write(generator, discount)), MediaType.APPLICATION_JSON);
             } catch (ManagerErrorException e) {
                 ServerApp.getLoggerSystem().debug(e.toString());
                 response = Response.status(Status.NOT_FOUND);
@@ -209,44 +196,46 @@ public class DiscountsCtrl {
      *
      * @param req      El header de la petición HTTP.
      * @param paramId  El ID de usuario en la peticion HTTP.
-     * @param jsonData El body de la petición HTTP.
+     * @param body     El body de la petición HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @PUT
     @Path("{param_id}")
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response modifyDiscount(@Context final HttpServletRequest req, @PathParam("param_id") int paramId, String jsonData) {
-        return ServerUtils.genericAdminMethod(req, paramId, jsonData, () -> {
-            ResponseBuilder response = Response.status(Status.BAD_REQUEST);
+    @RolesAllowed(UserPrincipal.ROLE_ADMIN)
+    public Response modifyDiscount(@Context final HttpServletRequest req, @PathParam("param_id") int paramId, InputStream body) {
+        return ServerUtils.genericMethod(() -> {
+            ResponseBuilder response = null;
 
-            // Si la infromación que se recibe es nula, no se procesa nada.
-            if (jsonData.length() != 0) {
-                // Convertimos la información JSON recibida en un objeto.
-                final JsonObject jsonRequest = Json.createReader(new StringReader(jsonData)).readObject();
+            try {
+                // Leemos los cambios del cuerpo de la petición antes de ocupar una conexión.
+                final Discount patch = JsonBody.read(req, body, "discounts", DiscountCodec.getCodec());
 
+                // Adquirimos una conexión de descuentos
                 DiscountsMgt discountMgt = Connections.getController().acquireDiscounts();
 
                 try {
-                    // Inicializamos el objeto.
+                    // Obtenemos el descuento y le agregamos la información recibida.
                     Discount disAux = discountMgt.get(paramId);
+                    DiscountCodec.getCodec().merge(patch, disAux);
 
-                    // Agregamos la información al descuento.
-                    disAux.setCode(jsonRequest.isNull("codeDisc") ? disAux.getCode() : jsonRequest.getString("codeDisc"));
-                    disAux.setDesc(jsonRequest.isNull("descDisc") ? disAux.getDesc() : jsonRequest.getString("descDisc"));
-                    disAux.setPricePerc(jsonRequest.isNull("pricePerc") ? disAux.getPricePerc() : jsonRequest.getJsonNumber("pricePerc").bigDecimalValue().floatValue());
-
-                    // Agregamos el descuento a la lista.
+                    // Guardamos el descuento en la lista.
                     discountMgt.modify(disAux);
 
-                    // Si todo ha salido bien hasta ahora, lanzamos la respuesta 200 OK.
+                    // Si todo ha ido bien hasta ahora, lanzamos la respuesta 200 OK.
                     response = Response.status(Status.OK);
                 } catch (ManagerErrorException e) {
-                    // Si nos se ha encontrado, lanzamos la respuesta 404 NOT FOUND.
-                    ServerApp.getLoggerSystem().info(e.toString());
+                    // Si no se ha encontrado, lanzamos la respuesta 404 NOT FOUND.
+                    ServerApp.getLoggerSystem().debug(e.toString());
                     response = Response.status(Status.NOT_FOUND);
+                } finally {
+                    // Devolvemos la conexión de descuentos
+                    Connections.getController().releaseDiscounts(discountMgt);
                 }
-
-                Connections.getController().releaseDiscounts(discountMgt);
+            } catch (JsonBody.JsonBodyException e) {
+                // Si el cuerpo no es valido, respondemos con el estado correspondiente.
+                ServerApp.getLoggerSystem().debug(e.toString());
+                response = Response.status(e.getStatus());
             }
 
             return response;
@@ -257,14 +246,14 @@ public class DiscountsCtrl {
      * Controlador para eliminar descuentos pasados por parametro en la interfaz web
      * http://HOST_URL/api/discounts/(id) con el tipo de petición DELETE.
      *
-     * @param req      El header de la petición HTTP.
      * @param paramId  El ID de usuario en la peticion HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @DELETE
     @Path("{param_id}")
-    public Response deleteDiscount(@Context final HttpServletRequest req, @PathParam("param_id") int paramId) {
-        return ServerUtils.genericAdminMethod(req, paramId, null, () -> {
+    @RolesAllowed(UserPrincipal.ROLE_ADMIN)
+    public Response deleteDiscount(@PathParam("param_id") int paramId) {
+        return ServerUtils.genericMethod(() -> {
             ResponseBuilder response;
 
             DiscountsMgt discountMgt = Connections.getController().acquireDiscounts();
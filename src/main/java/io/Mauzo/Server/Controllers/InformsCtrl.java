@@ -24,22 +24,20 @@
 
 package io.Mauzo.Server.Controllers;
 
+import io.Mauzo.Server.Codecs.InformCodec;
 import io.Mauzo.Server.Managers.Connections;
 import io.Mauzo.Server.Managers.InformsMgt;
 import io.Mauzo.Server.ServerApp;
 import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Security.UserPrincipal;
 import io.Mauzo.Server.Templates.Inform;
 import org.springframework.stereotype.Component;
 
-import javax.json.Json;
-import javax.json.JsonArrayBuilder;
-import javax.json.JsonObjectBuilder;
-import javax.servlet.http.HttpServletRequest;
+import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
-import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
@@ -68,39 +66,25 @@ public class InformsCtrl {
      * El contenido que recibirá esta vista http es mediante una peticion GET con
      * la estructura de atributos de id, nSales, nRefunds, nDiscounts, dStart y dEnd.
      *
-     * @param req      El header de la petición HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getInformMethod(@Context final HttpServletRequest req) {
-        return ServerUtils.genericUserMethod(req, null, null, () -> {
-            JsonArrayBuilder jsonResponse = Json.createArrayBuilder();
-
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response getInformMethod() {
+        return ServerUtils.genericMethod(() -> Response.ok(ServerUtils.jsonStream((generator) -> {
             InformsMgt informsMgt = Connections.getController().acquireInforms();
 
             try {
+                generator.writeStartArray();
 
-                for (Inform inform : informsMgt.getList()) {
-                    JsonObjectBuilder jsonObj = Json.createObjectBuilder();
-
-                    jsonObj.add("id", inform.getId());
-                    jsonObj.add("nSales", inform.getnSales());
-                    jsonObj.add("nRefunds", inform.getnRefunds());
-                    jsonObj.add("nDiscounts", inform.getnDiscounts());
-                    //TODO: Hashmap
-                    jsonObj.add("dStart", inform.getdStart().getTime());
-                    jsonObj.add("dEnd", inform.getdEnd().getTime());
-
-                    jsonResponse.add(jsonObj);
-                }
+                informsMgt.forEach((inform) -> InformCodec.getCodec().write(generator, inform));
 
+                generator.writeEnd();
             } finally {
                 Connections.getController().releaseInforms(informsMgt);
             }
-
-            return Response.ok(jsonResponse.build().toString(), MediaType.APPLICATION_JSON);
-        });
+        }), MediaType.APPLICATION_JSON));
     }
 
     /**
@@ -111,32 +95,23 @@ public class InformsCtrl {
      * El contenido que recibirá esta vista http es mediante una peticion GET con
      * la estructura de atributos de id, nSales, nRefunds, nDiscounts, dStart y dEnd.
      *
-     * @param req      El header de la petición HTTP.
      * @param param  El ID de usuario en la peticion HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @GET
     @Path("{param_id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getInform(@Context final HttpServletRequest req, @PathParam("param_id") int param) {
+    @RolesAllowed(UserPrincipal.ROLE_ADMIN)
+    public Response getInform(@PathParam("param_id") int param) {
 
-        return ServerUtils.genericAdminMethod(req, param, null, () -> {
+        return ServerUtils.genericMethod(() -> {
             ResponseBuilder response = null;
             InformsMgt informsMgt = Connections.getController().acquireInforms();
 
             try {
-                JsonObjectBuilder jsonResponse = Json.createObjectBuilder();
                 Inform inform = informsMgt.get(param);
 
-                jsonResponse.add("id", inform.getId());
-                jsonResponse.add("nSales", inform.getnSales());
-                jsonResponse.add("nRefunds", inform.getnRefunds());
-                jsonResponse.add("nDiscounts", inform.getnDiscounts());
-                //TODO: Hashmap
-                jsonResponse.add("dStart", inform.getdStart().getTime());
-                jsonResponse.add("dEnd", inform.getdEnd().getTime());
-
-                response = Response.ok(jsonResponse.build().toString(), MediaType.APPLICATION_JSON);
+                response = Response.ok(ServerUtils.jsonStream((generator) -> InformCodec.getCodec().write(generator, inform)), MediaType.APPLICATION_JSON);
             } catch (ManagerErrorException e) {
                 ServerApp.getLoggerSystem().debug(e.toString());
                 response = Response.status(Status.NOT_FOUND);
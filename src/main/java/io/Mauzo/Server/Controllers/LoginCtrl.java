@@ -24,13 +24,9 @@
 package io.Mauzo.Server.Controllers;
 
 // Paquetes relacionados con el framework estandar.
-import java.io.StringReader;
+import java.io.InputStream;
 import java.util.Date;
 
-// Paquetes relacionados con Json.
-import javax.json.Json;
-import javax.json.JsonObject;
-
 // Paquetes relacionados con el servidor.
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
@@ -53,9 +49,12 @@ import io.jsonwebtoken.SignatureAlgorithm;
 // Paquetes relacionados con el Proyecto.
 import io.Mauzo.Server.ServerApp;
 import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Codecs.JsonBody;
+import io.Mauzo.Server.Codecs.UserCodec;
 import io.Mauzo.Server.Managers.Connections;
 import io.Mauzo.Server.Managers.UsersMgt;
 import io.Mauzo.Server.Managers.ManagersIntf.ManagerErrorException;
+import io.Mauzo.Server.Security.UserDirectory;
 import io.Mauzo.Server.Templates.User;
 
 /**
@@ -81,27 +80,28 @@ public class LoginCtrl {
      * la estructura de atributos de username y password.
      * 
      * @param req      El header de la petición HTTP.
-     * @param jsonData El body de la petición HTTP.
+     * @param body     El body de la petición HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response loginMethod(@Context final HttpServletRequest req, String jsonData) {
-        return ServerUtils.genericMethod(req, null, jsonData, () -> {
-            ResponseBuilder response = Response.status(Status.BAD_REQUEST);
+    public Response loginMethod(@Context final HttpServletRequest req, InputStream body) {
+        return ServerUtils.genericMethod(() -> {
+            ResponseBuilder response = null;
+
+            try {
+                // Leemos el usuario y la contraseña del cuerpo de la petición.
+                final User credentials = JsonBody.read(req, body, "login", UserCodec.getCodec());
 
-            // Si la informacion que recibe es nula, no se procesa nada.
-            if(jsonData.length() != 0) {
-                // Convertimos la información JSON recibida en un objeto.
-                final JsonObject jsonRequest = Json.createReader(new StringReader(jsonData)).readObject();
+                final String username = credentials.getUsername();
+                final String password = credentials.getPassword();
 
-                final String username = jsonRequest.getString("username");
-                final String password = jsonRequest.getString("password");
+                // Sin usuario o contraseña no se puede validar el login.
+                if (username == null || password == null)
+                    throw new JsonBody.JsonBodyException("Se requieren los atributos username y password", Status.BAD_REQUEST);
 
-                UsersMgt usersMgt = Connections.getController().acquireUsers();
-                
                 try {
-                    User userAux = usersMgt.get(username);
+                    User userAux = getLoginUser(username);
 
                     if(userAux != null) {
                         // Comprobamos la contraseña si es valida.
@@ -129,12 +129,54 @@ public class LoginCtrl {
                 } catch (ManagerErrorException e) {
                     ServerApp.getLoggerSystem().error(e.toString());
                     response = Response.status(Status.FORBIDDEN);
-                } finally {
-                    Connections.getController().releaseUsers(usersMgt);
                 }
+            } catch (JsonBody.JsonBodyException e) {
+                // Si el cuerpo no es valido, respondemos con el estado correspondiente.
+                ServerApp.getLoggerSystem().debug(e.toString());
+                response = Response.status(e.getStatus());
             }
-            
+
             return response;
         });
     }
+
+    /**
+     * Método privado para obtener el usuario que intenta iniciar sesión.
+     * 
+     * Se consulta el directorio de usuarios en memoria y, solo si no está al día,
+     * la base de datos. Si el directorio está al día y no contiene el usuario, el
+     * login es invalido sin ocupar ninguna conexión.
+     * 
+     * @param username El nombre de usuario.
+     * @return El usuario, con el id, el nombre, la contraseña y si es administrador,
+     *         o null si el directorio está al día y no lo contiene.
+     * @throws Exception Excepción en la base de datos o si no existe el usuario.
+     */
+    private static User getLoginUser(String username) throws Exception {
+        final UserDirectory directory = UserDirectory.getDirectory();
+
+        if (directory.isLive()) {
+            final UserDirectory.Entry entry = directory.get(username);
+
+            if (entry == null)
+                return null;
+
+            final User user = new User();
+
+            user.setId(entry.getId());
+            user.setUsername(entry.getUsername());
+            user.setPassword(entry.getPassword());
+            user.setAdmin(entry.isAdmin());
+
+            return user;
+        }
+
+        UsersMgt usersMgt = Connections.getController().acquireUsers();
+
+        try {
+            return usersMgt.get(username);
+        } finally {
+            Connections.getController().releaseUsers(usersMgt);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Controllers;
+
+// Paquetes relativos a los Json de entrada y salida.
+import javax.json.stream.JsonGenerator;
+
+// Paquetes relativos a la interfaz web.
+import javax.annotation.security.RolesAllowed;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import org.springframework.stereotype.Component;
+
+// Paquetes propios de la aplicación.
+import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Security.UserPrincipal;
+import io.Mauzo.Server.Managers.Connections;
+import io.Mauzo.Server.Managers.PoolMetrics;
+import io.Mauzo.Server.Metrics.Histogram;
+import io.Mauzo.Server.Pictures.PictureCache;
+import io.Mauzo.Server.Pictures.ThumbnailService;
+
+/**
+ * Clase controladora de métricas, la cual expone a traves de la interfaz
+ * Rest API el estado interno del servidor, como el uso del grupo de conexiones
+ * con la base de datos.
+ * 
+ * @author Neirth Sergio Martinez
+ */
+@Component
+@Path("/metrics")
+public class MetricsCtrl {
+    /**
+     * Controlador que permite a un administrador obtener las métricas del
+     * servidor.
+     * 
+     * El contenido que devolverá esta vista http es mediante una peticion GET con
+     * la estructura de atributos de pool, con las conexiones abiertas, libres y en
+     * uso, managers, con los tiempos de espera y retención en microsegundos de
+     * cada tipo de gestor, thumbnails, con la cola y el tiempo de proceso de las
+     * miniaturas, y pictureCache, con los aciertos y la ocupación de la cache de
+     * imagenes.
+     * 
+     * @return La respuesta generada por parte de la vista.
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed(UserPrincipal.ROLE_ADMIN)
+    public Response getMetricsMethod() {
+        return ServerUtils.genericMethod(() -> {
+            final Connections connections = Connections.getController();
+            final ThumbnailService thumbnails = ThumbnailService.getService();
+            final PictureCache cache = PictureCache.getCache();
+
+            return Response.ok(ServerUtils.jsonStream((generator) -> {
+                generator.writeStartObject();
+
+                // Escribimos el estado general del grupo de conexiones.
+                generator.writeStartObject("pool");
+                generator.write("min", connections.getMinConnections());
+                generator.write("max", connections.getMaxConnections());
+                generator.write("opened", connections.getOpenedConnections());
+                generator.write("idle", connections.getIdleConnections());
+                generator.write("inUse", connections.getInUseConnections());
+                generator.writeEnd();
+
+                // Escribimos las métricas de cada tipo de gestor.
+                generator.writeStartObject("managers");
+
+                for (PoolMetrics metrics : connections.getMetrics()) {
+                    generator.writeStartObject(metrics.getName());
+                    generator.write("inUse", metrics.getInUse());
+                    generator.write("acquired", metrics.getAcquired());
+                    generator.write("timeouts", metrics.getTimeouts());
+                    generator.write("leaks", metrics.getLeaks());
+                    writeHistogram(generator, "waitTime", metrics.getWaitTime());
+                    writeHistogram(generator, "holdTime", metrics.getHoldTime());
+                    generator.writeEnd();
+                }
+
+                generator.writeEnd();
+
+                // Escribimos el estado de la generación de miniaturas.
+                generator.writeStartObject("thumbnails");
+                generator.write("queueDepth", thumbnails.getQueueDepth());
+                generator.write("active", thumbnails.getActiveJobs());
+                generator.write("processed", thumbnails.getProcessed());
+                generator.write("failed", thumbnails.getFailed());
+                generator.write("rejected", thumbnails.getRejected());
+                writeHistogram(generator, "processingTime", thumbnails.getProcessingTime());
+                generator.writeEnd();
+
+                // Escribimos el estado de la cache de imagenes.
+                final long lookups = cache.getHits() + cache.getMisses();
+
+                generator.writeStartObject("pictureCache");
+                generator.write("hits", cache.getHits());
+                generator.write("misses", cache.getMisses());
+                generator.write("hitRate", (lookups == 0) ? 0.0 : (double) cache.getHits() / lookups);
+                generator.write("evictions", cache.getEvictions());
+                generator.write("entries", cache.getEntries());
+                generator.write("bytes", cache.getUsedBytes());
+                generator.write("capacity", cache.getCapacity());
+                generator.writeEnd();
+
+                generator.writeEnd();
+            }), MediaType.APPLICATION_JSON);
+        });
+    }
+
+    /**
+     * Método para escribir un histograma como un objeto Json con el número de
+     * valores, la media, el máximo y los percentiles más habituales.
+     * 
+     * @param generator El generador Json sobre la respuesta.
+     * @param name      El nombre del atributo.
+     * @param histogram El histograma.
+     */
+    static void writeHistogram(JsonGenerator generator, String name, Histogram histogram) {
+        generator.writeStartObject(name);
+        generator.write("count", histogram.getCount());
+        generator.write("mean", histogram.getMean());
+        generator.write("p50", histogram.getPercentile(50));
+        generator.write("p90", histogram.getPercentile(90));
+        generator.write("p99", histogram.getPercentile(99));
+        generator.write("max", histogram.getMax());
+        generator.writeEnd();
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Controllers;
+
+import java.io.OutputStream;
+
+// Paquetes relativos a la interfaz web.
+import javax.annotation.security.RolesAllowed;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.SecurityContext;
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.stereotype.Component;
+
+import io.Mauzo.Server.PictureUtils;
+import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Managers.Connections;
+import io.Mauzo.Server.Managers.PicturesMgt;
+import io.Mauzo.Server.Pictures.PictureCache;
+import io.Mauzo.Server.Pictures.ThumbnailService;
+import io.Mauzo.Server.Security.UserPrincipal;
+import io.Mauzo.Server.Templates.PictureInfo;
+
+/**
+ * Clase controladora del almacén de imagenes, que sirve las imagenes de
+ * productos y usuarios a partir de su hash.
+ * 
+ * Como el contenido de una imagen no cambia nunca para un mismo hash, estas
+ * respuestas se pueden guardar en la cache del cliente sin volver a validarlas.
+ * 
+ * Las imagenes de los usuarios, igual que sus listados, solo las pueden ver los
+ * administradores, por lo que al resto de usuarios solo se les sirven las
+ * imagenes que referencia algún producto.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+@Component
+@Path("/pictures")
+public class PicturesCtrl {
+    /**
+     * Controlador que permite obtener una imagen del almacén como contenido
+     * binario, en la interfaz web http://HOST_URL/api/pictures/(hash).
+     * 
+     * Los productos y usuarios indican el hash de su imagen en los atributos
+     * prodPicHash y userPicHash respectivamente. Si el usuario no es
+     * administrador y la imagen no es la de ningún producto, se responde con un
+     * 404 como si no existiera.
+     * 
+     * @param req      El header de la petición HTTP.
+     * @param security El usuario verificado de la petición.
+     * @param hash     El hash de la imagen.
+     * @param size     El tamaño de la miniatura, o null para la imagen original.
+     * @return La respuesta generada por parte de la vista.
+     */
+    @GET
+    @Path("{hash}")
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response getPicture(@Context final HttpServletRequest req, @Context final SecurityContext security, @PathParam("hash") String hash, @QueryParam("size") Integer size) {
+        return ServerUtils.genericMethod(() -> {
+            // Si no es un hash valido, no puede existir la imagen.
+            if (!PictureUtils.isHash(hash))
+                return Response.status(Status.NOT_FOUND);
+
+            // Solo los administradores pueden ver las imagenes que no son de productos.
+            if (!security.isUserInRole(UserPrincipal.ROLE_ADMIN)) {
+                final boolean productPicture;
+
+                // Adquirimos una conexión de imagenes
+                PicturesMgt picturesMgt = Connections.getController().acquirePictures();
+
+                try {
+                    productPicture = picturesMgt.isProductPicture(hash);
+                } finally {
+                    // Devolvemos la conexión de imagenes
+                    Connections.getController().releasePictures(picturesMgt);
+                }
+
+                if (!productPicture)
+                    return Response.status(Status.NOT_FOUND);
+            }
+
+            return pictureResponse(req, hash, size, true);
+        });
+    }
+
+    /**
+     * Método que construye la respuesta con una imagen del almacén, o con una de
+     * sus miniaturas, usado también por los controladores de productos y
+     * usuarios.
+     * 
+     * Las imagenes más solicitadas se sirven desde la cache de imagenes, sin
+     * acceder a la base de datos. Si la miniatura todavía no se ha generado se
+     * encola su generación y se sirve la imagen original, sin marcarla como
+     * inmutable. La imagen original se lee por fragmentos al escribir la
+     * respuesta, ocupando una conexión solo durante la lectura de cada uno.
+     * 
+     * @param req       La petición HTTP.
+     * @param hash      El hash de la imagen, o null si no hay imagen.
+     * @param size      El tamaño de la miniatura, o null para la imagen original.
+     * @param immutable Si la URL de la imagen identifica siempre el mismo contenido.
+     * @return La respuesta preconstruida.
+     * @throws Exception Excepción en la base de datos.
+     */
+    static ResponseBuilder pictureResponse(HttpServletRequest req, String hash, Integer size, boolean immutable) throws Exception {
+        // Si el tamaño no es uno de los generados, lanzamos la respuesta 400 BAD REQUEST.
+        if (size != null && !ThumbnailService.getService().isValidSize(size))
+            return Response.status(Status.BAD_REQUEST);
+
+        if (hash == null)
+            return Response.status(Status.NOT_FOUND);
+
+        // Si la imagen está en la cache, la servimos sin acceder a la base de datos.
+        final PictureCache cache = PictureCache.getCache();
+        final String key = PictureCache.key(hash, size);
+        PictureCache.Entry entry = cache.get(key);
+
+        if (entry != null)
+            return PictureUtils.pictureResponse(req, entry.getInfo(), immutable, entry::write);
+
+        PictureInfo info = null;
+        byte[] variant = null;
+
+        // Adquirimos una conexión de imagenes
+        PicturesMgt picturesMgt = Connections.getController().acquirePictures();
+
+        try {
+            info = picturesMgt.getInfo(hash);
+
+            if (info != null && size != null)
+                variant = picturesMgt.getVariant(hash, size);
+
+            // Guardamos la imagen original en la cache si cabe en ella.
+            if (info != null && variant == null && size == null && cache.isCacheable(info.getLength())) {
+                final PicturesMgt loadMgt = picturesMgt;
+                final long length = info.getLength();
+
+                entry = cache.load(key, info, (out) -> loadMgt.stream(hash, 0, length, out, PictureUtils.getChunkSize()));
+            }
+        } finally {
+            // Devolvemos la conexión de imagenes
+            Connections.getController().releasePictures(picturesMgt);
+        }
+
+        if (variant != null) {
+            entry = cache.put(key, PictureUtils.getInfo(variant), variant);
+
+            if (entry == null)
+                return PictureUtils.pictureResponse(req, variant, immutable);
+        }
+
+        if (entry != null)
+            return PictureUtils.pictureResponse(req, entry.getInfo(), immutable, entry::write);
+
+        // Si falta la miniatura, la generamos en segundo plano.
+        if (info != null && size != null)
+            ThumbnailService.getService().submit(hash);
+
+        /*
+         * La imagen original servida en lugar de una miniatura no es el contenido
+         * definitivo de la URL, por lo que el cliente la debe revalidar para
+         * obtener la miniatura cuando esté generada.
+         */
+        final boolean cacheForever = immutable && size == null;
+
+        return PictureUtils.pictureResponse(req, info, cacheForever, (offset, length, out) -> streamPicture(hash, offset, length, out));
+    }
+
+    /**
+     * Método privado para escribir en la respuesta un rango de una imagen por
+     * fragmentos, adquiriendo una conexión solo mientras se lee cada fragmento,
+     * de manera que un cliente lento no retiene ninguna conexión mientras lo
+     * recibe.
+     * 
+     * @param hash   El hash de la imagen.
+     * @param offset El primer byte a escribir.
+     * @param length El número de bytes a escribir.
+     * @param out    El stream de la respuesta.
+     * @throws Exception Excepción en la base de datos o al escribir la respuesta.
+     */
+    private static void streamPicture(String hash, long offset, long length, OutputStream out) throws Exception {
+        final int chunkSize = PictureUtils.getChunkSize();
+        long position = offset;
+        long remaining = length;
+
+        while (remaining > 0) {
+            final byte[] chunk;
+
+            // Adquirimos una conexión de imagenes
+            PicturesMgt streamMgt = Connections.getController().acquirePictures();
+
+            try {
+                chunk = streamMgt.getChunk(hash, position, (int) Math.min(chunkSize, remaining));
+            } finally {
+                // Devolvemos la conexión de imagenes antes de escribir el fragmento.
+                Connections.getController().releasePictures(streamMgt);
+            }
+
+            out.write(chunk);
+
+            position += chunk.length;
+            remaining -= chunk.length;
+        }
+    }
+}
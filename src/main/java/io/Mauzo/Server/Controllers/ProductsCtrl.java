@@ -24,15 +24,12 @@
 package io.Mauzo.Server.Controllers;
 
 // Paquetes relativos al framework estandar de Java.
-import java.io.StringReader;
-
-// Paquetes relativos a los Json de entrada y salida.
-import javax.json.Json;
-import javax.json.JsonArrayBuilder;
-import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
 
 // Paquetes relativos a la interfaz web.
+import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.Produces;
 import javax.ws.rs.DELETE;
@@ -41,19 +38,30 @@ import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.MediaType;
 import javax.servlet.http.HttpServletRequest;
 
 
+import io.Mauzo.Server.Codecs.JsonBody;
+import io.Mauzo.Server.Codecs.ProductCodec;
 import io.Mauzo.Server.Managers.Connections;
+import io.Mauzo.Server.Managers.TableVersions;
 import io.Mauzo.Server.Managers.ManagersIntf;
 import io.Mauzo.Server.ServerApp;
 import org.springframework.stereotype.Component;
+import io.Mauzo.Server.PictureUtils;
+import io.Mauzo.Server.Pictures.PictureUpload;
+import io.Mauzo.Server.Pictures.ThumbnailService;
 import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Security.UserPrincipal;
+import io.Mauzo.Server.Templates.PictureInfo;
 import io.Mauzo.Server.Templates.Product;
 import io.Mauzo.Server.Managers.ProductsMgt;
 
@@ -75,52 +83,54 @@ public class ProductsCtrl {
      * del servidor, permitiendo así, obtener de manera dinámica los productos válidos.
      *
      * El contenido que recibirá esta vista http es mediante una peticion GET con
-     * la estructura de atributos de prodId, prodName, prodCode, prodDesc, prodPrice, prodPic.
+     * la estructura de atributos de prodId, prodName, prodCode, prodDesc, prodPrice, prodPicHash, prodPic.
+     *
+     * Mediante el parametro fields se pueden indicar, separados por comas, los
+     * atributos a recibir, por defecto se envían todos menos prodPic, la cual solo
+     * se consulta en la base de datos si se solicita.
+     *
+     * El listado se obtiene por páginas ordenadas por id, de hasta limit
+     * elementos a partir del id indicado en after. Si hay más elementos, la
+     * respuesta indica el after de la página siguiente en la cabecera
+     * X-Next-Cursor y su URL en la cabecera Link.
      *
-     * @param req Nos da la cabecera de la consulta
+     * La respuesta lleva una ETag debil según la versión de la tabla de
+     * productos, si el cliente la envía en If-None-Match y no ha cambiado se
+     * responde con un 304 sin consultar la base de datos.
+     *
+     * @param uriInfo La URL de la consulta
+     * @param request La petición, para evaluar la ETag del listado
+     * @param fields Los atributos solicitados por el cliente.
+     * @param after El id del último producto de la página anterior
+     * @param limit El número máximo de productos de la página
      * @return Devuelve una respuesta HTTP
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getProductsMethod(@Context final HttpServletRequest req) {
-        return ServerUtils.genericUserMethod(req, null, null, () -> {
-            JsonArrayBuilder jsonResponse = Json.createArrayBuilder();
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response getProductsMethod(@Context final UriInfo uriInfo, @Context final Request request, @QueryParam("fields") String fields, @QueryParam("after") Integer after, @QueryParam("limit") Integer limit) {
+        return ServerUtils.genericMethod(() -> ServerUtils.versionedResponse(request, uriInfo, () -> {
+            Set<String> fieldsSet = ServerUtils.parseFields(fields, "prodCode", "prodName", "prodDesc", "prodPrice", ProductsMgt.PICTURE_HASH_COLUMN);
+
+            final int pageAfter = (after != null) ? after : 0;
+            final int pageLimit = ServerUtils.getPageLimit(limit);
+            final List<Product> page;
+
+            // Si la página solicitada no es valida, lanzamos la respuesta 400 BAD REQUEST.
+            if (pageAfter < 0 || pageLimit < 1)
+                return Response.status(Status.BAD_REQUEST);
 
             ProductsMgt productsMgt = Connections.getController().acquireProducts();
 
             try {
-                for (Product product : productsMgt.getList()) {
-                    // Inicializamos los objetos a usar.
-                    JsonObjectBuilder jsonObj = Json.createObjectBuilder();
-
-                    // Construimos el objeto Json con los atributo de la venta.
-                    jsonObj.add("id", product.getId());
-                    jsonObj.add("prodCode", product.getCode());
-                    jsonObj.add("prodName", product.getName());
-
-                    try {
-                        jsonObj.add("prodDesc", product.getDescription());
-                    } catch (Exception e) {
-                        jsonObj.addNull("prodDesc");
-                    }
-
-                    jsonObj.add("prodPrice", product.getPrice());
-
-                    try {
-                        jsonObj.add("prodPic", ServerUtils.byteArrayToBase64(ServerUtils.imageToByteArray(product.getPicture(), "png")));
-                    } catch (Exception e) {
-                        jsonObj.addNull("prodPic");
-                    }
-
-                    // Lo añadimos al Json Array.
-                    jsonResponse.add(jsonObj);
-                }
+                // Consultamos un producto más para saber si hay página siguiente.
+                page = productsMgt.getPage(fieldsSet, pageAfter, pageLimit + 1);
             } finally {
                 Connections.getController().releaseProducts(productsMgt);
             }
 
-            return Response.ok(jsonResponse.build().toString());
-        });
+            return ServerUtils.pageResponse(uriInfo, page, pageLimit, Product::getId, (generator, product) -> ProductCodec.getCodec().write(generator, product, fieldsSet));
+        }, TableVersions.PRODUCTS));
     }
 
     /**
@@ -131,53 +141,40 @@ public class ProductsCtrl {
      * la estructura de atributos de prodId, prodCode, prodName, prodDesc, prodPrice, prodPic.
      *
      * @param req      El header de la petición HTTP.
-     * @param jsonData El body de la petición HTTP.
+     * @param body     El body de la petición HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response addProductMethod(@Context final HttpServletRequest req, String jsonData) {
-        return ServerUtils.genericUserMethod(req, null, jsonData, () -> {
-            ResponseBuilder response = Response.status(Status.BAD_REQUEST);
-
-            ProductsMgt productsMgt = Connections.getController().acquireProducts();
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response addProductMethod(@Context final HttpServletRequest req, InputStream body) {
+        return ServerUtils.genericMethod(() -> {
+            ResponseBuilder response = null;
 
             try {
-                // Si la informacion que recibe es nula, no se procesa nada
-                if (jsonData.length() != 0) {
-                    // Convertimos la información JSON recibida en un objeto.
-                    final JsonObject jsonRequest = Json.createReader(new StringReader(jsonData)).readObject();
-
-                    // Incializamos el objeto.
-                    Product product = new Product();
+                // Leemos el producto del cuerpo de la petición antes de ocupar una conexión.
+                final Product product = JsonBody.readComplete(req, body, "products", ProductCodec.getCodec());
 
-                    // Agregamos la información de la venta.
-                    product.setName(jsonRequest.getString("prodName"));
-
-                    try {
-                        product.setDescription(jsonRequest.getString("prodDesc"));
-                    } catch (Exception e) {
-                        product.setDescription(null);
-                    }
-
-                    product.setCode(jsonRequest.getString("prodCode"));
-                    product.setPrice(jsonRequest.getJsonNumber("prodPrice").bigDecimalValue().floatValue());
-
-                    try {
-                        product.setPicture(ServerUtils.imageFromByteArray(ServerUtils.byteArrayFromBase64(jsonRequest.getString("prodPic"))));
-                    } catch (Exception e) {
-                        product.setPicture(null);
-                    }
+                // Adquirimos una conexión de productos
+                ProductsMgt productsMgt = Connections.getController().acquireProducts();
 
-                    // Agregamos la venta a la lista.
+                try {
+                    // Agregamos el producto a la lista.
                     productsMgt.add(product);
 
+                    // Generamos en segundo plano las miniaturas de la imagen.
+                    ThumbnailService.getService().submit(product.getPictureHash());
 
                     // Si todo ha ido bien hasta ahora, lanzamos la respuesta 200 OK.
                     response = Response.status(Status.OK);
+                } finally {
+                    // Devolvemos la conexión de productos
+                    Connections.getController().releaseProducts(productsMgt);
                 }
-            } finally {
-                Connections.getController().releaseProducts(productsMgt);
+            } catch (JsonBody.JsonBodyException e) {
+                // Si el cuerpo no es valido, respondemos con el estado correspondiente.
+                ServerApp.getLoggerSystem().debug(e.toString());
+                response = Response.status(e.getStatus());
             }
 
             return response;
@@ -190,17 +187,17 @@ public class ProductsCtrl {
      * como parámetro en la interfaz web.
      *
      * El contenido que recibirá esta vista http es mediante una petición GET con
-     * la estructura de atributos de prodId, prodName, prodCode, prodDesc, prodPrice, prodPic.
+     * la estructura de atributos de prodId, prodName, prodCode, prodDesc, prodPrice, prodPicHash, prodPic.
      *
-     * @param req      El header de la petición HTTP.
      * @param paramProductId  El ID del producto en la peticion HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @GET
     @Path("{param_id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getProduct(@Context final HttpServletRequest req, @PathParam("param_id") int paramProductId) {
-        return ServerUtils.genericUserMethod(req, paramProductId, null, () -> {
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response getProduct(@PathParam("param_id") int paramProductId) {
+        return ServerUtils.genericMethod(() -> {
             ResponseBuilder response = null;
 
             // Adquirimos una conexión de productos
@@ -208,30 +205,10 @@ public class ProductsCtrl {
 
             try {
                 // Inicializamos los objetos a usar.
-                JsonObjectBuilder jsonResponse = Json.createObjectBuilder();
                 Product product = productsMgt.get(paramProductId);
 
-                // Generamos un JSON con los atributos del producto.
-                jsonResponse.add("id", product.getId());
-                jsonResponse.add("prodName", product.getName());
-                jsonResponse.add("prodCode", product.getCode());
-
-                try {
-                    jsonResponse.add("prodDesc", product.getDescription());
-                } catch (Exception e) {
-                    jsonResponse.addNull("prodDesc");
-                }
-
-                jsonResponse.add("prodPrice", product.getPrice());
-
-                try {
-                    jsonResponse.add("prodPic", ServerUtils.byteArrayToBase64(ServerUtils.imageToByteArray(product.getPicture(),"png")));
-                } catch (Exception e) {
-                    jsonResponse.addNull("prodPic");
-                }
-
-                // Lanzamos la respuesta 200 OK si todo ha ido bien.
-                response = Response.ok(jsonResponse.build().toString(), MediaType.APPLICATION_JSON);
+                // Lanzamos la respuesta 200 OK con un JSON con los atributos del producto.
+                response = Response.ok(ServerUtils.jsonStream((generator) -> ProductCodec.getCodec().write(generator, product)), MediaType.APPLICATION_JSON);
             } catch (ManagersIntf.ManagerErrorException e) {
                 // Si no se ha encontrado, lanzamos la respuesta 404 NOT FOUND.
                 ServerApp.getLoggerSystem().info(e.toString());
@@ -252,48 +229,50 @@ public class ProductsCtrl {
      *
      * @param req      El header de la petición HTTP.
      * @param paramProdId  El ID del producto en la peticion HTTP.
-     * @param jsonData El body de la petición HTTP.
+     * @param body     El body de la petición HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @PUT
     @Path("{param_id}")
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response modifyProduct(@Context final HttpServletRequest req, @PathParam("param_id") int paramProdId, String jsonData) {
-        return ServerUtils.genericUserMethod(req, paramProdId, jsonData, () -> {
-            ResponseBuilder response = Response.status(Status.BAD_REQUEST);
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response modifyProduct(@Context final HttpServletRequest req, @PathParam("param_id") int paramProdId, InputStream body) {
+        return ServerUtils.genericMethod(() -> {
+            ResponseBuilder response = null;
 
-            // Si la informacion que recibe es nula, no se procesa nada.
-            if (jsonData.length() != 0) {
-                // Convertimos la información JSON recibida en un objeto.
-                final JsonObject jsonRequest = Json.createReader(new StringReader(jsonData)).readObject();
+            try {
+                // Leemos los cambios del cuerpo de la petición antes de ocupar una conexión.
+                final Product patch = JsonBody.read(req, body, "products", ProductCodec.getCodec());
 
                 // Adquirimos una conexión de productos
                 ProductsMgt productsMgt = Connections.getController().acquireProducts();
 
                 try {
-                    // Incializamos el objeto.
-                    Product product = productsMgt.get(paramProdId);
-
-                    // Agregamos la información al producto.
-                    product.setName(jsonRequest.isNull("prodName") ? product.getName() : jsonRequest.getString("prodName"));
-                    product.setCode(jsonRequest.isNull("prodCode") ? product.getCode() : jsonRequest.getString("prodCode"));
-                    product.setPrice(jsonRequest.isNull("prodPrice") ? product.getPrice() : jsonRequest.getJsonNumber("prodPrice").bigDecimalValue().floatValue());
-                    product.setDescription(jsonRequest.isNull("prodDesc") ? product.getDescription() : jsonRequest.getString("prodDesc"));
-                    product.setPicture(jsonRequest.isNull("prodPic") ? product.getPicture() : ServerUtils.imageFromByteArray(ServerUtils.byteArrayFromBase64(jsonRequest.getString("prodPic"))));
+                    // Obtenemos el producto y le agregamos la información recibida.
+                    Product product = productsMgt.getWithoutPicture(paramProdId);
+                    ProductCodec.getCodec().merge(patch, product);
 
-                    // Agregamos el producto a la lista.
+                    // Guardamos el producto en la lista.
                     productsMgt.modify(product);
 
+                    // Si ha cambiado la imagen, generamos en segundo plano sus miniaturas, si no las tenía ya.
+                    if (patch.getPicture() != null)
+                        ThumbnailService.getService().submit(product.getPictureHash());
+
                     // Si todo ha ido bien hasta ahora, lanzamos la respuesta 200 OK.
                     response = Response.status(Status.OK);
                 } catch (ManagersIntf.ManagerErrorException e) {
                     // Si no se ha encontrado, lanzamos la respuesta 404 NOT FOUND.
-                    ServerApp.getLoggerSystem().info(e.toString());
+                    ServerApp.getLoggerSystem().debug(e.toString());
                     response = Response.status(Status.NOT_FOUND);
                 } finally {
                     // Devolvemos la conexión de productos
                     Connections.getController().releaseProducts(productsMgt);
                 }
+            } catch (JsonBody.JsonBodyException e) {
+                // Si el cuerpo no es valido, respondemos con el estado correspondiente.
+                ServerApp.getLoggerSystem().debug(e.toString());
+                response = Response.status(e.getStatus());
             }
 
             return response;
@@ -304,14 +283,14 @@ public class ProductsCtrl {
      * Controlador para eliminar productos pasados por parámetro en la interfaz web
      * http://HOST_URL/api/products/(prodId) con el tipo de petición DELETE.
      *
-     * @param req El header de la petición HTTP.
      * @param paramProductId  El ID del producto en la peticion HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @DELETE
     @Path("{param_id}")
-    public Response deleteProduct(@Context final HttpServletRequest req, @PathParam("param_id") int paramProductId) {
-        return ServerUtils.genericUserMethod(req, paramProductId, null, () -> {
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response deleteProduct(@PathParam("param_id") int paramProductId) {
+        return ServerUtils.genericMethod(() -> {
             ResponseBuilder response;
 
             // Adquirimos una conexión de productos
@@ -338,4 +317,102 @@ public class ProductsCtrl {
             return response;
         });
     }
+
+    /**
+     * Controlador que permite obtener la imagen de un producto como contenido
+     * binario, en la interfaz web http://HOST_URL/api/products/(id)/picture.
+     *
+     * La respuesta lleva el tipo de contenido de la imagen y un ETag, de manera
+     * que el cliente puede guardarla en su cache HTTP y revalidarla con
+     * If-None-Match, y admite peticiones parciales con la cabecera Range.
+     *
+     * Con el parametro size se obtiene una de las miniaturas generadas en segundo
+     * plano, mientras no esté generada se sirve la imagen original. La misma
+     * imagen se puede obtener, sin tener que revalidarla, en la interfaz web
+     * http://HOST_URL/api/pictures/(prodPicHash).
+     *
+     * @param req      El header de la petición HTTP.
+     * @param paramId  El ID del producto en la peticion HTTP.
+     * @param size     El tamaño de la miniatura, o null para la imagen original.
+     * @return La respuesta generada por parte de la vista.
+     */
+    @GET
+    @Path("{param_id}/picture")
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response getProductPicture(@Context final HttpServletRequest req, @PathParam("param_id") int paramId, @QueryParam("size") Integer size) {
+        return ServerUtils.genericMethod(() -> {
+            String hash = null;
+
+            // Adquirimos una conexión de productos
+            ProductsMgt productsMgt = Connections.getController().acquireProducts();
+
+            try {
+                hash = productsMgt.getPictureHash(paramId);
+            } catch (ManagersIntf.ManagerErrorException e) {
+                // Si no se ha encontrado, lanzamos la respuesta 404 NOT FOUND.
+                ServerApp.getLoggerSystem().debug(e.toString());
+                return Response.status(Status.NOT_FOUND);
+            } finally {
+                // Devolvemos la conexión de productos
+                Connections.getController().releaseProducts(productsMgt);
+            }
+
+            // Servimos la imagen desde el almacén de imagenes, con otra conexión.
+            return PicturesCtrl.pictureResponse(req, hash, size, false);
+        });
+    }
+
+    /**
+     * Controlador para reemplazar la imagen de un producto con su contenido binario,
+     * sin codificar en base64, en la interfaz web
+     * http://HOST_URL/api/products/(id)/picture con el tipo de petición PUT.
+     *
+     * Antes de guardarla solo se lee la cabecera de la imagen para validar su
+     * formato y sus dimensiones, y las imagenes demasiado grandes se rechazan a
+     * partir del Content-Length sin leer el cuerpo. La imagen se lee del cliente
+     * a un fichero temporal antes de ocupar una conexión.
+     *
+     * @param req     El header de la petición HTTP.
+     * @param paramId El ID del producto en la peticion HTTP.
+     * @param body    El body de la petición HTTP con la imagen.
+     * @return La respuesta generada por parte de la vista.
+     */
+    @PUT
+    @Path("{param_id}/picture")
+    @Consumes({ "image/*", MediaType.APPLICATION_OCTET_STREAM })
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response uploadProductPicture(@Context final HttpServletRequest req, @PathParam("param_id") int paramId, InputStream body) {
+        return ServerUtils.genericMethod(() -> {
+            ResponseBuilder response = null;
+            final long length = req.getContentLengthLong();
+
+            // Validamos la cabecera de la imagen y la leemos del cliente antes de ocupar una conexión.
+            try (PictureUpload.SpooledPicture picture = PictureUpload.open(body, length)) {
+                // Adquirimos una conexión de productos
+                ProductsMgt productsMgt = Connections.getController().acquireProducts();
+
+                try {
+                    // Guardamos la imagen y generamos en segundo plano sus miniaturas, si no las tenía ya.
+                    final String hash = productsMgt.writePicture(paramId, picture, picture.getLength(), picture.getHash());
+                    ThumbnailService.getService().submit(hash);
+
+                    // Si todo ha ido bien hasta ahora, lanzamos la respuesta 200 OK.
+                    response = Response.status(Status.OK);
+                } catch (ManagersIntf.ManagerErrorException e) {
+                    // Si no se ha encontrado, lanzamos la respuesta 404 NOT FOUND.
+                    ServerApp.getLoggerSystem().debug(e.toString());
+                    response = Response.status(Status.NOT_FOUND);
+                } finally {
+                    // Devolvemos la conexión de productos
+                    Connections.getController().releaseProducts(productsMgt);
+                }
+            } catch (PictureUpload.PictureUploadException e) {
+                // Si la imagen no es valida, respondemos con el estado correspondiente.
+                ServerApp.getLoggerSystem().debug(e.toString());
+                response = Response.status(e.getStatus());
+            }
+
+            return response;
+        });
+    }
 }
@@ -24,29 +24,30 @@
 
 package io.Mauzo.Server.Controllers;
 
+import io.Mauzo.Server.Codecs.JsonBody;
+import io.Mauzo.Server.Codecs.RefundCodec;
 import io.Mauzo.Server.Managers.Connections;
+import io.Mauzo.Server.Managers.TableVersions;
 import io.Mauzo.Server.Managers.ManagersIntf;
 import io.Mauzo.Server.Managers.RefundsMgt;
 import io.Mauzo.Server.ServerApp;
 import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Security.UserPrincipal;
 import io.Mauzo.Server.Templates.Refund;
 import org.springframework.stereotype.Component;
 
-// Paquetes relativos a los Json de entrada y salida.
-import javax.json.Json;
-import javax.json.JsonArrayBuilder;
-import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
-
+import javax.annotation.security.RolesAllowed;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.UriInfo;
 
 // Paquetes relativos al framework estandar de Java.
-import java.io.StringReader;
-import java.util.Date;
+import java.io.InputStream;
+import java.util.List;
 
 /**
  * Clase controladora de las devoluciones que gestiona las operaciones CRUD con la base de datos a través de una interfaz Rest API.
@@ -68,36 +69,55 @@ public class RefundsCtrl {
      * El contenido que recibirá esta vista http es mediante una petición GET con
      * la estructura de atributos de id, dateRefund, userId ,saleId.
      *
-     * @param req La cabecera de la consulta
+     * El listado se obtiene por páginas ordenadas por id, de hasta limit
+     * elementos a partir del id indicado en after. Si hay más elementos, la
+     * respuesta indica el after de la página siguiente en la cabecera
+     * X-Next-Cursor y su URL en la cabecera Link.
+     *
+     * Los reembolsos se pueden filtrar por rango de fechas, en milisegundos e
+     * incluyendo ambos extremos, por usuario, y por el producto o descuento de la
+     * venta reembolsada.
+     *
+     * La respuesta lleva una ETag debil según la versión de las tablas de
+     * reembolsos y de ventas, si el cliente la envía en If-None-Match y no han
+     * cambiado se responde con un 304 sin consultar la base de datos.
+     *
+     * @param uriInfo La URL de la consulta
+     * @param request La petición, para evaluar la ETag del listado
+     * @param after El id del último reembolso de la página anterior
+     * @param limit El número máximo de reembolsos de la página
+     * @param from La fecha mínima de los reembolsos
+     * @param to La fecha máxima de los reembolsos
+     * @param userId El usuario de los reembolsos
+     * @param prodId El producto de la venta reembolsada
+     * @param discId El descuento de la venta reembolsada
      * @return Devuelve una respuesta HTTP
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getRefundsMethod(@Context final HttpServletRequest req) {
-        return ServerUtils.genericUserMethod(req, null, null, () -> {
-            JsonArrayBuilder jsonResponse = Json.createArrayBuilder();
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response getRefundsMethod(@Context final UriInfo uriInfo, @Context final Request request, @QueryParam("after") Integer after, @QueryParam("limit") Integer limit,
+            @QueryParam("from") Long from, @QueryParam("to") Long to, @QueryParam("userId") Integer userId, @QueryParam("prodId") Integer prodId, @QueryParam("discId") Integer discId) {
+        return ServerUtils.genericMethod(() -> ServerUtils.versionedResponse(request, uriInfo, () -> {
+            final int pageAfter = (after != null) ? after : 0;
+            final int pageLimit = ServerUtils.getPageLimit(limit);
+            final List<Refund> page;
+
+            // Si la página solicitada no es valida, lanzamos la respuesta 400 BAD REQUEST.
+            if (pageAfter < 0 || pageLimit < 1)
+                return Response.status(Response.Status.BAD_REQUEST);
 
             RefundsMgt refundsMgt = Connections.getController().acquireRefunds();
 
             try {
-                for (Refund refund : refundsMgt.getList()) {
-                    // Inicializamos los objetos a usar.
-                    JsonObjectBuilder jsonObj = Json.createObjectBuilder();
-
-                    // Construimos el objeto Json con los atributo de la venta.
-                    jsonObj.add("id", refund.getId());
-                    jsonObj.add("dateRefund", refund.getDateRefund().getTime());
-                    jsonObj.add("userId", refund.getUserId());
-                    jsonObj.add("saleId", refund.getSaleId());
-                    // Lo añadimos al Json Array.
-                    jsonResponse.add(jsonObj);
-                }
+                // Consultamos un reembolso más para saber si hay página siguiente.
+                page = refundsMgt.getPage(SalesCtrl.getFilter(from, to, userId, prodId, discId), pageAfter, pageLimit + 1);
             } finally {
                 Connections.getController().releaseRefunds(refundsMgt);
             }
 
-            return Response.ok(jsonResponse.build().toString());
-        });
+            return ServerUtils.pageResponse(uriInfo, page, pageLimit, Refund::getId, RefundCodec.getCodec()::write);
+        }, TableVersions.REFUNDS, TableVersions.SALES));
     }
 
     /**
@@ -108,41 +128,37 @@ public class RefundsCtrl {
      * la estructura de atributos de id, dateRefund, userId ,saleId.
      *
      * @param req      El header de la petición HTTP.
-     * @param jsonData El body de la petición HTTP.
+     * @param body     El body de la petición HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response registerRefund(@Context final HttpServletRequest req, String jsonData) {
-        return ServerUtils.genericAdminMethod(req, null, jsonData, () -> {
-            Response.ResponseBuilder response = Response.status(Response.Status.BAD_REQUEST);
+    @RolesAllowed(UserPrincipal.ROLE_ADMIN)
+    public Response registerRefund(@Context final HttpServletRequest req, InputStream body) {
+        return ServerUtils.genericMethod(() -> {
+            Response.ResponseBuilder response = null;
 
-            // Si la informacion que recibe es nula, no se procesa nada.
-            if (jsonData.length() != 0) {
-                // Convertimos la información JSON recibida en un objeto.
-                final JsonObject jsonRequest = Json.createReader(new StringReader(jsonData)).readObject();
+            try {
+                // Leemos el reembolso del cuerpo de la petición antes de ocupar una conexión.
+                final Refund refund = JsonBody.readComplete(req, body, "refunds", RefundCodec.getCodec());
 
                 // Adquirimos una conexión de reembolsos
                 RefundsMgt refundsMgt = Connections.getController().acquireRefunds();
 
                 try {
-                    // Incializamos el objeto.
-                    Refund refund = new Refund();
-
-                    // Agregamos la información al reembolso.
-                    refund.setDateRefund(new Date(jsonRequest.getJsonNumber("dateRefund").longValue()));
-                    refund.setUserId(jsonRequest.getInt("userId"));
-                    refund.setSaleId(jsonRequest.getInt("saleId"));
-
                     // Agregamos el reembolso a la lista.
                     refundsMgt.add(refund);
+
+                    // Si todo ha ido bien hasta ahora, lanzamos la respuesta 200 OK.
+                    response = Response.status(Response.Status.OK);
                 } finally {
                     // Devolvemos la conexión de reembolsos
                     Connections.getController().releaseRefunds(refundsMgt);
                 }
-
-                // Si todo ha ido bien hasta ahora, lanzamos la respuesta 200 OK.
-                response = Response.status(Response.Status.OK);
+            } catch (JsonBody.JsonBodyException e) {
+                // Si el cuerpo no es valido, respondemos con el estado correspondiente.
+                ServerApp.getLoggerSystem().debug(e.toString());
+                response = Response.status(e.getStatus());
             }
 
             return response;
@@ -157,15 +173,15 @@ public class RefundsCtrl {
      * El contenido que recibirá esta vista http es mediante una petición GET con
      * la estructura de atributos de id, dateRefund, userId ,saleId.
      *
-     * @param req El header de la petición HTTP.
      * @param paramRefundId  El ID del reembolso en la peticion HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @GET
     @Path("{param_id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getRefund(@Context final HttpServletRequest req, @PathParam("param_id") int paramRefundId) {
-        return ServerUtils.genericAdminMethod(req, paramRefundId, null, () -> {
+    @RolesAllowed(UserPrincipal.ROLE_ADMIN)
+    public Response getRefund(@PathParam("param_id") int paramRefundId) {
+        return ServerUtils.genericMethod(() -> {
             Response.ResponseBuilder response = null;
 
             // Adquirimos una conexión de reembolsos
@@ -173,17 +189,10 @@ public class RefundsCtrl {
 
             try {
                 // Inicializamos los objetos a usar.
-                JsonObjectBuilder jsonResponse = Json.createObjectBuilder();
                 Refund refund = refundsMgt.get(paramRefundId);
 
-                // Generamos un JSON con los atributos del reembolso.
-                jsonResponse.add("id", refund.getId());
-                jsonResponse.add("dateRefund", refund.getDateRefund().getTime());
-                jsonResponse.add("userId", refund.getUserId());
-                jsonResponse.add("saleId", refund.getSaleId());
-
-                // Lanzamos la respuesta 200 OK si todo ha ido bien.
-                response = Response.ok(jsonResponse.build().toString(), MediaType.APPLICATION_JSON);
+                // Lanzamos la respuesta 200 OK con un JSON con los atributos del reembolso.
+                response = Response.ok(ServerUtils.jsonStream((generator) -> RefundCodec.getCodec().write(generator, refund)), MediaType.APPLICATION_JSON);
             } catch (ManagersIntf.ManagerErrorException e) {
                 // Si no se ha encontrado, lanzamos la respuesta 404 NOT FOUND.
                 ServerApp.getLoggerSystem().info(e.toString());
@@ -204,47 +213,47 @@ public class RefundsCtrl {
      *
      * @param req El header de la petición HTTP.
      * @param paramId  El ID del reembolso en la petición HTTP.
-     * @param jsonData El body de la petición HTTP.
+     * @param body     El body de la petición HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @PUT
     @Path("{param_id}")
-    public Response modifyRefund(@Context final HttpServletRequest req, @PathParam("param_id") int paramId, String jsonData) {
-        return ServerUtils.genericUserMethod(req, paramId, jsonData, () -> {
-            Response.ResponseBuilder response = Response.status(Response.Status.BAD_REQUEST);
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response modifyRefund(@Context final HttpServletRequest req, @PathParam("param_id") int paramId, InputStream body) {
+        return ServerUtils.genericMethod(() -> {
+            Response.ResponseBuilder response = null;
 
-            // Si la informacion que recibe es nula, no se procesa nada.
-            if (jsonData.length() != 0) {
-                // Convertimos la información JSON recibida en un objeto.
-                final JsonObject jsonRequest = Json.createReader(new StringReader(jsonData)).readObject();
+            try {
+                // Leemos los cambios del cuerpo de la petición antes de ocupar una conexión.
+                final Refund patch = JsonBody.read(req, body, "refunds", RefundCodec.getCodec());
 
                 // Adquirimos una conexión de reembolsos
                 RefundsMgt refundsMgt = Connections.getController().acquireRefunds();
 
-                try  {
-                    // Incializamos el objeto.
+                try {
+                    // Obtenemos el reembolso y le agregamos la información recibida.
                     Refund refund = refundsMgt.get(paramId);
+                    RefundCodec.getCodec().merge(patch, refund);
 
-                    // Agregamos la información al reembolso.
-                    refund.setId(jsonRequest.isNull("id") ? jsonRequest.getInt("id") : refund.getId());
-                    refund.setDateRefund(new Date(jsonRequest.isNull("dateRefund") ? jsonRequest.getJsonNumber("dateRefund").longValue() : refund.getDateRefund().getTime()));
-                    refund.setUserId(jsonRequest.isNull("userId") ? jsonRequest.getInt("userId") : refund.getUserId());
-                    refund.setSaleId(jsonRequest.isNull("saleId") ? jsonRequest.getInt("saleId") : refund.getSaleId());
-
-                    // Agregamos el reembolso a la lista.
+                    // Guardamos el reembolso en la lista.
                     refundsMgt.modify(refund);
 
                     // Si todo ha ido bien hasta ahora, lanzamos la respuesta 200 OK.
                     response = Response.status(Response.Status.OK);
                 } catch (ManagersIntf.ManagerErrorException e) {
                     // Si no se ha encontrado, lanzamos la respuesta 404 NOT FOUND.
-                    ServerApp.getLoggerSystem().info(e.toString());
+                    ServerApp.getLoggerSystem().debug(e.toString());
                     response = Response.status(Response.Status.NOT_FOUND);
                 } finally {
                     // Devolvemos la conexión de reembolsos
                     Connections.getController().releaseRefunds(refundsMgt);
                 }
+            } catch (JsonBody.JsonBodyException e) {
+                // Si el cuerpo no es valido, respondemos con el estado correspondiente.
+                ServerApp.getLoggerSystem().debug(e.toString());
+                response = Response.status(e.getStatus());
             }
+
             return response;
         });
     }
@@ -253,14 +262,14 @@ public class RefundsCtrl {
      * Controlador para eliminar reembolsos pasados por parámetro en la interfaz web
      * http://HOST_URL/api/refunds/(id) con el tipo de petición DELETE.
      *
-     * @param req El header de la petición HTTP.
      * @param paramId  El ID del reembolso en la peticion HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @DELETE
     @Path("{param_id}")
-    public Response deleteRefund(@Context final HttpServletRequest req, @PathParam("param_id") int paramId) {
-        return ServerUtils.genericAdminMethod(req, paramId, null, () -> {
+    @RolesAllowed(UserPrincipal.ROLE_ADMIN)
+    public Response deleteRefund(@PathParam("param_id") int paramId) {
+        return ServerUtils.genericMethod(() -> {
             Response.ResponseBuilder response;
 
             // Adquirimos una conexión de reembolsos
@@ -24,16 +24,12 @@
 package io.Mauzo.Server.Controllers;
 
 // Paquetes relativos al framework estandar de Java.
-import java.io.StringReader;
+import java.io.InputStream;
 import java.util.Date;
-
-// Paquetes relativos a los Json de entrada y salida.
-import javax.json.Json;
-import javax.json.JsonArrayBuilder;
-import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
+import java.util.List;
 
 // Paquetes relativos a la interfaz web.
+import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.Produces;
 import javax.ws.rs.DELETE;
@@ -42,19 +38,27 @@ import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.UriInfo;
 import javax.servlet.http.HttpServletRequest;
 import org.springframework.stereotype.Component;
 
 // Paquetes propios de la aplicación.
 import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Security.UserPrincipal;
 import io.Mauzo.Server.ServerApp;
+import io.Mauzo.Server.Codecs.JsonBody;
+import io.Mauzo.Server.Codecs.SaleCodec;
 import io.Mauzo.Server.Templates.Sale;
+import io.Mauzo.Server.Templates.SalesFilter;
 import io.Mauzo.Server.Managers.Connections;
+import io.Mauzo.Server.Managers.TableVersions;
 import io.Mauzo.Server.Managers.SalesMgt;
 import io.Mauzo.Server.Managers.ManagersIntf.ManagerErrorException;
 
@@ -80,46 +84,56 @@ public class SalesCtrl {
      * El contenido que recibirá esta vista http es mediante una peticion GET con
      * la estructura de atributos de id, stampRef, userId, prodId y discId.
      * 
-     * @param req      El header de la petición HTTP.
+     * El listado se obtiene por páginas ordenadas por id, de hasta limit
+     * elementos a partir del id indicado en after. Si hay más elementos, la
+     * respuesta indica el after de la página siguiente en la cabecera
+     * X-Next-Cursor y su URL en la cabecera Link.
+     * 
+     * Las ventas se pueden filtrar por rango de fechas, en milisegundos e
+     * incluyendo ambos extremos, y por usuario, producto o descuento.
+     * 
+     * La respuesta lleva una ETag debil según la versión de la tabla de
+     * ventas, si el cliente la envía en If-None-Match y no ha cambiado se
+     * responde con un 304 sin consultar la base de datos.
+     * 
+     * @param uriInfo  La URL de la petición HTTP.
+     * @param request  La petición, para evaluar la ETag del listado.
+     * @param after    El id de la última venta de la página anterior.
+     * @param limit    El número máximo de ventas de la página.
+     * @param from     La fecha mínima de las ventas.
+     * @param to       La fecha máxima de las ventas.
+     * @param userId   El usuario de las ventas.
+     * @param prodId   El producto de las ventas.
+     * @param discId   El descuento de las ventas.
      * @return La respuesta generada por parte de la vista.
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getSalesMethod(@Context final HttpServletRequest req) {
-        return ServerUtils.genericUserMethod(req, null, null, () -> {
-            JsonArrayBuilder jsonResponse = Json.createArrayBuilder();
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response getSalesMethod(@Context final UriInfo uriInfo, @Context final Request request, @QueryParam("after") Integer after, @QueryParam("limit") Integer limit,
+            @QueryParam("from") Long from, @QueryParam("to") Long to, @QueryParam("userId") Integer userId, @QueryParam("prodId") Integer prodId, @QueryParam("discId") Integer discId) {
+        return ServerUtils.genericMethod(() -> ServerUtils.versionedResponse(request, uriInfo, () -> {
+            final int pageAfter = (after != null) ? after : 0;
+            final int pageLimit = ServerUtils.getPageLimit(limit);
+            final List<Sale> page;
+
+            // Si la página solicitada no es valida, lanzamos la respuesta 400 BAD REQUEST.
+            if (pageAfter < 0 || pageLimit < 1)
+                return Response.status(Status.BAD_REQUEST);
 
             // Adquirimos una conexión de ventas
             SalesMgt salesMgt = Connections.getController().acquireSales();
 
             try {
-                for (Sale saleAux : salesMgt.getList()) {
-                    // Inicializamos los objetos a usar.
-                    JsonObjectBuilder jsonObj = Json.createObjectBuilder();
-    
-                    // Construimos el objeto Json con los atributo de la venta.
-                    jsonObj.add("id", saleAux.getId());
-                    jsonObj.add("stampRef", saleAux.getStampRef().getTime());
-                    jsonObj.add("userId", saleAux.getUserId());
-                    jsonObj.add("prodId", saleAux.getProdId());
-
-                    // Capturamos posible null procedente de la BBDD.
-                    try {
-                        jsonObj.add("discId", saleAux.getDiscId());
-                    } catch (Exception e) {
-                        jsonObj.addNull("discId");
-                    }
-    
-                    // Lo añadimos al Json Array.
-                    jsonResponse.add(jsonObj);
-                }
+                // Consultamos una venta más para saber si hay página siguiente.
+                page = salesMgt.getPage(getFilter(from, to, userId, prodId, discId), pageAfter, pageLimit + 1);
             } finally {
                 // Devolvemos la conexión de ventas
                 Connections.getController().releaseSales(salesMgt);
             }
 
-            return Response.ok(jsonResponse.build().toString());
-        });
+            return ServerUtils.pageResponse(uriInfo, page, pageLimit, Sale::getId, SaleCodec.getCodec()::write);
+        }, TableVersions.SALES));
     }
 
     /**
@@ -131,50 +145,38 @@ public class SalesCtrl {
      * la estructura de atributos de id, stampRef, userId, prodId y discId.
      * 
      * @param req      El header de la petición HTTP.
-     * @param jsonData El body de la petición HTTP.
+     * @param body     El body de la petición HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response addSalesMethod(@Context final HttpServletRequest req, String jsonData) {
-        return ServerUtils.genericUserMethod(req, null, jsonData, () -> {
-            ResponseBuilder response = Response.status(Status.BAD_REQUEST);
-
-            // Adquirimos una conexión de ventas
-            SalesMgt salesMgt = Connections.getController().acquireSales();
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response addSalesMethod(@Context final HttpServletRequest req, InputStream body) {
+        return ServerUtils.genericMethod(() -> {
+            ResponseBuilder response = null;
 
             try {
-                // Si la informacion que recibe es nula, no se procesa nada
-                if (jsonData.length() != 0) {
-                    // Convertimos la información JSON recibida en un objeto.
-                    final JsonObject jsonRequest = Json.createReader(new StringReader(jsonData)).readObject();
-                
-                    // Incializamos el objeto.
-                    Sale saleAux = new Sale();
-
-                    // Agregamos la información de la venta.
-                    saleAux.setStampRef(new Date(jsonRequest.getJsonNumber("stampRef").longValue()));
-                    saleAux.setUserId(jsonRequest.getInt("userId"));
-                    
-                    try {
-                        saleAux.setDiscId(jsonRequest.getInt("discId"));
-                    } catch (Exception e) {
-                        saleAux.setDiscId(null);
-                    }
-
-                    saleAux.setProdId(jsonRequest.getInt("prodId"));
-
-                
+                // Leemos la venta del cuerpo de la petición antes de ocupar una conexión.
+                final Sale saleAux = JsonBody.readComplete(req, body, "sales", SaleCodec.getCodec());
+
+                // Adquirimos una conexión de ventas
+                SalesMgt salesMgt = Connections.getController().acquireSales();
+
+                try {
                     // Agregamos la venta a la lista.
                     salesMgt.add(saleAux);
 
                     // Si todo ha ido bien hasta ahora, lanzamos la respuesta 200 OK.
                     response = Response.status(Status.OK);
+                } finally {
+                    // Devolvemos la conexión de ventas
+                    Connections.getController().releaseSales(salesMgt);
                 }
-            } finally {
-                // Devolvemos la conexión de ventas
-                Connections.getController().releaseSales(salesMgt);
-            }           
+            } catch (JsonBody.JsonBodyException e) {
+                // Si el cuerpo no es valido, respondemos con el estado correspondiente.
+                ServerApp.getLoggerSystem().debug(e.toString());
+                response = Response.status(e.getStatus());
+            }
 
             return response;
         });
@@ -188,14 +190,14 @@ public class SalesCtrl {
      * El contenido que recibirá esta vista http es mediante una peticion GET con
      * la estructura de atributos de id, stampRef, userId, prodId y discId.
      * 
-     * @param req      El header de la petición HTTP.
      * @param paramId  El ID de usuario en la peticion HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @GET
     @Path("{param_id}")
-    public Response getSaleMethod(@Context final HttpServletRequest req, @PathParam("param_id") int paramId) {
-        return ServerUtils.genericUserMethod(req, paramId, null, () -> {
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response getSaleMethod(@PathParam("param_id") int paramId) {
+        return ServerUtils.genericMethod(() -> {
             ResponseBuilder response = null;
 
             // Adquirimos una conexión de ventas
@@ -203,23 +205,10 @@ public class SalesCtrl {
 
             try {
                 // Inicializamos los objetos a usar.
-                JsonObjectBuilder jsonResponse = Json.createObjectBuilder();
                 Sale saleAux = salesMgt.get(paramId);
 
                 // Generamos un JSON con los atributos de la venta.
-                jsonResponse.add("id", saleAux.getId());
-                jsonResponse.add("stampRef", saleAux.getStampRef().getTime());
-                jsonResponse.add("userId", saleAux.getUserId());
-                jsonResponse.add("prodId", saleAux.getProdId());
-                
-                // Capturamos posible null procedente de la BBDD.
-                try {
-                    jsonResponse.add("discId", saleAux.getDiscId());
-                } catch (Exception e) {
-                    jsonResponse.addNull("discId");
-                }
-
-                response = Response.ok(jsonResponse.build().toString(), MediaType.APPLICATION_JSON);
+                response = Response.ok(ServerUtils.jsonStream((generator) -> SaleCodec.getCodec().write(generator, saleAux)), MediaType.APPLICATION_JSON);
             } catch (ManagerErrorException e) {
                 // Si no se ha encontrado, lanzamos la respuesta 404 NOT FOUND.
                 ServerApp.getLoggerSystem().debug(e.toString());
@@ -240,34 +229,29 @@ public class SalesCtrl {
      * 
      * @param req      El header de la petición HTTP.
      * @param paramId  El ID de usuario en la peticion HTTP.
-     * @param jsonData El body de la petición HTTP.
+     * @param body     El body de la petición HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @PUT
     @Path("{param_id}")
-    public Response modifySaleMethod(@Context final HttpServletRequest req, @PathParam("param_id") int paramId, String jsonData) {
-        return ServerUtils.genericUserMethod(req, paramId, jsonData, () -> {
-            ResponseBuilder response = Response.status(Status.BAD_REQUEST);
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response modifySaleMethod(@Context final HttpServletRequest req, @PathParam("param_id") int paramId, InputStream body) {
+        return ServerUtils.genericMethod(() -> {
+            ResponseBuilder response = null;
 
-            // Si la informacion que recibe es nula, no se procesa nada.
-            if (jsonData.length() != 0) {
-                // Convertimos la información JSON recibida en un objeto.
-                final JsonObject jsonRequest = Json.createReader(new StringReader(jsonData)).readObject();
+            try {
+                // Leemos los cambios del cuerpo de la petición antes de ocupar una conexión.
+                final Sale patch = JsonBody.read(req, body, "sales", SaleCodec.getCodec());
 
                 // Adquirimos una conexión de ventas
                 SalesMgt salesMgt = Connections.getController().acquireSales();
 
-                try  {
-                    // Incializamos el objeto.
+                try {
+                    // Obtenemos la venta y le agregamos la información recibida.
                     Sale saleAux = salesMgt.get(paramId);
+                    SaleCodec.getCodec().merge(patch, saleAux);
 
-                    // Agregamos la información al usuario.
-                    saleAux.setStampRef(new Date(jsonRequest.isNull("stampRef") ? jsonRequest.getJsonNumber("stampRef").longValue() : saleAux.getStampRef().getTime()));
-                    saleAux.setUserId(jsonRequest.isNull("userId") ? jsonRequest.getInt("userId") : saleAux.getUserId());
-                    saleAux.setProdId(jsonRequest.isNull("prodId") ? jsonRequest.getInt("prodId") : saleAux.getProdId());
-                    saleAux.setDiscId(jsonRequest.isNull("discId") ? jsonRequest.getInt("discId") : saleAux.getDiscId());
-  
-                    // Agregamos el usuario a la lista.
+                    // Guardamos la venta en la lista.
                     salesMgt.modify(saleAux);
 
                     // Si todo ha ido bien hasta ahora, lanzamos la respuesta 200 OK.
@@ -279,7 +263,11 @@ public class SalesCtrl {
                 } finally {
                     // Devolvemos la conexión de ventas
                     Connections.getController().releaseSales(salesMgt);
-                }                
+                }
+            } catch (JsonBody.JsonBodyException e) {
+                // Si el cuerpo no es valido, respondemos con el estado correspondiente.
+                ServerApp.getLoggerSystem().debug(e.toString());
+                response = Response.status(e.getStatus());
             }
 
             return response;
@@ -290,14 +278,14 @@ public class SalesCtrl {
      * Controlador para eliminar ventas pasados por parametro en la interfaz web
      * http://HOST_URL/api/sales/(id) con el tipo de petición DELETE.
      * 
-     * @param req      El header de la petición HTTP.
      * @param paramId  El ID de usuario en la peticion HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @DELETE
     @Path("{param_id}")
-    public Response deleteSaleMethod(@Context final HttpServletRequest req, @PathParam("param_id") int paramId) {
-        return ServerUtils.genericUserMethod(req, paramId, null, () -> {
+    @RolesAllowed(UserPrincipal.ROLE_USER)
+    public Response deleteSaleMethod(@PathParam("param_id") int paramId) {
+        return ServerUtils.genericMethod(() -> {
             ResponseBuilder response;
 
             // Adquirimos una conexión de ventas
@@ -325,4 +313,28 @@ public class SalesCtrl {
             return response;
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * Método que construye los filtros de los listados de ventas y devoluciones
+     * a partir de los parametros de la petición, usado también por el
+     * controlador de devoluciones.
+     * 
+     * @param from   La fecha mínima en milisegundos, o null.
+     * @param to     La fecha máxima en milisegundos, o null.
+     * @param userId El usuario, o null.
+     * @param prodId El producto, o null.
+     * @param discId El descuento, o null.
+     * @return Los filtros del listado.
+     */
+    static SalesFilter getFilter(Long from, Long to, Integer userId, Integer prodId, Integer discId) {
+        SalesFilter filter = new SalesFilter();
+
+        filter.setFrom((from != null) ? new Date(from) : null);
+        filter.setTo((to != null) ? new Date(to) : null);
+        filter.setUserId(userId);
+        filter.setProdId(prodId);
+        filter.setDiscId(discId);
+
+        return filter;
+    }
+}
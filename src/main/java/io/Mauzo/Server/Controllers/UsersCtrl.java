@@ -24,15 +24,12 @@
 package io.Mauzo.Server.Controllers;
 
 // Paquetes relativos al framework estandar de Java.
-import java.io.StringReader;
-
-// Paquetes relativos a los Json de entrada y salida.
-import javax.json.Json;
-import javax.json.JsonArrayBuilder;
-import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
 
 // Paquetes relativos a la interfaz web.
+import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.Produces;
 import javax.ws.rs.DELETE;
@@ -41,8 +38,11 @@ import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.MediaType;
@@ -50,10 +50,18 @@ import javax.servlet.http.HttpServletRequest;
 import org.springframework.stereotype.Component;
 
 // Paquetes propios de la aplicación.
+import io.Mauzo.Server.Codecs.JsonBody;
+import io.Mauzo.Server.Codecs.UserCodec;
+import io.Mauzo.Server.PictureUtils;
+import io.Mauzo.Server.Pictures.PictureUpload;
+import io.Mauzo.Server.Pictures.ThumbnailService;
 import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Security.UserPrincipal;
+import io.Mauzo.Server.Templates.PictureInfo;
 import io.Mauzo.Server.ServerApp;
 import io.Mauzo.Server.Templates.User;
 import io.Mauzo.Server.Managers.Connections;
+import io.Mauzo.Server.Managers.TableVersions;
 import io.Mauzo.Server.Managers.UsersMgt;
 import io.Mauzo.Server.Managers.ManagersIntf.ManagerErrorException;
 
@@ -77,52 +85,60 @@ public class UsersCtrl {
      * otros administradores validos dentro del sistema.
      * 
      * El contenido que recibirá esta vista http es mediante una peticion GET con
-     * la estructura de atributos de id, username, email, firstname, lastname
-     * y isAdmin.
+     * la estructura de atributos de id, username, email, firstname, lastname,
+     * isAdmin y userPicHash.
      * 
-     * @param req      El header de la petición HTTP.
+     * Mediante el parametro fields se pueden indicar, separados por comas, los
+     * atributos a recibir, por defecto se envían todos menos userPic, la cual solo
+     * se consulta en la base de datos si se solicita. La contraseña nunca se envía.
+     * 
+     * El listado se obtiene por páginas ordenadas por id, de hasta limit
+     * elementos a partir del id indicado en after. Si hay más elementos, la
+     * respuesta indica el after de la página siguiente en la cabecera
+     * X-Next-Cursor y su URL en la cabecera Link.
+     * 
+     * La respuesta lleva una ETag debil según la versión de la tabla de
+     * usuarios, si el cliente la envía en If-None-Match y no ha cambiado se
+     * responde con un 304 sin consultar la base de datos.
+     * 
+     * @param uriInfo  La URL de la petición HTTP.
+     * @param request  La petición, para evaluar la ETag del listado.
+     * @param fields   Los atributos solicitados por el cliente.
+     * @param after    El id del último usuario de la página anterior.
+     * @param limit    El número máximo de usuarios de la página.
      * @return La respuesta generada por parte de la vista.
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getLists(@Context final HttpServletRequest req) {
-        return ServerUtils.genericAdminMethod(req, null, null, () -> {
-            JsonArrayBuilder jsonResponse = Json.createArrayBuilder();
-            
+    @RolesAllowed(UserPrincipal.ROLE_ADMIN)
+    public Response getLists(@Context final UriInfo uriInfo, @Context final Request request, @QueryParam("fields") String fields, @QueryParam("after") Integer after, @QueryParam("limit") Integer limit) {
+        return ServerUtils.genericMethod(() -> ServerUtils.versionedResponse(request, uriInfo, () -> {
+            Set<String> fieldsSet = ServerUtils.parseFields(fields, "username", "firstname", "lastname", "email", "isAdmin", UsersMgt.PICTURE_HASH_COLUMN);
+
+            // La contraseña nunca se envía, por lo que tampoco se consulta.
+            fieldsSet.remove(UsersMgt.PASSWORD_COLUMN);
+
+            final int pageAfter = (after != null) ? after : 0;
+            final int pageLimit = ServerUtils.getPageLimit(limit);
+            final List<User> page;
+
+            // Si la página solicitada no es valida, lanzamos la respuesta 400 BAD REQUEST.
+            if (pageAfter < 0 || pageLimit < 1)
+                return Response.status(Status.BAD_REQUEST);
+
             // Adquirimos una conexión de usuarios
             UsersMgt usersMgt = Connections.getController().acquireUsers();
 
             try {
-                // Recorremos la lista que nos ha entregado el servidor.
-                for (User user : usersMgt.getList()) {
-                    // Inicializamos los objetos a usar.
-                    JsonObjectBuilder jsonObj = Json.createObjectBuilder();
-
-                    // Construimos el objeto Json con los atributo del usuario.
-                    jsonObj.add("id", user.getId());
-                    jsonObj.add("username", user.getUsername());
-                    jsonObj.add("firstname", user.getFirstName());
-                    jsonObj.add("lastname", user.getLastName());
-                    jsonObj.add("email", user.getEmail());
-                    jsonObj.add("isAdmin", user.isAdmin());
-
-                    // Capturamos posible null procedente de la BBDD.
-                    try {
-                        jsonObj.add("userPic", ServerUtils.byteArrayToBase64(ServerUtils.imageToByteArray(user.getUserPic(), "png")));
-                    } catch (Exception e) {
-                        jsonObj.addNull("userPic");
-                    }
-                    
-                    // Lo añadimos al Json Array.
-                    jsonResponse.add(jsonObj);
-                }
+                // Consultamos un usuario más para saber si hay página siguiente.
+                page = usersMgt.getPage(fieldsSet, pageAfter, pageLimit + 1);
             } finally {
                 // Devolvemos la conexión de usuarios
                 Connections.getController().releaseUsers(usersMgt);
             }
 
-            return Response.ok(jsonResponse.build().toString(), MediaType.APPLICATION_JSON);
-        });
+            return ServerUtils.pageResponse(uriInfo, page, pageLimit, User::getId, (generator, user) -> UserCodec.getCodec().write(generator, user, fieldsSet));
+        }, TableVersions.USERS));
     }
 
     /**
@@ -135,51 +151,40 @@ public class UsersCtrl {
      * y isAdmin.
      * 
      * @param req      El header de la petición HTTP.
-     * @param jsonData El body de la petición HTTP.
+     * @param body     El body de la petición HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response registerUser(@Context final HttpServletRequest req, String jsonData) {
-        return ServerUtils.genericAdminMethod(req, null, jsonData, () -> {
-            ResponseBuilder response = Response.status(Status.BAD_REQUEST);
+    @RolesAllowed(UserPrincipal.ROLE_ADMIN)
+    public Response registerUser(@Context final HttpServletRequest req, InputStream body) {
+        return ServerUtils.genericMethod(() -> {
+            ResponseBuilder response = null;
 
-            // Si la informacion que recibe es nula, no se procesa nada.
-            if (jsonData.length() != 0) {
-                // Convertimos la información JSON recibida en un objeto.
-                final JsonObject jsonRequest = Json.createReader(new StringReader(jsonData)).readObject();
+            try {
+                // Leemos el usuario del cuerpo de la petición antes de ocupar una conexión.
+                final User userAux = JsonBody.readComplete(req, body, "users", UserCodec.getCodec());
 
                 // Adquirimos una conexión de usuarios
                 UsersMgt usersMgt = Connections.getController().acquireUsers();
 
                 try {
-                    // Incializamos el objeto.
-                    User userAux = new User();
-
-                    // Agregamos la información al usuario.
-                    userAux.setUsername(jsonRequest.getString("username"));
-                    userAux.setFirstName(jsonRequest.getString("firstname"));
-                    userAux.setLastName(jsonRequest.getString("lastname"));
-                    userAux.setEmail(jsonRequest.getString("email"));
-                    userAux.setPassword(jsonRequest.getString("password"));
-                    userAux.setAdmin(jsonRequest.getBoolean("isAdmin"));
-
-                    // Capturamos posible null procedente del Json.
-                    try {
-                        userAux.setUserPic(ServerUtils.imageFromByteArray(ServerUtils.byteArrayFromBase64(jsonRequest.getString("userPic"))));
-                    } catch (Exception e) {
-                        userAux.setUserPic(null);
-                    }
-
                     // Agregamos el usuario a la lista.
                     usersMgt.add(userAux);
+
+                    // Generamos en segundo plano las miniaturas de la imagen.
+                    ThumbnailService.getService().submit(userAux.getUserPicHash());
+
+                    // Si todo ha ido bien hasta ahora, lanzamos la respuesta 200 OK.
+                    response = Response.status(Status.OK);
                 } finally {
                     // Devolvemos la conexión de usuarios
                     Connections.getController().releaseUsers(usersMgt);
                 }
-
-                // Si todo ha ido bien hasta ahora, lanzamos la respuesta 200 OK.
-                response = Response.status(Status.OK);
+            } catch (JsonBody.JsonBodyException e) {
+                // Si el cuerpo no es valido, respondemos con el estado correspondiente.
+                ServerApp.getLoggerSystem().debug(e.toString());
+                response = Response.status(e.getStatus());
             }
 
             return response;
@@ -195,15 +200,15 @@ public class UsersCtrl {
      * la estructura de atributos de id, username, email, firstname, lastname
      * y isAdmin.
      * 
-     * @param req      El header de la petición HTTP.
      * @param paramId  El ID de usuario en la peticion HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @GET
     @Path("{param_id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getUser(@Context final HttpServletRequest req, @PathParam("param_id") int paramId) {
-        return ServerUtils.genericAdminMethod(req, paramId, null, () -> {
+    @RolesAllowed(UserPrincipal.ROLE_ADMIN)
+    public Response getUser(@PathParam("param_id") int paramId) {
+        return ServerUtils.genericMethod(() -> {
             ResponseBuilder response = null;
 
             // Adquirimos una conexión de usuarios
@@ -211,26 +216,10 @@ public class UsersCtrl {
 
             try {
                 // Inicializamos los objetos a usar.
-                JsonObjectBuilder jsonResponse = Json.createObjectBuilder();
                 User user = usersMgt.get(paramId);
-                
-                // Generamos un JSON con los atributos del usuario.
-                jsonResponse.add("id", user.getId());
-                jsonResponse.add("username", user.getUsername());
-                jsonResponse.add("firstname", user.getFirstName());
-                jsonResponse.add("lastname", user.getLastName());
-                jsonResponse.add("email", user.getEmail());
-                jsonResponse.add("isAdmin", user.isAdmin());
-               
-                // Capturamos posible null procedente de la BBDD.
-                try {
-                    jsonResponse.add("userPic", ServerUtils.byteArrayToBase64(ServerUtils.imageToByteArray(user.getUserPic(), "png")));
-                } catch (Exception e) {
-                    jsonResponse.addNull("userPic");
-                }
 
-                // Lanzamos la respuesta 200 OK si todo ha ido bien.
-                response = Response.ok(jsonResponse.build().toString(), MediaType.APPLICATION_JSON);
+                // Lanzamos la respuesta 200 OK con un JSON con los atributos del usuario.
+                response = Response.ok(ServerUtils.jsonStream((generator) -> UserCodec.getCodec().write(generator, user)), MediaType.APPLICATION_JSON);
             } catch (ManagerErrorException e) {
                 // Si no se ha encontrado, lanzamos la respuesta 404 NOT FOUND.
                 ServerApp.getLoggerSystem().debug(e.toString());
@@ -251,39 +240,36 @@ public class UsersCtrl {
      * 
      * @param req      El header de la petición HTTP.
      * @param paramId  El ID de usuario en la peticion HTTP.
-     * @param jsonData El body de la petición HTTP.
+     * @param body     El body de la petición HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @PUT
     @Path("{param_id}")
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response modifyUser(@Context final HttpServletRequest req, @PathParam("param_id") int paramId, String jsonData) {
-        return ServerUtils.genericAdminMethod(req, paramId, jsonData, () -> {
-            ResponseBuilder response = Response.status(Status.BAD_REQUEST);
+    @RolesAllowed(UserPrincipal.ROLE_ADMIN)
+    public Response modifyUser(@Context final HttpServletRequest req, @PathParam("param_id") int paramId, InputStream body) {
+        return ServerUtils.genericMethod(() -> {
+            ResponseBuilder response = null;
 
-            // Si la informacion que recibe es nula, no se procesa nada.
-            if (jsonData.length() != 0) {
-                // Convertimos la información JSON recibida en un objeto.
-                final JsonObject jsonRequest = Json.createReader(new StringReader(jsonData)).readObject();
+            try {
+                // Leemos los cambios del cuerpo de la petición antes de ocupar una conexión.
+                final User patch = JsonBody.read(req, body, "users", UserCodec.getCodec());
 
                 // Adquirimos una conexión de usuarios
                 UsersMgt usersMgt = Connections.getController().acquireUsers();
 
                 try {
-                    // Incializamos el objeto.
-                    User userAux = usersMgt.get(paramId);
-
-                    // Agregamos la información al usuario.
-                    userAux.setFirstName(jsonRequest.isNull("firstname") ? userAux.getFirstName() : jsonRequest.getString("firstname"));
-                    userAux.setLastName(jsonRequest.isNull("lastname") ? userAux.getLastName() : jsonRequest.getString("lastname"));
-                    userAux.setEmail(jsonRequest.isNull("email") ? userAux.getEmail() : jsonRequest.getString("email"));
-                    userAux.setPassword(jsonRequest.isNull("password") ? userAux.getPassword() : jsonRequest.getString("password"));
-                    userAux.setAdmin(jsonRequest.isNull("isAdmin") ?  userAux.isAdmin() : jsonRequest.getBoolean("isAdmin"));
-                    userAux.setUserPic(jsonRequest.isNull("userPic") ? userAux.getUserPic() : ServerUtils.imageFromByteArray(ServerUtils.byteArrayFromBase64(jsonRequest.getString("userPic"))));
-                    
-                    // Agregamos el usuario a la lista.
+                    // Obtenemos el usuario y le agregamos la información recibida.
+                    User userAux = usersMgt.getWithoutPicture(paramId);
+                    UserCodec.getCodec().merge(patch, userAux);
+
+                    // Guardamos el usuario en la lista.
                     usersMgt.modify(userAux);
 
+                    // Si ha cambiado la imagen, generamos en segundo plano sus miniaturas, si no las tenía ya.
+                    if (patch.getUserPic() != null)
+                        ThumbnailService.getService().submit(userAux.getUserPicHash());
+
                     // Si todo ha ido bien hasta ahora, lanzamos la respuesta 200 OK.
                     response = Response.status(Status.OK);
                 } catch (ManagerErrorException e) {
@@ -291,9 +277,13 @@ public class UsersCtrl {
                     ServerApp.getLoggerSystem().debug(e.toString());
                     response = Response.status(Status.NOT_FOUND);
                 } finally {
-                   // Devolvemos la conexión de usuarios
-                   Connections.getController().releaseUsers(usersMgt);
+                    // Devolvemos la conexión de usuarios
+                    Connections.getController().releaseUsers(usersMgt);
                 }
+            } catch (JsonBody.JsonBodyException e) {
+                // Si el cuerpo no es valido, respondemos con el estado correspondiente.
+                ServerApp.getLoggerSystem().debug(e.toString());
+                response = Response.status(e.getStatus());
             }
 
             return response;
@@ -304,14 +294,14 @@ public class UsersCtrl {
      * Controlador para eliminar usuarios pasados por parametro en la interfaz web
      * http://HOST_URL/api/users/(id) con el tipo de petición DELETE.
      * 
-     * @param req      El header de la petición HTTP.
      * @param paramId  El ID de usuario en la peticion HTTP.
      * @return La respuesta generada por parte de la vista.
      */
     @DELETE
     @Path("{param_id}")
-    public Response deleteUser(@Context final HttpServletRequest req, @PathParam("param_id") int paramId) {
-        return ServerUtils.genericAdminMethod(req, paramId, null, () -> {
+    @RolesAllowed(UserPrincipal.ROLE_ADMIN)
+    public Response deleteUser(@PathParam("param_id") int paramId) {
+        return ServerUtils.genericMethod(() -> {
             ResponseBuilder response;
 
             // Adquirimos una conexión de usuarios
@@ -338,4 +328,102 @@ public class UsersCtrl {
             return response;
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * Controlador que permite obtener la imagen de un usuario como contenido
+     * binario, en la interfaz web http://HOST_URL/api/users/(id)/picture.
+     *
+     * La respuesta lleva el tipo de contenido de la imagen y un ETag, de manera
+     * que el cliente puede guardarla en su cache HTTP y revalidarla con
+     * If-None-Match, y admite peticiones parciales con la cabecera Range.
+     *
+     * Con el parametro size se obtiene una de las miniaturas generadas en segundo
+     * plano, mientras no esté generada se sirve la imagen original. La misma
+     * imagen se puede obtener, sin tener que revalidarla, en la interfaz web
+     * http://HOST_URL/api/pictures/(userPicHash).
+     *
+     * @param req      El header de la petición HTTP.
+     * @param paramId  El ID de usuario en la peticion HTTP.
+     * @param size     El tamaño de la miniatura, o null para la imagen original.
+     * @return La respuesta generada por parte de la vista.
+     */
+    @GET
+    @Path("{param_id}/picture")
+    @RolesAllowed(UserPrincipal.ROLE_ADMIN)
+    public Response getUserPicture(@Context final HttpServletRequest req, @PathParam("param_id") int paramId, @QueryParam("size") Integer size) {
+        return ServerUtils.genericMethod(() -> {
+            String hash = null;
+
+            // Adquirimos una conexión de usuarios
+            UsersMgt usersMgt = Connections.getController().acquireUsers();
+
+            try {
+                hash = usersMgt.getPictureHash(paramId);
+            } catch (ManagerErrorException e) {
+                // Si no se ha encontrado, lanzamos la respuesta 404 NOT FOUND.
+                ServerApp.getLoggerSystem().debug(e.toString());
+                return Response.status(Status.NOT_FOUND);
+            } finally {
+                // Devolvemos la conexión de usuarios
+                Connections.getController().releaseUsers(usersMgt);
+            }
+
+            // Servimos la imagen desde el almacén de imagenes, con otra conexión.
+            return PicturesCtrl.pictureResponse(req, hash, size, false);
+        });
+    }
+
+    /**
+     * Controlador para reemplazar la imagen de un usuario con su contenido binario,
+     * sin codificar en base64, en la interfaz web
+     * http://HOST_URL/api/users/(id)/picture con el tipo de petición PUT.
+     *
+     * Antes de guardarla solo se lee la cabecera de la imagen para validar su
+     * formato y sus dimensiones, y las imagenes demasiado grandes se rechazan a
+     * partir del Content-Length sin leer el cuerpo. La imagen se lee del cliente
+     * a un fichero temporal antes de ocupar una conexión.
+     *
+     * @param req     El header de la petición HTTP.
+     * @param paramId El ID del usuario en la peticion HTTP.
+     * @param body    El body de la petición HTTP con la imagen.
+     * @return La respuesta generada por parte de la vista.
+     */
+    @PUT
+    @Path("{param_id}/picture")
+    @Consumes({ "image/*", MediaType.APPLICATION_OCTET_STREAM })
+    @RolesAllowed(UserPrincipal.ROLE_ADMIN)
+    public Response uploadUserPicture(@Context final HttpServletRequest req, @PathParam("param_id") int paramId, InputStream body) {
+        return ServerUtils.genericMethod(() -> {
+            ResponseBuilder response = null;
+            final long length = req.getContentLengthLong();
+
+            // Validamos la cabecera de la imagen y la leemos del cliente antes de ocupar una conexión.
+            try (PictureUpload.SpooledPicture picture = PictureUpload.open(body, length)) {
+                // Adquirimos una conexión de usuarios
+                UsersMgt usersMgt = Connections.getController().acquireUsers();
+
+                try {
+                    // Guardamos la imagen y generamos en segundo plano sus miniaturas, si no las tenía ya.
+                    final String hash = usersMgt.writePicture(paramId, picture, picture.getLength(), picture.getHash());
+                    ThumbnailService.getService().submit(hash);
+
+                    // Si todo ha ido bien hasta ahora, lanzamos la respuesta 200 OK.
+                    response = Response.status(Status.OK);
+                } catch (ManagerErrorException e) {
+                    // Si no se ha encontrado, lanzamos la respuesta 404 NOT FOUND.
+                    ServerApp.getLoggerSystem().debug(e.toString());
+                    response = Response.status(Status.NOT_FOUND);
+                } finally {
+                    // Devolvemos la conexión de usuarios
+                    Connections.getController().releaseUsers(usersMgt);
+                }
+            } catch (PictureUpload.PictureUploadException e) {
+                // Si la imagen no es valida, respondemos con el estado correspondiente.
+                ServerApp.getLoggerSystem().debug(e.toString());
+                response = Response.status(e.getStatus());
+            }
+
+            return response;
+        });
+    }
+}
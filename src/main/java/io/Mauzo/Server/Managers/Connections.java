@@ -24,60 +24,196 @@
 package io.Mauzo.Server.Managers;
 
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import io.Mauzo.Server.ServerApp;
 import io.Mauzo.Server.ServerUtils;
 
 /**
- * Clase la cual contiene los grupos de conexiones.
+ * Clase la cual contiene el grupo de conexiones.
  * 
- * Esta clase tiene conexiones preinicializadas con preparedStatements para
- * realizar las consultas de manera agil y sencilla. Esto está diseñado para
- * albergar un número maximo de conexiones permitidas en el servidor, esto
- * ocurre porque hay infraestructuras cuyos motores de bases de datos tienen un
- * limite de conexiones.
+ * Esta clase tiene un único grupo de conexiones físicas compartido por todos
+ * los gestores, cada conexión prepara de manera perezosa los preparedStatements
+ * del gestor que se le solicite para realizar las consultas de manera agil y
+ * sencilla. Esto está diseñado para albergar un número maximo de conexiones
+ * permitidas en el servidor, esto ocurre porque hay infraestructuras cuyos
+ * motores de bases de datos tienen un limite de conexiones.
+ * 
+ * El grupo es elástico, arranca con el mínimo de conexiones configurado, crece
+ * bajo demanda hasta el máximo cuando no quedan conexiones libres y, de manera
+ * periódica, cierra las conexiones que llevan más tiempo del configurado sin
+ * usarse hasta volver al mínimo.
  * 
  * @author Neirth Sergio Martínez
  */
 public class Connections {
-    private static Connections controller = null;
+    /**
+     * Excepción lanzada cuando no se ha podido obtener una conexión del grupo
+     * dentro del tiempo de espera configurado.
+     */
+    public static class PoolTimeoutException extends Exception {
+        private static final long serialVersionUID = -2203845641749520218L;
 
-    private final int maxConnections = Integer.valueOf(ServerUtils.loadProperties().getProperty("mauzo.maxParallel.typeConnections"));
+        private final long retryAfter;
 
-    private final Semaphore uSemaphore = new Semaphore(maxConnections);
-    private final Semaphore sSemaphore = new Semaphore(maxConnections);
-    private final Semaphore rSemaphore = new Semaphore(maxConnections);
-    private final Semaphore pSemaphore = new Semaphore(maxConnections);
-    private final Semaphore dSemaphore = new Semaphore(maxConnections);
-    private final Semaphore iSemaphore = new Semaphore(maxConnections);
+        public PoolTimeoutException(String msg, long retryAfter) {
+            super(msg);
 
-    private final List<UsersMgt> uConnectionList = new ArrayList<>();
-    private final List<SalesMgt> sConnectionList = new ArrayList<>();
-    private final List<RefundsMgt> rConnectionList = new ArrayList<>();
-    private final List<ProductsMgt> pConnectionList = new ArrayList<>();
-    private final List<DiscountsMgt> dConnectionList = new ArrayList<>();
-    private final List<InformsMgt> iConnectionList = new ArrayList<>();
+            this.retryAfter = retryAfter;
+        }
+
+        /**
+         * Getter para obtener los segundos que el cliente debería esperar antes de
+         * volver a intentar la petición.
+         *
+         * @return Los segundos de espera recomendados.
+         */
+        public long getRetryAfter() {
+            return retryAfter;
+        }
+    }
+
+    private static Connections controller = null;
+
+    private final Properties properties = ServerUtils.loadProperties();
+    private final int maxConnections = getMaxConnections(properties);
+    private final int minConnections = Math.min(maxConnections, Integer.valueOf(properties.getProperty("mauzo.maxParallel.minConnections", "1")));
+    private final long idleTimeout = Long.valueOf(properties.getProperty("mauzo.maxParallel.idleTimeout", "300000"));
+    private final int bootstrapThreads = Integer.valueOf(properties.getProperty("mauzo.maxParallel.bootstrapThreads", "4"));
+    private final long acquireTimeout = Long.valueOf(properties.getProperty("mauzo.maxParallel.acquireTimeout", "5000"));
+    private final long retryAfter = Long.valueOf(properties.getProperty("mauzo.maxParallel.retryAfter", "1"));
+    private final long leakThreshold = Long.valueOf(properties.getProperty("mauzo.maxParallel.leakDetectionThreshold", "0"));
+    private final int maxAuthLookups = Math.min(maxConnections, Integer.valueOf(properties.getProperty("mauzo.maxParallel.authLookups", "2")));
+
+    private final Semaphore semaphore = new Semaphore(maxConnections);
+    private final Semaphore authSemaphore = new Semaphore(maxAuthLookups);
+    private final ConcurrentLinkedDeque<SharedConnection> idleConnections = new ConcurrentLinkedDeque<>();
+    private final Map<Object, SharedConnection> leasedMap = new ConcurrentHashMap<>();
+    private final Set<SharedConnection> leasedConnections = ConcurrentHashMap.newKeySet();
+    private final Set<Object> authLeased = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger openedConnections = new AtomicInteger(0);
+
+    // Métricas del grupo de conexiones por tipo de gestor.
+    private final PoolMetrics sharedMetrics = new PoolMetrics("shared");
+    private final PoolMetrics authMetrics = new PoolMetrics("auth");
+    private final PoolMetrics usersMetrics = new PoolMetrics("users");
+    private final PoolMetrics salesMetrics = new PoolMetrics("sales");
+    private final PoolMetrics refundsMetrics = new PoolMetrics("refunds");
+    private final PoolMetrics productsMetrics = new PoolMetrics("products");
+    private final PoolMetrics picturesMetrics = new PoolMetrics("pictures");
+    private final PoolMetrics discountsMetrics = new PoolMetrics("discounts");
+    private final PoolMetrics informsMetrics = new PoolMetrics("informs");
+    private final ScheduledExecutorService maintenanceService = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+        Thread thread = new Thread(runnable, "mauzo-pool-maintenance");
+        thread.setDaemon(true);
+
+        return thread;
+    });
 
     /**
-     * Constructor privado del cual inicializa los objetos que manejarán las
-     * conexiones de los gestores a la base de datos proporcionado como URL JBDC.
+     * Constructor privado del cual inicializa el mínimo de conexiones físicas del
+     * grupo con la base de datos proporcionado como URL JBDC y programa la tarea
+     * que desaloja las conexiones ociosas.
+     * 
+     * Primero se asegura, una sola vez, la estructura de la base de datos y
+     * después se abren las conexiones en paralelo sobre un grupo de hilos
+     * acotado. Al terminar, se escribe en el registro un informe con el tiempo
+     * de cada fase y de cada conexión.
      * 
      * @throws SQLException Puede lanzar alguna excepción si ocurre algún problema
      *                      con la base de datos.
      */
     private Connections() throws SQLException {
-        for (int i = 0; i < maxConnections; i++) {
-            uConnectionList.add(new UsersMgt(ServerApp.setConnection()));
-            sConnectionList.add(new SalesMgt(ServerApp.setConnection()));
-            rConnectionList.add(new RefundsMgt(ServerApp.setConnection()));
-            pConnectionList.add(new ProductsMgt(ServerApp.setConnection()));
-            dConnectionList.add(new DiscountsMgt(ServerApp.setConnection()));
-            iConnectionList.add(new InformsMgt(ServerApp.setConnection()));
+        StringBuilder report = new StringBuilder("Connection pool startup report:");
+        long startTime = System.nanoTime();
+
+        // Fase 1: Estructura de la base de datos.
+        ServerApp.initDatabase();
+
+        long schemaTime = System.nanoTime();
+        report.append("\n  schema bootstrap: ").append(toMillis(schemaTime - startTime)).append(" ms");
+
+        // Fase 2: Apertura de las conexiones en paralelo.
+        openInitialConnections(report);
+
+        long endTime = System.nanoTime();
+        report.append("\n  pool warm-up (").append(minConnections).append(" connections): ").append(toMillis(endTime - schemaTime)).append(" ms");
+        report.append("\n  total: ").append(toMillis(endTime - startTime)).append(" ms");
+
+        ServerApp.getLoggerSystem().info(report.toString());
+
+        // Revisamos las conexiones ociosas con una frecuencia de la mitad del tiempo de espera.
+        long period = Math.max(1000, idleTimeout / 2);
+        maintenanceService.scheduleWithFixedDelay(this::evictIdleConnections, period, period, TimeUnit.MILLISECONDS);
+
+        // Si está activado, revisamos las posibles fugas de conexiones con la misma frecuencia.
+        if (leakThreshold > 0) {
+            long leakPeriod = Math.max(1000, leakThreshold / 2);
+            maintenanceService.scheduleWithFixedDelay(this::detectLeaks, leakPeriod, leakPeriod, TimeUnit.MILLISECONDS);
         }
     }
 
+    /**
+     * Método para adquirir una conexión del grupo de conexiones compartido.
+     * 
+     * La conexión devuelta ofrece cualquiera de los gestores del servidor, los
+     * cuales se preparan la primera vez que se solicitan. Tras su uso, se debe
+     * devolver mediante el método release.
+     * 
+     * Las conexiones libres se guardan en una pila sin bloqueos, de manera que la
+     * última conexión devuelta es la primera en prestarse. Si no hay ninguna
+     * libre, pero no se ha alcanzado el máximo, se abre una nueva conexión. Si el
+     * grupo está agotado durante más tiempo del configurado en la propiedad
+     * mauzo.maxParallel.acquireTimeout, se lanza una PoolTimeoutException en vez
+     * de bloquear el hilo de manera indefinida.
+     * 
+     * @return Una conexión del grupo de conexiones.
+     * @throws InterruptedException Ha sido interrumpido el método.
+     * @throws PoolTimeoutException No hay conexiones libres en el tiempo de espera.
+     * @throws SQLException Excepción al abrir una nueva conexión.
+     */
+    public SharedConnection acquire() throws InterruptedException, PoolTimeoutException, SQLException {
+        return acquire(sharedMetrics);
+    }
+
+    /**
+     * Método para devolver una conexión al grupo de conexiones compartido.
+     * 
+     * @param connection La conexión a devolver.
+     */
+    public void release(SharedConnection connection) {
+        // Si la conexión no estaba prestada, no la devolvemos dos veces al grupo.
+        if (!leasedConnections.remove(connection)) {
+            ServerApp.getLoggerSystem().warn("A connection that wasn't acquired from the pool has been released.");
+            return;
+        }
+
+        // Registramos el tiempo que se ha retenido la conexión.
+        PoolMetrics metrics = connection.getLeaseMetrics();
+        metrics.recordRelease(TimeUnit.NANOSECONDS.toMicros(connection.endLease()));
+
+        // Primero se devuelve la conexión y luego el permiso.
+        connection.markReleased();
+        idleConnections.push(connection);
+        semaphore.release();
+    }
+
     /**
      * Método para adquirir una conexión de usuarios.
      * 
@@ -88,14 +224,62 @@ public class Connections {
      * 
      * @return Una conexion con la base de de datos de tipo usuarios.
      * @throws InterruptedException Ha sido interrumpido el método.
+     * @throws PoolTimeoutException No hay conexiones libres en el tiempo de espera.
+     * @throws SQLException Excepción al preparar las consultas del gestor.
      */
-    public UsersMgt acquireUsers() throws InterruptedException {
-        uSemaphore.acquire();
+    public UsersMgt acquireUsers() throws InterruptedException, PoolTimeoutException, SQLException {
+        SharedConnection connection = acquire(usersMetrics);
+
+        try {
+            return lease(connection, connection.getUsers());
+        } catch (SQLException e) {
+            release(connection);
+            throw e;
+        }
+    }
 
-        UsersMgt aux = uConnectionList.get(0);
-        uConnectionList.remove(0);
+    /**
+     * Método para adquirir una conexión de usuarios dedicada a la verificación de
+     * los tokens de inicio de sesión.
+     * 
+     * El número de verificaciones simultaneas está acotado por la propiedad
+     * mauzo.maxParallel.authLookups, de manera que una avalancha de peticiones
+     * con tokens nuevos no pueda acaparar el grupo de conexiones. La espera por
+     * la verificación y por la conexión comparten el mismo tiempo máximo de
+     * mauzo.maxParallel.acquireTimeout.
+     * 
+     * @return Una conexion con la base de de datos de tipo usuarios.
+     * @throws InterruptedException Ha sido interrumpido el método.
+     * @throws PoolTimeoutException No hay conexiones libres en el tiempo de espera.
+     * @throws SQLException Excepción al preparar las consultas del gestor.
+     */
+    public UsersMgt acquireAuth() throws InterruptedException, PoolTimeoutException, SQLException {
+        long waitStart = System.nanoTime();
+
+        if (!authSemaphore.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS)) {
+            authMetrics.recordTimeout(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - waitStart));
+            throw new PoolTimeoutException("No se ha podido verificar el token en " + acquireTimeout + " ms.", retryAfter);
+        }
 
-        return aux;
+        try {
+            // Esperamos por la conexión solo el tiempo que queda.
+            SharedConnection connection = acquire(authMetrics, waitStart);
+
+            try {
+                final UsersMgt users = lease(connection, connection.getUsers());
+
+                // Registramos que este préstamo ocupa un permiso de verificación.
+                authLeased.add(users);
+
+                return users;
+            } catch (SQLException e) {
+                release(connection);
+                throw e;
+            }
+        } catch (InterruptedException | PoolTimeoutException | SQLException e) {
+            authSemaphore.release();
+            throw e;
+        }
     }
 
     /**
@@ -108,14 +292,18 @@ public class Connections {
      * 
      * @return Una conexion con la base de de datos de tipo ventas.
      * @throws InterruptedException Ha sido interrumpido el método.
+     * @throws PoolTimeoutException No hay conexiones libres en el tiempo de espera.
+     * @throws SQLException Excepción al preparar las consultas del gestor.
      */
-    public SalesMgt acquireSales() throws InterruptedException {
-        sSemaphore.acquire();
-
-        SalesMgt aux = sConnectionList.get(0);
-        sConnectionList.remove(0);
-
-        return aux;
+    public SalesMgt acquireSales() throws InterruptedException, PoolTimeoutException, SQLException {
+        SharedConnection connection = acquire(salesMetrics);
+
+        try {
+            return lease(connection, connection.getSales());
+        } catch (SQLException e) {
+            release(connection);
+            throw e;
+        }
     }
 
     /**
@@ -128,14 +316,18 @@ public class Connections {
      * 
      * @return Una conexion con la base de de datos de tipo devoluciones.
      * @throws InterruptedException Ha sido interrumpido el método.
+     * @throws PoolTimeoutException No hay conexiones libres en el tiempo de espera.
+     * @throws SQLException Excepción al preparar las consultas del gestor.
      */
-    public RefundsMgt acquireRefunds() throws InterruptedException {
-        rSemaphore.acquire();
-
-        RefundsMgt aux = rConnectionList.get(0);
-        rConnectionList.remove(0);
-
-        return aux;
+    public RefundsMgt acquireRefunds() throws InterruptedException, PoolTimeoutException, SQLException {
+        SharedConnection connection = acquire(refundsMetrics);
+
+        try {
+            return lease(connection, connection.getRefunds());
+        } catch (SQLException e) {
+            release(connection);
+            throw e;
+        }
     }
 
     /**
@@ -148,23 +340,66 @@ public class Connections {
      * 
      * @return Una conexion con la base de de datos de tipo productos.
      * @throws InterruptedException Ha sido interrumpido el método.
+     * @throws PoolTimeoutException No hay conexiones libres en el tiempo de espera.
+     * @throws SQLException Excepción al preparar las consultas del gestor.
      */
-    public ProductsMgt acquireProducts() throws InterruptedException {
-        pSemaphore.acquire();
-
-        ProductsMgt aux = pConnectionList.get(0);
-        pConnectionList.remove(0);
-
-        return aux;
+    public ProductsMgt acquireProducts() throws InterruptedException, PoolTimeoutException, SQLException {
+        SharedConnection connection = acquire(productsMetrics);
+
+        try {
+            return lease(connection, connection.getProducts());
+        } catch (SQLException e) {
+            release(connection);
+            throw e;
+        }
     }
 
-    public InformsMgt acquireInforms() throws InterruptedException {
-        iSemaphore.acquire();
-
-        InformsMgt aux = iConnectionList.get(0);
-        iConnectionList.remove(0);
+    /**
+     * Método para adquirir una conexión del almacén de imagenes.
+     * 
+     * En vez de utilizar un new PicturesMgt(), utilizamos este método, dado que
+     * hay infraestructuras donde la base de datos es bastante limitada (Por ejemplo
+     * en Heroku), asi conseguimos tener conexiones, que se vayan a aprovechar de
+     * forma eficaz.
+     * 
+     * @return Una conexion con la base de de datos de tipo imagenes.
+     * @throws InterruptedException Ha sido interrumpido el método.
+     * @throws PoolTimeoutException No hay conexiones libres en el tiempo de espera.
+     * @throws SQLException Excepción al preparar las consultas del gestor.
+     */
+    public PicturesMgt acquirePictures() throws InterruptedException, PoolTimeoutException, SQLException {
+        SharedConnection connection = acquire(picturesMetrics);
+
+        try {
+            return lease(connection, connection.getPictures());
+        } catch (SQLException e) {
+            release(connection);
+            throw e;
+        }
+    }
 
-        return aux;
+    /**
+     * Método para adquirir una conexión de informes.
+     * 
+     * En vez de utilizar un new InformsMgt(), utilizamos este método, dado que hay
+     * infraestructuras donde la base de datos es bastante limitada (Por ejemplo en
+     * Heroku), asi conseguimos tener conexiones, que se vayan a aprovechar de forma
+     * eficaz.
+     * 
+     * @return Una conexion con la base de de datos de tipo informes.
+     * @throws InterruptedException Ha sido interrumpido el método.
+     * @throws PoolTimeoutException No hay conexiones libres en el tiempo de espera.
+     * @throws SQLException Excepción al preparar las consultas del gestor.
+     */
+    public InformsMgt acquireInforms() throws InterruptedException, PoolTimeoutException, SQLException {
+        SharedConnection connection = acquire(informsMetrics);
+
+        try {
+            return lease(connection, connection.getInforms());
+        } catch (SQLException e) {
+            release(connection);
+            throw e;
+        }
     }
 
     /**
@@ -177,14 +412,18 @@ public class Connections {
      * 
      * @return Una conexion con la base de de datos de tipo descuentos.
      * @throws InterruptedException Ha sido interrumpido el método.
+     * @throws PoolTimeoutException No hay conexiones libres en el tiempo de espera.
+     * @throws SQLException Excepción al preparar las consultas del gestor.
      */
-    public DiscountsMgt acquireDiscounts() throws InterruptedException {
-        dSemaphore.acquire();
-
-        DiscountsMgt aux = dConnectionList.get(0);
-        dConnectionList.remove(0);
-
-        return aux;
+    public DiscountsMgt acquireDiscounts() throws InterruptedException, PoolTimeoutException, SQLException {
+        SharedConnection connection = acquire(discountsMetrics);
+
+        try {
+            return lease(connection, connection.getDiscounts());
+        } catch (SQLException e) {
+            release(connection);
+            throw e;
+        }
     }
 
     /**
@@ -193,8 +432,29 @@ public class Connections {
      * @param users La conexión de tipo usuarios.
      */
     public void releaseUsers(UsersMgt users) {
-        uConnectionList.add(users);
-        uSemaphore.release();
+        releaseAuth(users);
+    }
+
+    /**
+     * Método para devolver una conexión de usuarios obtenida con acquireAuth().
+     * 
+     * El permiso de verificación solo se devuelve si el gestor se prestó con
+     * acquireAuth() y seguía prestado, de manera que devolverlo dos veces, o
+     * devolver uno obtenido con acquireUsers(), no amplía el limite de
+     * verificaciones simultaneas. Si un gestor de acquireAuth() se devuelve con
+     * releaseUsers() también se devuelve su permiso.
+     * 
+     * @param users La conexión de usuarios a devolver.
+     */
+    public void releaseAuth(UsersMgt users) {
+        if (users == null)
+            return;
+
+        // Lo quitamos antes de devolver la conexión, dado que otro hilo la puede volver a adquirir.
+        final boolean auth = authLeased.remove(users);
+
+        if (releaseLeased(users) && auth)
+            authSemaphore.release();
     }
 
     /**
@@ -203,8 +463,7 @@ public class Connections {
      * @param sales La conexión de tipo ventas.
      */
     public void releaseSales(SalesMgt sales) {
-        sConnectionList.add(sales);
-        sSemaphore.release();
+        releaseLeased(sales);
     }
 
     /**
@@ -213,8 +472,7 @@ public class Connections {
      * @param refunds La conexión de tipo devoluciones.
      */
     public void releaseRefunds(RefundsMgt refunds) {
-        rConnectionList.add(refunds);
-        rSemaphore.release();
+        releaseLeased(refunds);
     }
 
     /**
@@ -223,8 +481,16 @@ public class Connections {
      * @param products La conexión de tipo productos.
      */
     public void releaseProducts(ProductsMgt products) {
-        pConnectionList.add(products);
-        pSemaphore.release();
+        releaseLeased(products);
+    }
+
+    /**
+     * Método para devolver una conexión de tipo imagenes.
+     * 
+     * @param pictures La conexión de tipo imagenes.
+     */
+    public void releasePictures(PicturesMgt pictures) {
+        releaseLeased(pictures);
     }
 
     /**
@@ -233,13 +499,308 @@ public class Connections {
      * @param discounts La conexión de tipo descuentos.
      */
     public void releaseDiscounts(DiscountsMgt discounts) {
-        dConnectionList.add(discounts);
-        dSemaphore.release();
+        releaseLeased(discounts);
     }
 
+    /**
+     * Método para devolver una conexión de tipo informes.
+     * 
+     * @param informs La conexión de tipo informes.
+     */
     public void releaseInforms(InformsMgt informs) {
-        iConnectionList.add(informs);
-        iSemaphore.release();
+        releaseLeased(informs);
+    }
+
+    /**
+     * Método privado que realiza el préstamo de una conexión del grupo, anotando
+     * en las métricas del tipo de gestor el tiempo de espera.
+     * 
+     * @param metrics Las métricas del tipo de gestor que la solicita.
+     * @return Una conexión del grupo de conexiones.
+     * @throws InterruptedException Ha sido interrumpido el método.
+     * @throws PoolTimeoutException No hay conexiones libres en el tiempo de espera.
+     * @throws SQLException Excepción al abrir una nueva conexión.
+     */
+    private SharedConnection acquire(PoolMetrics metrics) throws InterruptedException, PoolTimeoutException, SQLException {
+        return acquire(metrics, System.nanoTime());
+    }
+
+    /**
+     * Método privado que realiza el préstamo de una conexión del grupo, con un
+     * tiempo de espera contado desde el inicio indicado, de manera que una espera
+     * previa se descuenta del tiempo máximo en vez de sumarse a él.
+     * 
+     * @param metrics   Las métricas del tipo de gestor que la solicita.
+     * @param waitStart El instante, en nanosegundos, en el que empezó la espera.
+     * @return Una conexión del grupo de conexiones.
+     * @throws InterruptedException Ha sido interrumpido el método.
+     * @throws PoolTimeoutException No hay conexiones libres en el tiempo de espera.
+     * @throws SQLException Excepción al abrir una nueva conexión.
+     */
+    private SharedConnection acquire(PoolMetrics metrics, long waitStart) throws InterruptedException, PoolTimeoutException, SQLException {
+        final long remaining = TimeUnit.MILLISECONDS.toNanos(acquireTimeout) - (System.nanoTime() - waitStart);
+
+        if (!semaphore.tryAcquire(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+            metrics.recordTimeout(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - waitStart));
+            throw new PoolTimeoutException("No se ha podido obtener una conexión en " + acquireTimeout + " ms.", retryAfter);
+        }
+
+        SharedConnection connection = idleConnections.poll();
+
+        // Si no quedan conexiones libres, el permiso nos garantiza que podemos crecer.
+        if (connection == null) {
+            try {
+                connection = openConnection();
+            } catch (SQLException e) {
+                semaphore.release();
+                throw e;
+            }
+        }
+
+        // Anotamos el préstamo, con la pila de llamadas si se buscan fugas.
+        connection.startLease(metrics, (leakThreshold > 0) ? new Throwable("Connection acquired by " + metrics.getName()) : null);
+        leasedConnections.add(connection);
+        metrics.recordAcquire(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - waitStart));
+
+        return connection;
+    }
+
+    /**
+     * Getter para obtener las métricas del grupo de conexiones, una por cada tipo
+     * de gestor que puede solicitar conexiones.
+     * 
+     * @return La lista de métricas.
+     */
+    public List<PoolMetrics> getMetrics() {
+        return Arrays.asList(sharedMetrics, authMetrics, usersMetrics, salesMetrics, refundsMetrics, productsMetrics, picturesMetrics, discountsMetrics, informsMetrics);
+    }
+
+    /**
+     * Getter para obtener el número máximo de conexiones del grupo.
+     * 
+     * @return El número máximo de conexiones.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Getter para obtener el número mínimo de conexiones del grupo.
+     * 
+     * @return El número mínimo de conexiones.
+     */
+    public int getMinConnections() {
+        return minConnections;
+    }
+
+    /**
+     * Getter para obtener el número de conexiones prestadas en este momento.
+     * 
+     * @return El número de conexiones en uso.
+     */
+    public int getInUseConnections() {
+        return leasedConnections.size();
+    }
+
+    /**
+     * Getter para obtener el número de conexiones físicas abiertas en el grupo,
+     * tanto las prestadas como las libres.
+     * 
+     * @return El número de conexiones abiertas.
+     */
+    public int getOpenedConnections() {
+        return openedConnections.get();
+    }
+
+    /**
+     * Getter para obtener el número de conexiones libres en el grupo.
+     * 
+     * @return El número de conexiones libres.
+     */
+    public int getIdleConnections() {
+        return idleConnections.size();
+    }
+
+    /**
+     * Método privado para abrir en paralelo el mínimo de conexiones del grupo,
+     * anotando en el informe de arranque el tiempo que ha tardado cada una.
+     * 
+     * Si alguna de las conexiones falla, se cierran las que se hayan abierto y se
+     * relanza la excepción.
+     * 
+     * @param report El informe de arranque.
+     * @throws SQLException Excepción al conectar con la base de datos.
+     */
+    private void openInitialConnections(StringBuilder report) throws SQLException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(minConnections, bootstrapThreads)));
+        List<Future<Long>> futures = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < minConnections; i++) {
+                futures.add(executor.submit(() -> {
+                    long connStart = System.nanoTime();
+                    idleConnections.push(openConnection());
+
+                    return System.nanoTime() - connStart;
+                }));
+            }
+
+            for (int i = 0; i < futures.size(); i++)
+                report.append("\n  connection #").append(i + 1).append(": ").append(toMillis(futures.get(i).get())).append(" ms");
+        } catch (InterruptedException | ExecutionException e) {
+            // Cerramos lo que se haya podido abrir antes de abortar.
+            for (SharedConnection connection : idleConnections) {
+                try {
+                    connection.close();
+                } catch (SQLException ex) {
+                    ServerUtils.writeServerException(ex);
+                }
+            }
+
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+
+            throw (e.getCause() instanceof SQLException) ? (SQLException) e.getCause() : new SQLException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Método privado para abrir una nueva conexión física del grupo.
+     * 
+     * @return La nueva conexión.
+     * @throws SQLException Excepción al conectar con la base de datos.
+     */
+    private SharedConnection openConnection() throws SQLException {
+        SharedConnection connection = new SharedConnection(ServerApp.openConnection());
+        openedConnections.incrementAndGet();
+
+        return connection;
+    }
+
+    /**
+     * Método privado que cierra las conexiones libres que llevan más tiempo del
+     * configurado en la propiedad mauzo.maxParallel.idleTimeout sin usarse,
+     * siempre que el grupo siga por encima del mínimo de conexiones.
+     * 
+     * Las conexiones más antiguas están al final de la pila, por lo que se
+     * recorre en sentido inverso.
+     */
+    private void evictIdleConnections() {
+        long limit = System.currentTimeMillis() - idleTimeout;
+        Iterator<SharedConnection> iterator = idleConnections.descendingIterator();
+
+        while (iterator.hasNext() && openedConnections.get() > minConnections) {
+            SharedConnection connection = iterator.next();
+
+            // Solo uno de los hilos puede retirar la conexión de la pila.
+            if (connection.getLastReleased() < limit && idleConnections.removeLastOccurrence(connection)) {
+                openedConnections.decrementAndGet();
+
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    ServerUtils.writeServerException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Método privado que busca las conexiones retenidas durante más tiempo del
+     * configurado en la propiedad mauzo.maxParallel.leakDetectionThreshold y
+     * escribe en el registro la pila de llamadas que las adquirió.
+     * 
+     * Cada préstamo solo se informa una vez, aunque siga retenido.
+     */
+    private void detectLeaks() {
+        long limit = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(leakThreshold);
+
+        for (SharedConnection connection : leasedConnections) {
+            PoolMetrics metrics = connection.getLeaseMetrics();
+            Throwable stack = connection.getLeaseStack();
+
+            if (metrics != null && !connection.isLeakReported() && connection.getLeaseStart() - limit < 0) {
+                connection.setLeakReported(true);
+                metrics.recordLeak();
+
+                ServerApp.getLoggerSystem().warn("Possible connection leak, a " + metrics.getName() + " connection has been held for more than " + leakThreshold + " ms", stack);
+            }
+        }
+    }
+
+    /**
+     * Método privado para registrar que gestor se ha prestado y a que conexión
+     * física pertenece, para poder devolverla después al grupo de conexiones.
+     * 
+     * @param connection La conexión física prestada.
+     * @param manager    El gestor asociado a la conexión.
+     * @return El mismo gestor recibido por parametro.
+     */
+    private <T> T lease(SharedConnection connection, T manager) {
+        leasedMap.put(manager, connection);
+
+        return manager;
+    }
+
+    /**
+     * Método privado para devolver al grupo la conexión física asociada a un
+     * gestor prestado anteriormente.
+     * 
+     * @param manager El gestor prestado.
+     * @return Verdadero si el gestor estaba prestado y se ha devuelto su conexión.
+     */
+    private boolean releaseLeased(Object manager) {
+        SharedConnection connection = (manager != null) ? leasedMap.remove(manager) : null;
+
+        // Si el gestor no estaba prestado, no devolvemos nada al grupo.
+        if (connection != null) {
+            release(connection);
+        } else {
+            ServerApp.getLoggerSystem().warn("A manager that wasn't acquired from the pool has been released.");
+        }
+
+        return connection != null;
+    }
+
+    /**
+     * Método privado para convertir nanosegundos en milisegundos con dos
+     * decimales, para el informe de arranque.
+     * 
+     * @param nanos Los nanosegundos.
+     * @return Los milisegundos en forma de texto.
+     */
+    private static String toMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.2f", nanos / 1000000.0);
+    }
+
+    /**
+     * Método privado para obtener el máximo de conexiones del grupo.
+     * 
+     * Si la configuración todavía usa la propiedad antigua
+     * mauzo.maxParallel.typeConnections, que limitaba las conexiones de cada uno
+     * de los seis tipos de gestores, se mantiene el mismo número total de
+     * conexiones. Si no hay ninguna de las dos, se usan seis conexiones.
+     * 
+     * @param properties La configuración del servidor.
+     * @return El máximo de conexiones del grupo.
+     */
+    private static int getMaxConnections(Properties properties) {
+        final String connections = properties.getProperty("mauzo.maxParallel.connections");
+
+        if (connections != null)
+            return Integer.valueOf(connections.trim());
+
+        final String typeConnections = properties.getProperty("mauzo.maxParallel.typeConnections");
+
+        if (typeConnections != null) {
+            ServerApp.getLoggerSystem().warn("mauzo.maxParallel.typeConnections is deprecated, use mauzo.maxParallel.connections instead.");
+
+            return Integer.valueOf(typeConnections.trim()) * 6;
+        }
+
+        return 6;
     }
 
     public static Connections getController() throws SQLException {
@@ -248,4 +809,4 @@ public class Connections {
 
         return controller;
     }
-}
\ No newline at end of file
+}
@@ -29,6 +29,7 @@ import io.Mauzo.Server.Templates.Discount;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Clase para gestionar los descuentos respecto a la base de datos.
@@ -42,6 +43,7 @@ import java.util.List;
  * @author Ant04X Antonio Izquierdo
  */
 public class DiscountsMgt implements ManagersIntf<Discount> {
+    private final Connection conn;
     private final PreparedStatement addQuery;
     private final PreparedStatement getIdQuery;
     private final PreparedStatement getNameQuery;
@@ -50,6 +52,8 @@ public class DiscountsMgt implements ManagersIntf<Discount> {
     private final PreparedStatement deleteQuery;
 
     DiscountsMgt(Connection conn) throws SQLException {
+        this.conn = conn;
+
         addQuery = conn.prepareStatement("INSERT INTO Discounts (codeDisc, descDisc, pricePerc) VALUES(?, ?, ?)");
         getIdQuery = conn.prepareStatement("SELECT * FROM Discounts WHERE id = ?;");
         getNameQuery = conn.prepareStatement("SELECT * FROM Discounts WHERE codeDisc = ?;");
@@ -73,6 +77,9 @@ public class DiscountsMgt implements ManagersIntf<Discount> {
 
         // Ejecutamos la sentencia sql.
         addQuery.execute();
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(conn);
     }
 
     /**
@@ -141,28 +148,44 @@ public class DiscountsMgt implements ManagersIntf<Discount> {
         try (ResultSet rs = getListQuery.executeQuery()) {
             discountList = new ArrayList<>();
 
-            while (rs.next()) {
-                Discount discount = new Discount();
-
-                discount.setId(rs.getInt("id"));
-                discount.setCode(rs.getString("codeDisc"));
-                discount.setDesc(rs.getString("descDisc"));
-                discount.setPricePerc(rs.getFloat("pricePerc"));
-
-                discountList.add(discount);
-            }
+            while (rs.next())
+                discountList.add(toDiscount(rs));
         }
 
         return discountList;
     }
 
     /**
-     * Método para actualizar el usuario en la base de datos.
+     * Método para obtener los descuentos de la base de datos como un Stream,
+     * leyendolos mediante un cursor a medida que se recorre.
      *
-     * @param discount El descuento encapsulado en un objeto.
+     * @return El Stream de descuentos, que se debe cerrar al terminar.
+     * @throws SQLException Excepción en la consulta SQL.
+     */
+    @Override
+    public Stream<Discount> stream() throws SQLException {
+        return ResultSetStream.open(getListQuery, this::toDiscount);
+    }
+
+    /**
+     * Método privado para construir un descuento a partir de la fila actual de un
+     * ResultSet.
+     *
+     * @param rs El ResultSet posicionado en la fila.
+     * @return El descuento.
      * @throws SQLException Excepción en la consulta SQL.
-     * @throws ManagerErrorException Excepción dada al no encontrar el descuento solicitado.
      */
+    private Discount toDiscount(ResultSet rs) throws SQLException {
+        Discount discount = new Discount();
+
+        discount.setId(rs.getInt("id"));
+        discount.setCode(rs.getString("codeDisc"));
+        discount.setDesc(rs.getString("descDisc"));
+        discount.setPricePerc(rs.getFloat("pricePerc"));
+
+        return discount;
+    }
+
     @Override
     public void modify(Discount discount) throws SQLException, ManagerErrorException {
         // Asociamos los valores respecto a la sentencia sql.
@@ -174,6 +197,9 @@ public class DiscountsMgt implements ManagersIntf<Discount> {
         // Ejecutamos la sentencia sql.
         if (modifyQuery.executeUpdate() == 0)
             throw new ManagerErrorException("No se ha encontrado el descuento durante la actualización del mismo.");
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(conn);
     }
 
     /**
@@ -190,5 +216,8 @@ public class DiscountsMgt implements ManagersIntf<Discount> {
         // Ejecutamos la setencia sql.
         if (deleteQuery.executeUpdate() == 0)
             throw new ManagerErrorException("No se ha encontrado el descuento durante la eliminación del mismo.");
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(conn);
     }
 }
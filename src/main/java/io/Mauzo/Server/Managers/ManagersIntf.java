@@ -25,6 +25,7 @@ package io.Mauzo.Server.Managers;
 
 import java.sql.SQLException;
 import java.util.List;
+import java.util.stream.Stream;
 
 // FIXME: 08/06/2020 De quien es esta clase?
 
@@ -42,6 +43,15 @@ public interface ManagersIntf<T> {
         }
     }
 
+    /**
+     * Interfaz funcional que recibe, uno a uno, los elementos que se van
+     * leyendo de la base de datos.
+     */
+    @FunctionalInterface
+    interface RowConsumer<T> {
+        void accept(T obj) throws Exception;
+    }
+
     /**
      * Método generico para añadir elementos T a la base de datos.
      * 
@@ -71,6 +81,33 @@ public interface ManagersIntf<T> {
      */
     public List<T> getList() throws SQLException;
 
+    /**
+     * Método generico para obtener el listado de elementos T como un Stream, que
+     * se debe cerrar al terminar de recorrerlo.
+     * 
+     * Por defecto recorre la lista de getList, las clases gestoras con tablas
+     * grandes lo sobrescriben para leer las filas mediante un cursor en la base
+     * de datos, sin tener el listado completo en memoria.
+     * 
+     * @throws SQLException Excepción en la base de datos.
+     * 
+     * @return El Stream de elementos T.
+     */
+    public default Stream<T> stream() throws SQLException {
+        return getList().stream();
+    }
+
+    /**
+     * Método generico para recorrer el listado de elementos T a medida que se
+     * leen de la base de datos, mediante el Stream de stream.
+     * 
+     * @param consumer  La función que recibe cada elemento.
+     * @throws Exception Excepción en la base de datos o en la función.
+     */
+    public default void forEach(RowConsumer<T> consumer) throws Exception {
+        ResultSetStream.forEach(stream(), consumer);
+    }
+
     /**
      * Método generico para modificar elementos a partir del nombre.
      * 
@@ -0,0 +1,276 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Managers;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.Mauzo.Server.ServerApp;
+
+/**
+ * Clase para gestionar las migraciones de la estructura de la base de datos.
+ * 
+ * Las migraciones son scripts SQL versionados que se encuentran en la carpeta
+ * db/migrations de los recursos del servidor, el orden de ejecución lo marca el
+ * fichero migrations.list y cada script sigue el formato V(version)__(nombre).sql.
+ * 
+ * Las versiones aplicadas se registran en la tabla SchemaVersions junto con un
+ * checksum SHA-256 del script, de manera que un script ya aplicado que haya sido
+ * modificado se detecta y detiene el arranque del servidor.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class Migrations {
+    private static final String MIGRATIONS_PATH = "db/migrations/";
+    private static final Pattern MIGRATION_NAME = Pattern.compile("^V(\\d+)__(\\w+)\\.sql$");
+
+    // Identificador del bloqueo consultivo que evita que dos nodos migren a la vez.
+    private static final long MIGRATIONS_LOCK = 0x4d61757a6f4d6967L;
+
+    /**
+     * Clase que representa un script de migración cargado desde los recursos.
+     */
+    static class Migration {
+        private final int version;
+        private final String description;
+        private final String script;
+        private final String checksum;
+
+        Migration(int version, String description, String script) {
+            this.version = version;
+            this.description = description;
+            this.script = script;
+            this.checksum = sha256(script);
+        }
+
+        int getVersion() {
+            return version;
+        }
+
+        String getDescription() {
+            return description;
+        }
+
+        String getScript() {
+            return script;
+        }
+
+        String getChecksum() {
+            return checksum;
+        }
+    }
+
+    private Migrations() {
+    }
+
+    /**
+     * Método que aplica sobre la base de datos las migraciones pendientes.
+     * 
+     * Cada migración se ejecuta en su propia transacción junto con su registro en
+     * la tabla SchemaVersions, y todo el proceso se protege con un bloqueo
+     * consultivo de PostgreSQL para que solo un nodo del cluster migre a la vez.
+     * 
+     * @param conn La conexión con la base de datos.
+     * @throws SQLException Excepción en la base de datos o en caso de que un script
+     *                      ya aplicado haya sido modificado.
+     */
+    public static void migrate(Connection conn) throws SQLException {
+        List<Migration> migrations = loadMigrations();
+        boolean autoCommit = conn.getAutoCommit();
+
+        try (Statement st = conn.createStatement()) {
+            st.execute("SELECT pg_advisory_lock(" + MIGRATIONS_LOCK + ");");
+
+            try {
+                st.execute("CREATE TABLE IF NOT EXISTS SchemaVersions (version INT NOT NULL, description TEXT NOT NULL, checksum VARCHAR(64) NOT NULL, appliedOn TIMESTAMP NOT NULL DEFAULT now(), PRIMARY KEY (version));");
+
+                // Obtenemos las versiones ya aplicadas.
+                Map<Integer, String> applied = new HashMap<>();
+
+                try (ResultSet rs = st.executeQuery("SELECT version, checksum FROM SchemaVersions;")) {
+                    while (rs.next())
+                        applied.put(rs.getInt("version"), rs.getString("checksum"));
+                }
+
+                conn.setAutoCommit(false);
+
+                for (Migration migration : migrations) {
+                    String checksum = applied.get(migration.getVersion());
+
+                    if (checksum != null) {
+                        // Si ya está aplicada, comprobamos que no se haya modificado.
+                        if (!checksum.equals(migration.getChecksum()))
+                            throw new SQLException("La migración V" + migration.getVersion() + " ha sido modificada tras ser aplicada.");
+                    } else {
+                        applyMigration(conn, migration);
+                    }
+                }
+            } finally {
+                conn.setAutoCommit(autoCommit);
+                st.execute("SELECT pg_advisory_unlock(" + MIGRATIONS_LOCK + ");");
+            }
+        }
+    }
+
+    /**
+     * Método privado que aplica una migración y la registra en una única
+     * transacción.
+     * 
+     * @param conn      La conexión con la base de datos.
+     * @param migration La migración a aplicar.
+     * @throws SQLException Excepción en la base de datos.
+     */
+    private static void applyMigration(Connection conn, Migration migration) throws SQLException {
+        long startTime = System.currentTimeMillis();
+
+        try (Statement st = conn.createStatement();
+             PreparedStatement insertQuery = conn.prepareStatement("INSERT INTO SchemaVersions (version, description, checksum) VALUES (?, ?, ?);")) {
+            st.execute(migration.getScript());
+
+            insertQuery.setInt(1, migration.getVersion());
+            insertQuery.setString(2, migration.getDescription());
+            insertQuery.setString(3, migration.getChecksum());
+            insertQuery.executeUpdate();
+
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+
+        ServerApp.getLoggerSystem().info("Applied database migration V" + migration.getVersion() + " (" + migration.getDescription() + ") in " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    /**
+     * Método que carga desde los recursos del servidor los scripts de migración,
+     * en el orden indicado por el fichero migrations.list.
+     * 
+     * @return La lista ordenada de migraciones.
+     * @throws SQLException Excepción en caso de que falte un script o el listado
+     *                      no esté ordenado.
+     */
+    static List<Migration> loadMigrations() throws SQLException {
+        List<Migration> migrations = new ArrayList<>();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(openResource("migrations.list"), StandardCharsets.UTF_8))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+
+                // Ignoramos las lineas vacias y los comentarios.
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                Matcher matcher = MIGRATION_NAME.matcher(line);
+
+                if (!matcher.matches())
+                    throw new SQLException("Nombre de migración no valido: " + line);
+
+                int version = Integer.parseInt(matcher.group(1));
+
+                if (!migrations.isEmpty() && migrations.get(migrations.size() - 1).getVersion() >= version)
+                    throw new SQLException("Las migraciones no están ordenadas: " + line);
+
+                migrations.add(new Migration(version, matcher.group(2), readResource(line)));
+            }
+        } catch (IOException e) {
+            throw new SQLException("No se han podido leer las migraciones: " + e.toString());
+        }
+
+        return migrations;
+    }
+
+    /**
+     * Método privado para leer un script de migración, normalizando los saltos de
+     * linea para que el checksum no dependa del sistema operativo.
+     * 
+     * @param name El nombre del script.
+     * @return El contenido del script.
+     * @throws IOException Excepción al leer el recurso.
+     */
+    private static String readResource(String name) throws IOException {
+        try (InputStream in = openResource(name); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            byte[] buffer = new byte[4096];
+            int read;
+
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+
+            return new String(out.toByteArray(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        }
+    }
+
+    /**
+     * Método privado para abrir un recurso de la carpeta de migraciones.
+     * 
+     * @param name El nombre del recurso.
+     * @return El stream del recurso.
+     * @throws IOException Excepción en caso de no encontrar el recurso.
+     */
+    private static InputStream openResource(String name) throws IOException {
+        InputStream in = Migrations.class.getClassLoader().getResourceAsStream(MIGRATIONS_PATH + name);
+
+        if (in == null)
+            throw new IOException("No se ha encontrado el recurso " + MIGRATIONS_PATH + name);
+
+        return in;
+    }
+
+    /**
+     * Método privado para calcular el checksum SHA-256 de un script.
+     * 
+     * @param script El script.
+     * @return El checksum en hexadecimal.
+     */
+    private static String sha256(String script) {
+        try {
+            StringBuilder hex = new StringBuilder();
+
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(script.getBytes(StandardCharsets.UTF_8)))
+                hex.append(String.format("%02x", b));
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Managers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import io.Mauzo.Server.PictureUtils;
+import io.Mauzo.Server.Managers.ManagersIntf.ManagerErrorException;
+import io.Mauzo.Server.Templates.PictureInfo;
+
+/**
+ * Clase para gestionar el almacén de imagenes en la base de datos.
+ * 
+ * Las imagenes se guardan una sola vez por contenido en la tabla Pictures,
+ * identificadas por el hash SHA-256 de sus bytes, y los productos y usuarios
+ * solo guardan la referencia a ese hash. La base de datos lleva la cuenta de las
+ * referencias a cada imagen y elimina las que dejan de usarse, junto a sus
+ * variantes redimensionadas.
+ * 
+ * Como el contenido de una imagen no cambia nunca para un mismo hash, se puede
+ * leer por fragmentos sin transacciones y servir como contenido inmutable.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class PicturesMgt {
+    private final Connection conn;
+    private final PreparedStatement getInfoQuery;
+    private final PreparedStatement getQuery;
+    private final PreparedStatement getChunkQuery;
+    private final PreparedStatement isProductPictureQuery;
+    private final PreparedStatement putQuery;
+    private final PreparedStatement getVariantQuery;
+    private final PreparedStatement putVariantQuery;
+    private final PreparedStatement countVariantsQuery;
+
+    /**
+     * Interfaz funcional con las operaciones a realizar dentro de una
+     * transacción.
+     */
+    @FunctionalInterface
+    interface Transaction {
+        void execute() throws SQLException, ManagerErrorException;
+    }
+
+    PicturesMgt(Connection conn) throws SQLException {
+        this.conn = conn;
+
+        getInfoQuery = conn.prepareStatement("SELECT octet_length(data) AS length, substring(data FROM 1 FOR 16) AS header FROM Pictures WHERE hash = ?;");
+        getQuery = conn.prepareStatement("SELECT data FROM Pictures WHERE hash = ?;");
+        getChunkQuery = conn.prepareStatement("SELECT substring(data FROM ? FOR ?) AS chunk FROM Pictures WHERE hash = ?;");
+        isProductPictureQuery = conn.prepareStatement("SELECT EXISTS (SELECT 1 FROM Products WHERE prodPicHash = ?) AS referenced;");
+        // Si la imagen ya existe, la bloqueamos hasta el final de la transacción para que no se elimine antes de referenciarla.
+        putQuery = conn.prepareStatement("INSERT INTO Pictures (hash, data) VALUES (?, ?) ON CONFLICT (hash) DO UPDATE SET refCount = Pictures.refCount;");
+        getVariantQuery = conn.prepareStatement("SELECT data FROM PictureVariants WHERE hash = ? AND size = ?;");
+        putVariantQuery = conn.prepareStatement("INSERT INTO PictureVariants (hash, size, data) VALUES (?, ?, ?) ON CONFLICT (hash, size) DO UPDATE SET data = EXCLUDED.data;");
+        countVariantsQuery = conn.prepareStatement("SELECT count(*) AS variants FROM PictureVariants WHERE hash = ?;");
+    }
+
+    /**
+     * Método para obtener los metadatos de una imagen sin cargar su contenido.
+     * 
+     * @param hash El hash de la imagen.
+     * @return Los metadatos de la imagen, o null si no existe.
+     * @throws SQLException Excepción en la consulta SQL.
+     */
+    public PictureInfo getInfo(String hash) throws SQLException {
+        if (hash == null)
+            return null;
+
+        getInfoQuery.setString(1, hash);
+
+        try (ResultSet rs = getInfoQuery.executeQuery()) {
+            if (!rs.next())
+                return null;
+
+            PictureInfo info = new PictureInfo();
+
+            info.setLength(rs.getLong("length"));
+            info.setHash(hash);
+            info.setContentType(PictureUtils.getContentType(rs.getBytes("header")));
+
+            return info;
+        }
+    }
+
+    /**
+     * Método para obtener una imagen completa.
+     * 
+     * @param hash El hash de la imagen.
+     * @return La imagen, o null si no existe.
+     * @throws SQLException Excepción en la consulta SQL.
+     */
+    public byte[] get(String hash) throws SQLException {
+        getQuery.setString(1, hash);
+
+        try (ResultSet rs = getQuery.executeQuery()) {
+            return rs.next() ? rs.getBytes("data") : null;
+        }
+    }
+
+    /**
+     * Método para escribir en un stream un rango de una imagen, leyendola por
+     * fragmentos de tamaño fijo, dado que el driver de PostgreSQL siempre carga en
+     * memoria el valor completo de una columna BYTEA.
+     * 
+     * La conexión se ocupa durante toda la escritura, por lo que solo se debe
+     * usar con streams en memoria, para las respuestas a los clientes se leen los
+     * fragmentos uno a uno con getChunk.
+     * 
+     * @param hash      El hash de la imagen.
+     * @param offset    El primer byte a escribir.
+     * @param length    El número de bytes a escribir.
+     * @param out       El stream de salida.
+     * @param chunkSize El tamaño de cada fragmento.
+     * @throws SQLException Excepción en la consulta SQL.
+     * @throws ManagerErrorException Excepción dada si la imagen se ha eliminado.
+     * @throws IOException Excepción al escribir en el stream.
+     */
+    public void stream(String hash, long offset, long length, OutputStream out, int chunkSize) throws SQLException, ManagerErrorException, IOException {
+        long position = offset;
+        long remaining = length;
+
+        while (remaining > 0) {
+            final byte[] chunk = getChunk(hash, position, (int) Math.min(chunkSize, remaining));
+
+            out.write(chunk);
+
+            position += chunk.length;
+            remaining -= chunk.length;
+        }
+    }
+
+    /**
+     * Método para obtener un fragmento de una imagen.
+     * 
+     * La columna de las imagenes no se comprime, por lo que la base de datos solo
+     * lee los fragmentos de TOAST del rango pedido.
+     * 
+     * @param hash   El hash de la imagen.
+     * @param offset El primer byte del fragmento.
+     * @param size   El tamaño del fragmento.
+     * @return El fragmento, que puede ser menor si se llega al final de la imagen.
+     * @throws SQLException Excepción en la consulta SQL.
+     * @throws ManagerErrorException Excepción dada si la imagen se ha eliminado.
+     */
+    public byte[] getChunk(String hash, long offset, int size) throws SQLException, ManagerErrorException {
+        getChunkQuery.setLong(1, offset + 1);
+        getChunkQuery.setInt(2, size);
+        getChunkQuery.setString(3, hash);
+
+        try (ResultSet rs = getChunkQuery.executeQuery()) {
+            final byte[] chunk = rs.next() ? rs.getBytes("chunk") : null;
+
+            if (chunk == null || chunk.length == 0)
+                throw new ManagerErrorException("La imagen " + hash + " se ha eliminado");
+
+            return chunk;
+        }
+    }
+
+    /**
+     * Método para comprobar si una imagen es la de algún producto.
+     * 
+     * @param hash El hash de la imagen.
+     * @return Verdadero si algún producto referencia la imagen.
+     * @throws SQLException Excepción en la consulta SQL.
+     */
+    public boolean isProductPicture(String hash) throws SQLException {
+        isProductPictureQuery.setString(1, hash);
+
+        try (ResultSet rs = isProductPictureQuery.executeQuery()) {
+            return rs.next() && rs.getBoolean("referenced");
+        }
+    }
+
+    /**
+     * Método para guardar una imagen en el almacén, si no estaba ya guardada.
+     * 
+     * Se debe invocar dentro de la misma transacción que guarda la referencia a
+     * la imagen, dado que hasta entonces nadie la referencia. Si el hash de la
+     * imagen es el de la imagen actual, no se envía de nuevo a la base de datos.
+     * 
+     * @param picture     La imagen, o null si no hay imagen.
+     * @param currentHash El hash de la imagen que se va a reemplazar, o null.
+     * @return El hash de la imagen, o null si no hay imagen.
+     * @throws SQLException Excepción en la consulta SQL.
+     */
+    public String put(byte[] picture, String currentHash) throws SQLException {
+        if (picture == null)
+            return null;
+
+        final String hash = PictureUtils.getHash(picture);
+
+        if (!hash.equals(currentHash)) {
+            putQuery.setString(1, hash);
+            putQuery.setBytes(2, picture);
+            putQuery.executeUpdate();
+        }
+
+        return hash;
+    }
+
+    /**
+     * Método para guardar una imagen en el almacén a partir de un stream de tamaño
+     * y hash conocidos, sin cargarla en memoria.
+     * 
+     * El hash lo calcula quien lee la imagen, por lo que se guarda directamente
+     * bajo su clave definitiva, o se descarta si ya existía. Se debe invocar
+     * dentro de la misma transacción que guarda la referencia a la imagen.
+     * 
+     * @param in     El stream con la imagen.
+     * @param length El tamaño de la imagen.
+     * @param hash   El hash SHA-256 de la imagen, en hexadecimal.
+     * @return El hash de la imagen.
+     * @throws SQLException Excepción en la consulta SQL.
+     */
+    public String put(InputStream in, long length, String hash) throws SQLException {
+        putQuery.setString(1, hash);
+        putQuery.setBinaryStream(2, in, length);
+        putQuery.executeUpdate();
+
+        return hash;
+    }
+
+    /**
+     * Método para obtener una variante redimensionada de una imagen.
+     * 
+     * @param hash El hash de la imagen.
+     * @param size El tamaño de la variante.
+     * @return La variante, o null si todavía no se ha generado.
+     * @throws SQLException Excepción en la consulta SQL.
+     */
+    public byte[] getVariant(String hash, int size) throws SQLException {
+        getVariantQuery.setString(1, hash);
+        getVariantQuery.setInt(2, size);
+
+        try (ResultSet rs = getVariantQuery.executeQuery()) {
+            return rs.next() ? rs.getBytes("data") : null;
+        }
+    }
+
+    /**
+     * Método para guardar una variante redimensionada de una imagen,
+     * reemplazando la anterior si existiera.
+     * 
+     * @param hash    El hash de la imagen.
+     * @param size    El tamaño de la variante.
+     * @param picture La variante.
+     * @throws SQLException Excepción en la consulta SQL.
+     */
+    public void putVariant(String hash, int size, byte[] picture) throws SQLException {
+        putVariantQuery.setString(1, hash);
+        putVariantQuery.setInt(2, size);
+        putVariantQuery.setBytes(3, picture);
+        putVariantQuery.executeUpdate();
+    }
+
+    /**
+     * Método para contar las variantes ya generadas de una imagen.
+     * 
+     * @param hash El hash de la imagen.
+     * @return El número de variantes.
+     * @throws SQLException Excepción en la consulta SQL.
+     */
+    public int countVariants(String hash) throws SQLException {
+        countVariantsQuery.setString(1, hash);
+
+        try (ResultSet rs = countVariantsQuery.executeQuery()) {
+            return rs.next() ? rs.getInt("variants") : 0;
+        }
+    }
+
+    /**
+     * Método para ejecutar varias operaciones en una misma transacción,
+     * deshaciendolas todas si alguna falla.
+     * 
+     * @param transaction Las operaciones a ejecutar.
+     * @throws SQLException Excepción en la consulta SQL.
+     * @throws ManagerErrorException Excepción de la clase gestora.
+     */
+    void inTransaction(Transaction transaction) throws SQLException, ManagerErrorException {
+        final boolean autoCommit = conn.getAutoCommit();
+
+        conn.setAutoCommit(false);
+
+        try {
+            transaction.execute();
+            conn.commit();
+        } catch (SQLException | ManagerErrorException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+}
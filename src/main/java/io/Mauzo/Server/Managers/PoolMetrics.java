@@ -0,0 +1,101 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Managers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.Mauzo.Server.Metrics.Histogram;
+
+/**
+ * Clase con las métricas del grupo de conexiones para un tipo de gestor.
+ * 
+ * Se registra el tiempo que se espera para obtener una conexión y el tiempo que
+ * se retiene, ambos en microsegundos, junto con las conexiones en uso, los
+ * préstamos realizados, los que han agotado el tiempo de espera y las posibles
+ * fugas detectadas.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class PoolMetrics {
+    private final String name;
+    private final Histogram waitTime = new Histogram();
+    private final Histogram holdTime = new Histogram();
+    private final AtomicInteger inUse = new AtomicInteger(0);
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+
+    PoolMetrics(String name) {
+        this.name = name;
+    }
+
+    void recordAcquire(long waitMicros) {
+        waitTime.record(waitMicros);
+        acquired.increment();
+        inUse.incrementAndGet();
+    }
+
+    void recordRelease(long holdMicros) {
+        holdTime.record(holdMicros);
+        inUse.decrementAndGet();
+    }
+
+    void recordTimeout(long waitMicros) {
+        waitTime.record(waitMicros);
+        timeouts.increment();
+    }
+
+    void recordLeak() {
+        leaks.increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Histogram getWaitTime() {
+        return waitTime;
+    }
+
+    public Histogram getHoldTime() {
+        return holdTime;
+    }
+
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getLeaks() {
+        return leaks.sum();
+    }
+}
@@ -23,11 +23,13 @@
  */
 package io.Mauzo.Server.Managers;
 
+import java.io.InputStream;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
 
-import io.Mauzo.Server.ServerUtils;
 import io.Mauzo.Server.Templates.Product;
 
 /**
@@ -39,45 +41,82 @@ import io.Mauzo.Server.Templates.Product;
  * @author lluminar Lidia Martínez
  */
 public class ProductsMgt implements ManagersIntf<Product>{
+    /**
+     * Columna pesada que solo se consulta si se solicita expresamente.
+     */
+    public static final String PICTURE_COLUMN = "prodPic";
+
+    /**
+     * Columna con la referencia a la imagen en el almacén de imagenes.
+     */
+    public static final String PICTURE_HASH_COLUMN = "prodPicHash";
+
+    private final Connection connection;
     private final PreparedStatement addQuery;
     private final PreparedStatement getIdQuery;
+    private final PreparedStatement getIdWithoutPictureQuery;
     private final PreparedStatement getNameQuery;
+    private final PreparedStatement getPictureHashQuery;
+    private final PreparedStatement writePictureQuery;
     private final PreparedStatement getListQuery;
     private final PreparedStatement modifyQuery;
     private final PreparedStatement removeQuery;
-
-    //Constructor con las sentencias a la base de datos
-    ProductsMgt(Connection connection) throws SQLException {
-        addQuery = connection.prepareStatement("INSERT INTO Products ( ProdCode, ProdName, ProdPrice, ProdDesc, ProdPic) VALUES ( ?, ?, ?, ?, ?);");
-        getIdQuery = connection.prepareStatement("SELECT * FROM Products WHERE id = ?;");
-        getNameQuery = connection.prepareStatement("SELECT * FROM Products WHERE prodCode = ?;");
-        getListQuery = connection.prepareStatement("SELECT * FROM Products");
-        modifyQuery = connection.prepareStatement("UPDATE Products SET ProdCode = ?, prodName = ?, prodPrice = ?, prodDesc = ?, ProdPic = ? WHERE id = ?");
+    private final PreparedStatement[] getListProjectionQueries = new PreparedStatement[4];
+    private final PicturesMgt pictures;
+
+    //Constructor con las sentencias a la base de datos, reutilizando el gestor de imagenes de la misma conexión.
+    ProductsMgt(Connection connection, PicturesMgt pictures) throws SQLException {
+        this.connection = connection;
+        this.pictures = pictures;
+
+        addQuery = connection.prepareStatement("INSERT INTO Products ( ProdCode, ProdName, ProdPrice, ProdDesc, prodPicHash) VALUES ( ?, ?, ?, ?, ?);", Statement.RETURN_GENERATED_KEYS);
+        getIdQuery = connection.prepareStatement("SELECT Products.*, Pictures.data AS prodPic FROM Products LEFT JOIN Pictures ON Pictures.hash = Products.prodPicHash WHERE Products.id = ?;");
+        getIdWithoutPictureQuery = connection.prepareStatement("SELECT id, prodCode, prodName, prodPrice, prodDesc, prodPicHash FROM Products WHERE id = ?;");
+        getNameQuery = connection.prepareStatement("SELECT Products.*, Pictures.data AS prodPic FROM Products LEFT JOIN Pictures ON Pictures.hash = Products.prodPicHash WHERE Products.prodCode = ?;");
+        getPictureHashQuery = connection.prepareStatement("SELECT prodPicHash FROM Products WHERE id = ?;");
+        writePictureQuery = connection.prepareStatement("UPDATE Products SET prodPicHash = ? WHERE id = ?;");
+        getListQuery = connection.prepareStatement("SELECT Products.*, Pictures.data AS prodPic FROM Products LEFT JOIN Pictures ON Pictures.hash = Products.prodPicHash");
+        modifyQuery = connection.prepareStatement("UPDATE Products SET ProdCode = ?, prodName = ?, prodPrice = ?, prodDesc = ?, prodPicHash = ? WHERE id = ?");
         removeQuery = connection.prepareStatement("DELETE FROM Products WHERE id = ?;");
     }
 
     /**
      * Método que añade productos a la base de datos.
      *
+     * La imagen se guarda en el almacén de imagenes, si no estaba ya, en la misma
+     * transacción que el producto.
+     *
      * @param product El producto a añadir.
      * @throws SQLException Excepcion de la consulta SQL
+     * @throws ManagerErrorException Excepción de la clase gestora
      */
     @Override
-    public void add(Product product) throws SQLException{
+    public void add(Product product) throws SQLException, ManagerErrorException {
+        pictures.inTransaction(() -> {
+            // Guardamos la imagen en el almacén.
+            final String pictureHash = pictures.put(product.getPicture(), null);
+
             // Asociamos los valores
             addQuery.setString(1, product.getCode());
             addQuery.setString(2, product.getName());
             addQuery.setDouble(3,product.getPrice());
             addQuery.setString(4, product.getDescription());
-
-            if(product.getPicture() != null) {
-                addQuery.setBytes(5, ServerUtils.imageToByteArray(product.getPicture(), "png"));
-            } else {
-                addQuery.setNull(5, Types.BINARY);
-            }
+            addQuery.setString(5, pictureHash);
 
             //Ejecutamos la sentencia SQl
             addQuery.execute();
+
+            // Asignamos al producto el id generado por la base de datos.
+            try (ResultSet keys = addQuery.getGeneratedKeys()) {
+                if (keys.next())
+                    product.setId(keys.getInt("id"));
+            }
+
+            product.setPictureHash(pictureHash);
+        });
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(connection);
     }
 
     /**
@@ -107,7 +146,8 @@ public class ProductsMgt implements ManagersIntf<Product>{
                          product.setName(resultSet.getString("prodName"));
                          product.setPrice(resultSet.getFloat("prodPrice"));
                          product.setDescription(resultSet.getString("prodDesc"));
-                         product.setPicture(ServerUtils.imageFromByteArray(resultSet.getBytes("prodPic")));
+                         product.setPicture(resultSet.getBytes("prodPic"));
+                         product.setPictureHash(resultSet.getString("prodPicHash"));
                      }
                  } else
                      throw new ManagerErrorException("No se ha encontrado el producto");
@@ -116,6 +156,26 @@ public class ProductsMgt implements ManagersIntf<Product>{
              return product;
     }
 
+    /**
+     * Método para obtener el producto a partir de un id sin cargar su imagen,
+     * solo la referencia a ella, para modificarlo sin leer la imagen del almacén.
+     *
+     * @param id ID del objeto en la base de datos.
+     * @return El producto en forma de objeto, sin imagen.
+     * @throws SQLException Excepción en la consulta SQL
+     * @throws ManagerErrorException Excepción dada en caso de no encontrar el producto
+     */
+    public Product getWithoutPicture(int id) throws SQLException, ManagerErrorException {
+            getIdWithoutPictureQuery.setInt(1, id);
+
+            try (ResultSet resultSet = getIdWithoutPictureQuery.executeQuery()) {
+                if (!resultSet.next())
+                    throw new ManagerErrorException("No se ha encontrado el producto");
+
+                return toProduct(resultSet, false);
+            }
+    }
+
     /**
      * Método para obtener el producto a partir de su nombre
      *
@@ -141,7 +201,8 @@ public class ProductsMgt implements ManagersIntf<Product>{
                     product.setDescription(resultSet.getString("prodDesc"));
                     product.setPrice(resultSet.getFloat("prodPrice"));
                     product.setName(resultSet.getString("prodName"));
-                    product.setPicture(ServerUtils.imageFromByteArray(resultSet.getBytes("prodPic")));
+                    product.setPicture(resultSet.getBytes("prodPic"));
+                    product.setPictureHash(resultSet.getString("prodPicHash"));
 
                 } else
                     throw new ManagerErrorException("No se ha encontrado el producto");
@@ -151,6 +212,57 @@ public class ProductsMgt implements ManagersIntf<Product>{
            return product;
     }
 
+    /**
+     * Método para obtener el hash con el que se referencia la imagen de un
+     * producto en el almacén de imagenes.
+     *
+     * @param id El id del producto.
+     * @return El hash de la imagen, o null si no tiene imagen.
+     * @throws SQLException Excepción en la consulta SQL
+     * @throws ManagerErrorException Excepción dada en caso de no encontrar el producto
+     */
+    public String getPictureHash(int id) throws SQLException, ManagerErrorException {
+        getPictureHashQuery.setInt(1, id);
+
+        try (ResultSet resultSet = getPictureHashQuery.executeQuery()) {
+            if (!resultSet.next())
+                throw new ManagerErrorException("No se ha encontrado el producto");
+
+            return resultSet.getString("prodPicHash");
+        }
+    }
+
+    /**
+     * Método para reemplazar la imagen del producto a partir de un stream de tamaño
+     * conocido, sin cargarla entera en memoria.
+     *
+     * @param id     El id del producto.
+     * @param in     El stream con la imagen.
+     * @param length El tamaño de la imagen.
+     * @param hash   El hash SHA-256 de la imagen, calculado al leerla.
+     * @return El hash de la imagen en el almacén de imagenes.
+     * @throws SQLException Excepción en la consulta SQL
+     * @throws ManagerErrorException Excepción dada en caso de no encontrar el producto
+     */
+    public String writePicture(int id, InputStream in, long length, String hash) throws SQLException, ManagerErrorException {
+        final String[] pictureHash = new String[1];
+
+        pictures.inTransaction(() -> {
+            pictureHash[0] = pictures.put(in, length, hash);
+
+            writePictureQuery.setString(1, pictureHash[0]);
+            writePictureQuery.setInt(2, id);
+
+            if (writePictureQuery.executeUpdate() == 0)
+                throw new ManagerErrorException("No se ha encontrado el producto");
+        });
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(connection);
+
+        return pictureHash[0];
+    }
+
     /**
      * Método para obtener la lista de productos de la base de datos
      *
@@ -173,7 +285,8 @@ public class ProductsMgt implements ManagersIntf<Product>{
                     product.setPrice(resultSet.getFloat("prodPrice"));
                     product.setCode(resultSet.getString("ProdCode"));
                     product.setDescription(resultSet.getString("prodDesc"));
-                    product.setPicture(ServerUtils.imageFromByteArray(resultSet.getBytes("prodPic")));
+                    product.setPicture(resultSet.getBytes("prodPic"));
+                    product.setPictureHash(resultSet.getString("prodPicHash"));
 
                     // Añade un producto a la lista
                     products.add(product);
@@ -183,6 +296,148 @@ public class ProductsMgt implements ManagersIntf<Product>{
             return products;
     }
 
+    /**
+     * Método para obtener la lista de productos de la base de datos consultando
+     * solo las columnas necesarias.
+     *
+     * Las columnas ligeras y la referencia a la imagen se consultan siempre,
+     * mientras que la imagen solo se consulta si el conjunto de columnas contiene
+     * PICTURE_COLUMN, en caso contrario los productos se devuelven sin imagen.
+     *
+     * @param columns Las columnas solicitadas.
+     * @return La lista de productos
+     * @throws SQLException Excepción en la consulta SQL
+     */
+    public List<Product> getList(Set<String> columns) throws SQLException {
+            final boolean withPicture = columns.contains(PICTURE_COLUMN);
+            List<Product> products = null;
+
+            try(ResultSet resultSet = getListQuery(columns).executeQuery()) {
+                products = new ArrayList<>();
+
+                // Añade un producto a la lista
+                while (resultSet.next())
+                    products.add(toProduct(resultSet, withPicture));
+            }
+
+            return products;
+    }
+
+    /**
+     * Método para obtener los productos de la base de datos como un Stream,
+     * leyendolos mediante un cursor a medida que se recorre.
+     *
+     * @return El Stream de productos, que se debe cerrar al terminar.
+     * @throws SQLException Excepción en la consulta SQL
+     */
+    @Override
+    public Stream<Product> stream() throws SQLException {
+            return ResultSetStream.open(getListQuery, (resultSet) -> toProduct(resultSet, true));
+    }
+
+    /**
+     * Método para obtener los productos de la base de datos como un Stream,
+     * consultando solo las columnas necesarias al igual que getList.
+     *
+     * @param columns Las columnas solicitadas.
+     * @return El Stream de productos, que se debe cerrar al terminar.
+     * @throws SQLException Excepción en la consulta SQL
+     */
+    public Stream<Product> stream(Set<String> columns) throws SQLException {
+            final boolean withPicture = columns.contains(PICTURE_COLUMN);
+
+            return ResultSetStream.open(getListQuery(columns), (resultSet) -> toProduct(resultSet, withPicture));
+    }
+
+    /**
+     * Método para obtener una página de productos, los de id mayor que after en
+     * orden de id, mediante el indice de la clave primaria y consultando solo
+     * las columnas necesarias al igual que getList.
+     *
+     * @param columns Las columnas solicitadas.
+     * @param after El id del último producto de la página anterior, o 0.
+     * @param limit El número máximo de productos a obtener.
+     * @return La página de productos.
+     * @throws SQLException Excepción en la consulta SQL
+     */
+    public List<Product> getPage(Set<String> columns, int after, int limit) throws SQLException {
+            final boolean withPicture = columns.contains(PICTURE_COLUMN);
+            final PreparedStatement query = getListQuery(columns, true);
+            List<Product> products = new ArrayList<>();
+
+            // Asociamos los valores
+            query.setInt(1, after);
+            query.setInt(2, limit);
+
+            try(ResultSet resultSet = query.executeQuery()) {
+                while (resultSet.next())
+                    products.add(toProduct(resultSet, withPicture));
+            }
+
+            return products;
+    }
+
+    /**
+     * Método privado para obtener la consulta del listado con las columnas
+     * solicitadas, preparandola la primera vez que se usa.
+     *
+     * @param columns Las columnas solicitadas.
+     * @return La consulta preparada.
+     * @throws SQLException Excepción en la consulta SQL
+     */
+    private PreparedStatement getListQuery(Set<String> columns) throws SQLException {
+            return getListQuery(columns, false);
+    }
+
+    /**
+     * Método privado para obtener la consulta del listado con las columnas
+     * solicitadas, completo o por páginas, preparandola la primera vez que se
+     * usa.
+     *
+     * @param columns Las columnas solicitadas.
+     * @param paged Si la consulta obtiene una página a partir de un id.
+     * @return La consulta preparada.
+     * @throws SQLException Excepción en la consulta SQL
+     */
+    private PreparedStatement getListQuery(Set<String> columns, boolean paged) throws SQLException {
+            final boolean withPicture = columns.contains(PICTURE_COLUMN);
+            final int projection = (withPicture ? 1 : 0) | (paged ? 2 : 0);
+
+            // Preparamos la consulta de esta proyección la primera vez que se usa.
+            if (getListProjectionQueries[projection] == null)
+                getListProjectionQueries[projection] = connection.prepareStatement("SELECT Products.id, prodCode, prodName, prodPrice, prodDesc, prodPicHash"
+                        + (withPicture ? ", Pictures.data AS prodPic FROM Products LEFT JOIN Pictures ON Pictures.hash = Products.prodPicHash" : " FROM Products")
+                        + (paged ? " WHERE Products.id > ? ORDER BY Products.id LIMIT ?;" : ";"));
+
+            return getListProjectionQueries[projection];
+    }
+
+    /**
+     * Método privado para construir un producto a partir de la fila actual de un
+     * ResultSet del listado.
+     *
+     * @param resultSet El ResultSet posicionado en la fila.
+     * @param withPicture Si la consulta incluye la imagen.
+     * @return El producto.
+     * @throws SQLException Excepción en la consulta SQL
+     */
+    private Product toProduct(ResultSet resultSet, boolean withPicture) throws SQLException {
+            Product product = new Product();
+
+            // Envía los atributos de la base de datos
+            product.setId(resultSet.getInt("id"));
+            product.setName(resultSet.getString("prodName"));
+            product.setPrice(resultSet.getFloat("prodPrice"));
+            product.setCode(resultSet.getString("ProdCode"));
+            product.setDescription(resultSet.getString("prodDesc"));
+            product.setPictureHash(resultSet.getString("prodPicHash"));
+
+            if (withPicture)
+                product.setPicture(resultSet.getBytes("prodPic"));
+
+            return product;
+    }
+
     /**
      * Método para poder modificar el producto en la base de datos
      *
@@ -192,24 +447,27 @@ public class ProductsMgt implements ManagersIntf<Product>{
      */
     @Override
     public void modify(Product obj) throws SQLException, ManagerErrorException {
+        pictures.inTransaction(() -> {
+            // Guardamos la imagen en el almacén, si ha cambiado, sin imagen se conserva la referencia.
+            final String pictureHash = (obj.getPicture() != null) ? pictures.put(obj.getPicture(), obj.getPictureHash()) : obj.getPictureHash();
+
             // Envía los valores a la base de datos para modificarla
             modifyQuery.setString(1, obj.getCode());
             modifyQuery.setString(2, obj.getName());
             modifyQuery.setDouble(3, obj.getPrice());
             modifyQuery.setString(4,obj.getDescription());
-
-            // Este es un posible valor nulo.
-           if(obj.getPicture() != null) {
-                modifyQuery.setBytes(5, ServerUtils.imageToByteArray(obj.getPicture(), "png"));
-           } else {
-                modifyQuery.setNull(5, Types.BINARY);
-           }
-
+            modifyQuery.setString(5, pictureHash);
             modifyQuery.setInt(6,obj.getId());
 
-           // En caso de que no se encuentre el producto lanza la Excepción
-           if(modifyQuery.executeUpdate() == 0)
+            // En caso de que no se encuentre el producto lanza la Excepción
+            if(modifyQuery.executeUpdate() == 0)
                 throw new ManagerErrorException("No se ha encontrado el producto durante la actualización del mismo.");
+
+            obj.setPictureHash(pictureHash);
+        });
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(connection);
     }
 
     /**
@@ -226,5 +484,8 @@ public class ProductsMgt implements ManagersIntf<Product>{
         // Ejecutamos la sentencia sql y en caso de no encontrar el producto lanza una Excepción.
         if(removeQuery.executeUpdate() == 1)
             throw new ManagerErrorException("No se ha encontrado el producto");
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(connection);
     }
 }
@@ -24,10 +24,12 @@
 package io.Mauzo.Server.Managers;
 
 import io.Mauzo.Server.Templates.Refund;
+import io.Mauzo.Server.Templates.SalesFilter;
 
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Clase para gestionar las devoluciones en la base de datos.
@@ -38,15 +40,18 @@ import java.util.List;
  * @author lluminar Lidia Martínez
  */
 public class RefundsMgt implements  ManagersIntf<Refund>{
+    private final Connection connection;
     private final PreparedStatement addQuery;
     private final PreparedStatement getIdQuery;
     private final PreparedStatement getListQuery;
+    private final PreparedStatement[] getPageQueries = new PreparedStatement[32];
     private final PreparedStatement modifyQuery;
     private final PreparedStatement removeQuery;
 
     //Constructor con las sentencias a la base de datos
     // FIXME: 08/06/2020 Un espacio, por favor
     RefundsMgt(Connection connection) throws SQLException{
+        this.connection = connection;
         addQuery = connection.prepareStatement("INSERT INTO Refunds ( dateRefund, userId, saleId ) VALUES (?, ?, ?);");
         getIdQuery = connection.prepareStatement("SELECT * FROM Refunds WHERE id = ?;");
         getListQuery = connection.prepareStatement("SELECT * FROM Refunds");
@@ -70,6 +75,9 @@ public class RefundsMgt implements  ManagersIntf<Refund>{
 
         // FIXME: 08/06/2020 Creo que preferiría executeUpdate
         addQuery.execute();
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(connection);
     }
 
     /**
@@ -119,30 +127,85 @@ public class RefundsMgt implements  ManagersIntf<Refund>{
             try (ResultSet resultSet = getListQuery.executeQuery()) {
                 refundList = new ArrayList<>();
 
-                while (resultSet.next()) {
-                    Refund refund = new Refund();
-
-                    // Envía los atributos de la base de datos
-                    refund.setId(resultSet.getInt("id"));
-                    refund.setDateRefund(resultSet.getDate("dateRefund"));
-                    refund.setUserId(resultSet.getInt("userId"));
-                    refund.setSaleId(resultSet.getInt("saleId"));
-
-                    // Añade la devolución a la lista
-                    refundList.add(refund);
-                }
+                // Añade la devolución a la lista
+                while (resultSet.next())
+                    refundList.add(toRefund(resultSet));
             }
 
             return refundList;
     }
 
     /**
-     * Permite modificar la devolución
+     * Método para obtener una página de devoluciones, las de id mayor que after
+     * en orden de id que cumplan los filtros indicados. El producto y el
+     * descuento se filtran por los de la venta devuelta.
      *
-     * @param obj La devolución
-     * @throws SQLException Excepcion en la consulta SQL.
-     * @throws ManagerErrorException Excepción lanzada al no encontrar la devolución
+     * Cada combinación de filtros tiene su propia consulta preparada, la cual se
+     * prepara la primera vez que se usa.
+     *
+     * @param filter Los filtros de la consulta.
+     * @param after El id de la última devolución de la página anterior, o 0.
+     * @param limit El número máximo de devoluciones a obtener.
+     * @return La página de devoluciones.
+     * @throws SQLException Excepción en la consulta SQL.
      */
+    public List<Refund> getPage(SalesFilter filter, int after, int limit) throws SQLException {
+        final int shape = SalesMgt.getShape(filter);
+        final boolean withSale = (shape & (SalesMgt.FILTER_PROD | SalesMgt.FILTER_DISC)) != 0;
+        List<Refund> refundList = new ArrayList<>();
+
+        // Preparamos la consulta de estos filtros la primera vez que se usa.
+        if (getPageQueries[shape] == null)
+            getPageQueries[shape] = connection.prepareStatement("SELECT Refunds.* FROM Refunds" + (withSale ? " JOIN Sales ON Sales.id = Refunds.saleId" : "")
+                    + " WHERE Refunds.id > ?" + SalesMgt.getFilterSql(shape, "Refunds.dateRefund", "Refunds.userId", "Sales.prodId", "Sales.discId") + " ORDER BY Refunds.id LIMIT ?;");
+
+        final PreparedStatement query = getPageQueries[shape];
+
+        //Asociamos los valores
+        query.setInt(1, after);
+        query.setInt(SalesMgt.setFilter(query, 2, filter), limit);
+
+        // Ejecutamos la sentencia
+        try (ResultSet resultSet = query.executeQuery()) {
+            while (resultSet.next())
+                refundList.add(toRefund(resultSet));
+        }
+
+        return refundList;
+    }
+
+    /**
+     * Método para obtener las devoluciones de la base de datos como un Stream,
+     * leyendolas mediante un cursor a medida que se recorre.
+     *
+     * @return El Stream de devoluciones, que se debe cerrar al terminar.
+     * @throws SQLException Excepción en la consulta SQL.
+     */
+    @Override
+    public Stream<Refund> stream() throws SQLException {
+        return ResultSetStream.open(getListQuery, this::toRefund);
+    }
+
+    /**
+     * Método privado para construir una devolución a partir de la fila actual de
+     * un ResultSet.
+     *
+     * @param resultSet El ResultSet posicionado en la fila.
+     * @return La devolución.
+     * @throws SQLException Excepción en la consulta SQL.
+     */
+    private Refund toRefund(ResultSet resultSet) throws SQLException {
+        Refund refund = new Refund();
+
+        // Envía los atributos de la base de datos
+        refund.setId(resultSet.getInt("id"));
+        refund.setDateRefund(resultSet.getDate("dateRefund"));
+        refund.setUserId(resultSet.getInt("userId"));
+        refund.setSaleId(resultSet.getInt("saleId"));
+
+        return refund;
+    }
+
     @Override
     public void modify(Refund obj) throws SQLException, ManagerErrorException {
         // Envía los valores a la base de datos para modificarla
@@ -155,6 +218,9 @@ public class RefundsMgt implements  ManagersIntf<Refund>{
         // Si no encuentra la devolución lanza una Excepción
         if (modifyQuery.executeUpdate() == 0)
             throw new ManagerErrorException("No se ha encontrado la devolución");
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(connection);
     }
 
     /**
@@ -172,5 +238,8 @@ public class RefundsMgt implements  ManagersIntf<Refund>{
         // En el caso de no encontrarla lanza una Excepción
         if (removeQuery.executeUpdate() == 0)
             throw new ManagerErrorException("No se ha encontrado la devolución");
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(connection);
     }
 }
\ No newline at end of file
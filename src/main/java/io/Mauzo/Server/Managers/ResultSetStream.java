@@ -0,0 +1,186 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Managers;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Managers.ManagersIntf.RowConsumer;
+
+/**
+ * Clase de utilidades que recorre el resultado de una consulta como un Stream,
+ * mediante un cursor en el servidor de la base de datos.
+ * 
+ * El driver de PostgreSQL lee todo el resultado de una consulta en memoria,
+ * salvo que la conexión esté en una transacción y la consulta tenga un tamaño de
+ * lectura, en cuyo caso lo lee por bloques de mauzo.managers.fetchSize filas. Por
+ * ello mientras el Stream está abierto se desactiva el AutoCommit de la conexión,
+ * el cual se restablece al cerrar el Stream.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+final class ResultSetStream {
+    private static final int fetchSize = Integer.valueOf(ServerUtils.loadProperties().getProperty("mauzo.managers.fetchSize", "1000"));
+
+    /**
+     * Interfaz funcional que construye un elemento a partir de la fila actual de
+     * un ResultSet.
+     */
+    @FunctionalInterface
+    interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Excepción que envuelve los errores de la base de datos producidos mientras
+     * se recorre el Stream, dado que este no admite excepciones comprobadas.
+     */
+    static class CursorException extends RuntimeException {
+        private static final long serialVersionUID = -3190236153204817720L;
+
+        CursorException(SQLException e) {
+            super(e.getMessage(), e);
+        }
+    }
+
+    private ResultSetStream() {
+    }
+
+    /**
+     * Método para ejecutar una consulta y recorrer su resultado como un Stream.
+     * 
+     * El Stream se debe cerrar, normalmente con un try-with-resources, para
+     * liberar el cursor y devolver la conexión a su estado anterior antes de
+     * devolverla al grupo de conexiones.
+     * 
+     * @param query  La consulta preparada.
+     * @param mapper La función que construye cada elemento.
+     * @return El Stream con los elementos de la consulta.
+     * @throws SQLException Excepción en la consulta SQL.
+     */
+    static <T> Stream<T> open(PreparedStatement query, RowMapper<T> mapper) throws SQLException {
+        final Connection conn = query.getConnection();
+        final boolean autoCommit = conn.getAutoCommit();
+        final ResultSet rs;
+
+        try {
+            // El cursor solo existe dentro de una transacción.
+            conn.setAutoCommit(false);
+            query.setFetchSize(fetchSize);
+
+            rs = query.executeQuery();
+        } catch (SQLException e) {
+            // Devolvemos la conexión a su estado anterior, sin ocultar el error original.
+            try {
+                restore(query, autoCommit);
+            } catch (SQLException restoreError) {
+                e.addSuppressed(restoreError);
+            }
+
+            throw e;
+        }
+
+        final Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!rs.next())
+                        return false;
+
+                    action.accept(mapper.map(rs));
+
+                    return true;
+                } catch (SQLException e) {
+                    throw new CursorException(e);
+                }
+            }
+        };
+
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                rs.close();
+            } catch (SQLException e) {
+                throw new CursorException(e);
+            } finally {
+                try {
+                    restore(query, autoCommit);
+                } catch (SQLException e) {
+                    throw new CursorException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Método para recorrer un Stream con una función que puede lanzar excepciones,
+     * cerrando el Stream al terminar.
+     * 
+     * @param stream   El Stream a recorrer.
+     * @param consumer La función que recibe cada elemento.
+     * @throws Exception Excepción en la base de datos o en la función.
+     */
+    static <T> void forEach(Stream<T> stream, RowConsumer<T> consumer) throws Exception {
+        try (Stream<T> rows = stream) {
+            final Iterator<T> iterator = rows.iterator();
+
+            while (iterator.hasNext())
+                consumer.accept(iterator.next());
+        } catch (CursorException e) {
+            // Devolvemos el error original de la base de datos.
+            throw (SQLException) e.getCause();
+        }
+    }
+
+    /**
+     * Método privado para devolver la consulta y su conexión al estado anterior a
+     * abrir el Stream. Si la conexión estaba en AutoCommit, se termina la
+     * transacción del cursor, la cual solo ha leido datos, y se restablece.
+     * 
+     * @param query      La consulta preparada.
+     * @param autoCommit El AutoCommit anterior de la conexión.
+     * @throws SQLException Excepción en la base de datos.
+     */
+    private static void restore(PreparedStatement query, boolean autoCommit) throws SQLException {
+        query.setFetchSize(0);
+
+        if (autoCommit) {
+            final Connection conn = query.getConnection();
+
+            try {
+                conn.rollback();
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+}
@@ -26,8 +26,10 @@ package io.Mauzo.Server.Managers;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 import io.Mauzo.Server.Templates.Sale;
+import io.Mauzo.Server.Templates.SalesFilter;
 
 /**
  * Clase para gestionar las ventas respecto a la base de datos.
@@ -41,14 +43,24 @@ import io.Mauzo.Server.Templates.Sale;
  * @author Neirth Sergio Martínez
  */
 public class SalesMgt implements ManagersIntf<Sale> {
+    // Bits de cada filtro en la forma de una consulta filtrada.
+    static final int FILTER_FROM = 1;
+    static final int FILTER_TO = 2;
+    static final int FILTER_USER = 4;
+    static final int FILTER_PROD = 8;
+    static final int FILTER_DISC = 16;
+
+    private final Connection conn;
     // Dejamos preparadas las consultas
     private final PreparedStatement addQuery;
     private final PreparedStatement getIdQuery;
     private final PreparedStatement getListQuery;
+    private final PreparedStatement[] getPageQueries = new PreparedStatement[32];
     private final PreparedStatement modifyQuery;
     private final PreparedStatement deleteQuery;
 
     SalesMgt(Connection conn) throws SQLException {
+        this.conn = conn;
         this.addQuery = conn.prepareStatement("INSERT INTO Sales (stampRef, userId, prodId, discId) VALUES (?, ?, ?, ?);");
         this.getIdQuery = conn.prepareStatement("SELECT * FROM Sales WHERE id = ?;");
         this.getListQuery = conn.prepareStatement("SELECT * FROM Sales;");
@@ -78,6 +90,9 @@ public class SalesMgt implements ManagersIntf<Sale> {
 
         // Ejecutamos la sentencia sql.
         addQuery.execute();
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(conn);
     }
 
     /**
@@ -126,24 +141,161 @@ public class SalesMgt implements ManagersIntf<Sale> {
         // Ejecutamos la sentencia sql y recuperamos lo que nos ha retornado.
         try (ResultSet rs = getListQuery.executeQuery()) {
             while (rs.next()) {
-                // Preparamos un nuevo objeto de ventas.
-                Sale sale = new Sale();
-
-                // Le damos valor al objeto
-                sale.setId(rs.getInt("id"));
-                sale.setStampRef(rs.getDate("stampRef"));
-                sale.setUserId(rs.getInt("userId"));
-                sale.setProdId(rs.getInt("prodId"));
-                sale.setDiscId(rs.getInt("discId"));
-
                 // Lo añadimos a la lista a retornar.
-                salesList.add(sale);
+                salesList.add(toSale(rs));
             }
         }
 
         return salesList;
     }
 
+    /**
+     * Método para obtener una página de ventas, las de id mayor que after en
+     * orden de id que cumplan los filtros indicados.
+     * 
+     * Cada combinación de filtros tiene su propia consulta preparada, la cual se
+     * prepara la primera vez que se usa, de manera que la base de datos pueda
+     * usar los indices de las columnas filtradas.
+     * 
+     * @param filter Los filtros de la consulta.
+     * @param after  El id de la última venta de la página anterior, o 0.
+     * @param limit  El número máximo de ventas a obtener.
+     * @return La página de ventas.
+     * @throws SQLException Excepcion en la consulta SQL.
+     */
+    public List<Sale> getPage(SalesFilter filter, int after, int limit) throws SQLException {
+        final int shape = getShape(filter);
+        List<Sale> salesList = new ArrayList<>();
+
+        // Preparamos la consulta de estos filtros la primera vez que se usa.
+        if (getPageQueries[shape] == null)
+            getPageQueries[shape] = conn.prepareStatement("SELECT * FROM Sales WHERE id > ?" + getFilterSql(shape, "stampRef", "userId", "prodId", "discId") + " ORDER BY id LIMIT ?;");
+
+        final PreparedStatement query = getPageQueries[shape];
+
+        // Asociamos los valores respecto a la sentencia sql.
+        query.setInt(1, after);
+        query.setInt(setFilter(query, 2, filter), limit);
+
+        // Ejecutamos la sentencia sql y recuperamos lo que nos ha retornado.
+        try (ResultSet rs = query.executeQuery()) {
+            while (rs.next())
+                salesList.add(toSale(rs));
+        }
+
+        return salesList;
+    }
+
+    /**
+     * Método para obtener la forma de unos filtros, con un bit por cada filtro
+     * indicado, usada para elegir la consulta preparada.
+     * 
+     * @param filter Los filtros de la consulta.
+     * @return La forma de los filtros.
+     */
+    static int getShape(SalesFilter filter) {
+        return ((filter.getFrom() != null) ? FILTER_FROM : 0)
+            | ((filter.getTo() != null) ? FILTER_TO : 0)
+            | ((filter.getUserId() != null) ? FILTER_USER : 0)
+            | ((filter.getProdId() != null) ? FILTER_PROD : 0)
+            | ((filter.getDiscId() != null) ? FILTER_DISC : 0);
+    }
+
+    /**
+     * Método para obtener las condiciones SQL de una forma de filtros, a añadir
+     * tras la condición del id.
+     * 
+     * @param shape      La forma de los filtros.
+     * @param dateColumn La columna de la fecha.
+     * @param userColumn La columna del usuario.
+     * @param prodColumn La columna del producto.
+     * @param discColumn La columna del descuento.
+     * @return Las condiciones SQL.
+     */
+    static String getFilterSql(int shape, String dateColumn, String userColumn, String prodColumn, String discColumn) {
+        StringBuilder sql = new StringBuilder();
+
+        if ((shape & FILTER_FROM) != 0)
+            sql.append(" AND ").append(dateColumn).append(" >= ?");
+
+        if ((shape & FILTER_TO) != 0)
+            sql.append(" AND ").append(dateColumn).append(" <= ?");
+
+        if ((shape & FILTER_USER) != 0)
+            sql.append(" AND ").append(userColumn).append(" = ?");
+
+        if ((shape & FILTER_PROD) != 0)
+            sql.append(" AND ").append(prodColumn).append(" = ?");
+
+        if ((shape & FILTER_DISC) != 0)
+            sql.append(" AND ").append(discColumn).append(" = ?");
+
+        return sql.toString();
+    }
+
+    /**
+     * Método para asociar los valores de los filtros a una consulta filtrada, en
+     * el mismo orden que getFilterSql.
+     * 
+     * @param query  La consulta preparada.
+     * @param index  La posición del primer valor de los filtros.
+     * @param filter Los filtros de la consulta.
+     * @return La posición siguiente al último valor asociado.
+     * @throws SQLException Excepcion en la consulta SQL.
+     */
+    static int setFilter(PreparedStatement query, int index, SalesFilter filter) throws SQLException {
+        if (filter.getFrom() != null)
+            query.setDate(index++, new Date(filter.getFrom().getTime()));
+
+        if (filter.getTo() != null)
+            query.setDate(index++, new Date(filter.getTo().getTime()));
+
+        if (filter.getUserId() != null)
+            query.setInt(index++, filter.getUserId());
+
+        if (filter.getProdId() != null)
+            query.setInt(index++, filter.getProdId());
+
+        if (filter.getDiscId() != null)
+            query.setInt(index++, filter.getDiscId());
+
+        return index;
+    }
+
+    /**
+     * Método para obtener las ventas presentes en la base de datos como un Stream,
+     * leyendolas mediante un cursor a medida que se recorre.
+     * 
+     * @return El Stream de ventas, que se debe cerrar al terminar.
+     * @throws SQLException Excepcion en la consulta SQL.
+     */
+    @Override
+    public Stream<Sale> stream() throws SQLException {
+        return ResultSetStream.open(getListQuery, this::toSale);
+    }
+
+    /**
+     * Método privado para construir una venta a partir de la fila actual de un
+     * ResultSet.
+     * 
+     * @param rs El ResultSet posicionado en la fila.
+     * @return El objeto de la venta.
+     * @throws SQLException Excepcion en la consulta SQL.
+     */
+    private Sale toSale(ResultSet rs) throws SQLException {
+        // Preparamos un nuevo objeto de ventas.
+        Sale sale = new Sale();
+
+        // Le damos valor al objeto
+        sale.setId(rs.getInt("id"));
+        sale.setStampRef(rs.getDate("stampRef"));
+        sale.setUserId(rs.getInt("userId"));
+        sale.setProdId(rs.getInt("prodId"));
+        sale.setDiscId(rs.getInt("discId"));
+
+        return sale;
+    }
+
     /**
      * Método para actualizar la venta en la base de datos.
      * 
@@ -168,6 +320,9 @@ public class SalesMgt implements ManagersIntf<Sale> {
 
         if (modifyQuery.executeUpdate() == 0)
             throw new ManagerErrorException("No se ha encontrado la venta.");
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(conn);
     }
 
     /**
@@ -184,5 +339,8 @@ public class SalesMgt implements ManagersIntf<Sale> {
         // Ejecutamos la sentencia sql.
         if (deleteQuery.executeUpdate() == 0) 
             throw new ManagerErrorException("No se ha encontrado el usuario durante la eliminación del mismo.");
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(conn);
     }
 }
\ No newline at end of file
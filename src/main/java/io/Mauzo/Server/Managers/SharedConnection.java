@@ -0,0 +1,243 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Managers;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Clase que representa una conexión física del grupo de conexiones compartido.
+ *
+ * Cada conexión del grupo puede ofrecer cualquiera de los gestores del servidor,
+ * los cuales se preparan de manera perezosa la primera vez que se solicitan y se
+ * reutilizan en los siguientes préstamos, asi el presupuesto de conexiones con la
+ * base de datos se reparte según el tráfico real y no por tipo de gestor.
+ *
+ * Esta clase no es segura en entornos multihilo, dado que solo un hilo puede
+ * tener prestada la conexión en un momento dado.
+ *
+ * @author Neirth Sergio Martínez
+ */
+public class SharedConnection {
+    private final Connection connection;
+    private volatile long lastReleased = System.currentTimeMillis();
+
+    // Información del préstamo en curso.
+    private volatile long leaseStart = 0;
+    private volatile PoolMetrics leaseMetrics = null;
+    private volatile Throwable leaseStack = null;
+    private volatile boolean leakReported = false;
+
+    private UsersMgt usersMgt = null;
+    private SalesMgt salesMgt = null;
+    private RefundsMgt refundsMgt = null;
+    private ProductsMgt productsMgt = null;
+    private DiscountsMgt discountsMgt = null;
+    private InformsMgt informsMgt = null;
+    private PicturesMgt picturesMgt = null;
+
+    /**
+     * Constructor que envuelve una conexión física con la base de datos.
+     *
+     * @param connection La conexión física con la base de datos.
+     */
+    SharedConnection(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Getter para obtener el gestor de usuarios asociado a esta conexión.
+     *
+     * @return El gestor de usuarios.
+     * @throws SQLException Excepción al preparar las consultas.
+     */
+    public UsersMgt getUsers() throws SQLException {
+        if (usersMgt == null)
+            usersMgt = new UsersMgt(connection, getPictures());
+
+        return usersMgt;
+    }
+
+    /**
+     * Getter para obtener el gestor de ventas asociado a esta conexión.
+     *
+     * @return El gestor de ventas.
+     * @throws SQLException Excepción al preparar las consultas.
+     */
+    public SalesMgt getSales() throws SQLException {
+        if (salesMgt == null)
+            salesMgt = new SalesMgt(connection);
+
+        return salesMgt;
+    }
+
+    /**
+     * Getter para obtener el gestor de devoluciones asociado a esta conexión.
+     *
+     * @return El gestor de devoluciones.
+     * @throws SQLException Excepción al preparar las consultas.
+     */
+    public RefundsMgt getRefunds() throws SQLException {
+        if (refundsMgt == null)
+            refundsMgt = new RefundsMgt(connection);
+
+        return refundsMgt;
+    }
+
+    /**
+     * Getter para obtener el gestor de productos asociado a esta conexión.
+     *
+     * @return El gestor de productos.
+     * @throws SQLException Excepción al preparar las consultas.
+     */
+    public ProductsMgt getProducts() throws SQLException {
+        if (productsMgt == null)
+            productsMgt = new ProductsMgt(connection, getPictures());
+
+        return productsMgt;
+    }
+
+    /**
+     * Getter para obtener el gestor de descuentos asociado a esta conexión.
+     *
+     * @return El gestor de descuentos.
+     * @throws SQLException Excepción al preparar las consultas.
+     */
+    public DiscountsMgt getDiscounts() throws SQLException {
+        if (discountsMgt == null)
+            discountsMgt = new DiscountsMgt(connection);
+
+        return discountsMgt;
+    }
+
+    /**
+     * Getter para obtener el gestor de informes asociado a esta conexión.
+     *
+     * @return El gestor de informes.
+     * @throws SQLException Excepción al preparar las consultas.
+     */
+    public InformsMgt getInforms() throws SQLException {
+        if (informsMgt == null)
+            informsMgt = new InformsMgt(connection);
+
+        return informsMgt;
+    }
+
+    /**
+     * Getter para obtener el gestor del almacén de imagenes asociado a esta
+     * conexión.
+     *
+     * @return El gestor del almacén de imagenes.
+     * @throws SQLException Excepción al preparar las consultas.
+     */
+    public PicturesMgt getPictures() throws SQLException {
+        if (picturesMgt == null)
+            picturesMgt = new PicturesMgt(connection);
+
+        return picturesMgt;
+    }
+
+    /**
+     * Getter para obtener el instante, en milisegundos, en el que la conexión se
+     * devolvió por última vez al grupo de conexiones.
+     *
+     * @return El instante de la última devolución.
+     */
+    long getLastReleased() {
+        return lastReleased;
+    }
+
+    /**
+     * Método para marcar la conexión como devuelta al grupo en este instante.
+     */
+    void markReleased() {
+        lastReleased = System.currentTimeMillis();
+    }
+
+    /**
+     * Método para registrar el inicio de un préstamo de la conexión.
+     *
+     * @param metrics Las métricas del tipo de gestor que la ha solicitado.
+     * @param stack   La pila de llamadas del préstamo, o null si no se registra.
+     */
+    void startLease(PoolMetrics metrics, Throwable stack) {
+        leaseStart = System.nanoTime();
+        leaseMetrics = metrics;
+        leaseStack = stack;
+        leakReported = false;
+    }
+
+    /**
+     * Método para registrar el final del préstamo en curso.
+     *
+     * @return El tiempo que se ha retenido la conexión, en nanosegundos.
+     */
+    long endLease() {
+        long held = System.nanoTime() - leaseStart;
+
+        leaseMetrics = null;
+        leaseStack = null;
+
+        return held;
+    }
+
+    long getLeaseStart() {
+        return leaseStart;
+    }
+
+    PoolMetrics getLeaseMetrics() {
+        return leaseMetrics;
+    }
+
+    Throwable getLeaseStack() {
+        return leaseStack;
+    }
+
+    boolean isLeakReported() {
+        return leakReported;
+    }
+
+    void setLeakReported(boolean leakReported) {
+        this.leakReported = leakReported;
+    }
+
+    /**
+     * Método para cerrar la conexión física, junto con las consultas preparadas
+     * de los gestores que se hayan creado sobre ella.
+     *
+     * @throws SQLException Excepción al cerrar la conexión.
+     */
+    void close() throws SQLException {
+        connection.close();
+    }
+
+    /**
+     * Getter para obtener la conexión física envuelta por esta clase.
+     *
+     * @return La conexión con la base de datos.
+     */
+    Connection getConnection() {
+        return connection;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Managers;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import io.Mauzo.Server.ServerApp;
+import io.Mauzo.Server.ServerUtils;
+
+/**
+ * Clase que mantiene en memoria la versión de cada tabla de la base de datos,
+ * usada para construir las ETag de los listados.
+ * 
+ * La tabla TableVersions guarda un contador por tabla, que los triggers de la
+ * base de datos incrementan con cada INSERT, UPDATE, DELETE o TRUNCATE, venga
+ * de las clases gestoras de cualquier nodo o de fuera del servidor, y notifican
+ * por el canal mauzo_versions. Se escuchan las notificaciones con LISTEN, igual
+ * que el directorio de usuarios, por lo que consultar una versión no necesita
+ * ninguna conexión del grupo.
+ * 
+ * Las clases gestoras vuelven a leer las versiones tras cada escritura, asi
+ * el nodo que la ha realizado no depende de la notificación para reflejarla.
+ * 
+ * Si se pierde la conexión de escucha, las versiones dejan de estar
+ * disponibles, y los listados se responden sin ETag, hasta que se reconecta y
+ * se recargan por completo, dado que se pueden haber perdido notificaciones.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class TableVersions {
+    public static final String PRODUCTS = "products";
+    public static final String DISCOUNTS = "discounts";
+    public static final String SALES = "sales";
+    public static final String REFUNDS = "refunds";
+    public static final String USERS = "users";
+
+    private static final String CHANNEL = "mauzo_versions";
+    private static final TableVersions versions = new TableVersions();
+
+    private final long pollTimeout;
+    private final long reconnectDelay;
+
+    private final Map<String, Long> versionsByTable = new ConcurrentHashMap<>();
+
+    private volatile boolean live = false;
+    private Thread listenerThread = null;
+
+    /**
+     * Constructor privado que carga la configuración de las versiones.
+     */
+    private TableVersions() {
+        Properties properties = ServerUtils.loadProperties();
+
+        pollTimeout = Long.valueOf(properties.getProperty("mauzo.versions.pollTimeout", "1000"));
+        reconnectDelay = Long.valueOf(properties.getProperty("mauzo.versions.reconnectDelay", "5000"));
+    }
+
+    /**
+     * Método para arrancar las versiones, el cual lanza el hilo que las carga y
+     * escucha las notificaciones de la base de datos.
+     * 
+     * Las siguientes invocaciones no realizan ninguna operación.
+     */
+    public synchronized void start() {
+        if (listenerThread != null)
+            return;
+
+        listenerThread = new Thread(this::listen, "mauzo-versions-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+    }
+
+    /**
+     * Método para obtener la versión actual de una tabla.
+     * 
+     * @param table El nombre de la tabla, en minúsculas.
+     * @return La versión, o -1 si las versiones no están al día.
+     */
+    public long get(String table) {
+        final Long version = versionsByTable.get(table);
+
+        return (live && version != null) ? version : -1;
+    }
+
+    /**
+     * Método para saber si las versiones están al día, es decir, si se han
+     * cargado y se siguen escuchando las notificaciones de la base de datos.
+     * 
+     * @return Verdadero si las versiones están al día.
+     */
+    public boolean isLive() {
+        return live;
+    }
+
+    /**
+     * Método privado que ejecuta el hilo de escucha, reconectando y recargando
+     * las versiones cada vez que se pierde la conexión.
+     */
+    private void listen() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try (Connection conn = ServerApp.openConnection()) {
+                PGConnection pgConn = conn.unwrap(PGConnection.class);
+
+                // Escuchamos antes de cargar, asi no se pierde ningún cambio intermedio.
+                try (Statement st = conn.createStatement()) {
+                    st.execute("LISTEN " + CHANNEL + ";");
+                }
+
+                reload(conn);
+                live = true;
+
+                ServerApp.getLoggerSystem().info("Table versions loaded for " + versionsByTable.size() + " tables");
+
+                while (!Thread.currentThread().isInterrupted()) {
+                    PGNotification[] notifications = pgConn.getNotifications((int) pollTimeout);
+
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications)
+                            apply(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                ServerApp.getLoggerSystem().warn("Table versions listener disconnected, " + e.toString());
+            } finally {
+                live = false;
+            }
+
+            // Esperamos antes de reconectar.
+            try {
+                Thread.sleep(reconnectDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Método privado que carga por completo las versiones desde la base de datos.
+     * 
+     * @param conn La conexión con la base de datos.
+     * @throws SQLException Excepción en la consulta SQL.
+     */
+    private void reload(Connection conn) throws SQLException {
+        Map<String, Long> loaded = new ConcurrentHashMap<>();
+
+        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("SELECT tableName, version FROM TableVersions;")) {
+            while (rs.next())
+                loaded.put(rs.getString("tableName"), rs.getLong("version"));
+        }
+
+        // Reemplazamos las versiones, la base de datos puede haberse restaurado.
+        versionsByTable.keySet().retainAll(loaded.keySet());
+        versionsByTable.putAll(loaded);
+    }
+
+    /**
+     * Método para actualizar las versiones desde la base de datos justo después
+     * de una escritura de las clases gestoras, sin esperar a su notificación,
+     * de manera que el cliente que la ha realizado no reciba un 304 con el
+     * listado anterior.
+     * 
+     * Solo se consultan con la conexión en modo autocommit, dado que dentro de
+     * una transacción las versiones aun no se han confirmado. Si la consulta
+     * falla, la versión se actualizará al recibir la notificación.
+     * 
+     * @param conn La conexión con la que se ha realizado la escritura.
+     */
+    void refresh(Connection conn) {
+        try {
+            if (!conn.getAutoCommit())
+                return;
+
+            try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("SELECT tableName, version FROM TableVersions;")) {
+                while (rs.next())
+                    update(rs.getString("tableName"), rs.getLong("version"));
+            }
+        } catch (SQLException e) {
+            ServerApp.getLoggerSystem().warn("Table versions couldn't be refreshed, " + e.toString());
+        }
+    }
+
+    /**
+     * Método privado que aplica una notificación de cambio de una tabla.
+     * 
+     * @param payload El contenido de la notificación, tabla:versión.
+     */
+    private void apply(String payload) {
+        final int separator = payload.lastIndexOf(':');
+
+        try {
+            update(payload.substring(0, separator), Long.parseLong(payload.substring(separator + 1)));
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            ServerApp.getLoggerSystem().warn("Invalid table version notification: " + payload);
+        }
+    }
+
+    /**
+     * Método privado que actualiza la versión de una tabla, sin retroceder
+     * nunca, dado que las notificaciones pueden ser anteriores a la versión ya
+     * cargada o leida tras una escritura.
+     * 
+     * @param table   El nombre de la tabla.
+     * @param version La versión.
+     */
+    private void update(String table, long version) {
+        versionsByTable.merge(table, version, Math::max);
+    }
+
+    /**
+     * Getter para obtener la instancia de las versiones de las tablas.
+     * 
+     * @return Las versiones de las tablas.
+     */
+    public static TableVersions getVersions() {
+        return versions;
+    }
+}
@@ -23,15 +23,18 @@
  */
 package io.Mauzo.Server.Managers;
 
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Types;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
 
-import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Security.TokenCache;
 import io.Mauzo.Server.Templates.User;
 
 /**
@@ -46,13 +49,32 @@ import io.Mauzo.Server.Templates.User;
  * @author Neirth Sergio Martínez
  */
 public class UsersMgt implements ManagersIntf<User> {
+    /**
+     * Columnas pesadas o sensibles que solo se consultan si se solicitan
+     * expresamente.
+     */
+    public static final String PICTURE_COLUMN = "userPic";
+    public static final String PASSWORD_COLUMN = "password";
+
+    /**
+     * Columna con la referencia a la imagen en el almacén de imagenes.
+     */
+    public static final String PICTURE_HASH_COLUMN = "userPicHash";
+
+    private final Connection conn;
     // Dejamos preparadas las consultas
     private final PreparedStatement addQuery;
     private final PreparedStatement getIdQuery;
+    private final PreparedStatement getIdWithoutPictureQuery;
     private final PreparedStatement getNameQuery;
+    private final PreparedStatement getAuthQuery;
+    private final PreparedStatement getPictureHashQuery;
+    private final PreparedStatement writePictureQuery;
     private final PreparedStatement getListQuery;
     private final PreparedStatement modifyQuery;
     private final PreparedStatement deleteQuery;
+    private final PreparedStatement[] getListProjectionQueries = new PreparedStatement[8];
+    private final PicturesMgt pictures;
 
     /**
      * Constructor donde se obtiene una connexion y se prepara 
@@ -60,42 +82,63 @@ public class UsersMgt implements ManagersIntf<User> {
      * 
      * @throws SQLException Excepcion en la consulta SQL.
      */
-    UsersMgt(Connection conn) throws SQLException {  
+    UsersMgt(Connection conn, PicturesMgt pictures) throws SQLException {  
+        this.conn = conn;
+        this.pictures = pictures;
+
         // Dejamos las consultas preparadas
-        addQuery = conn.prepareStatement("INSERT INTO Users (firstname, lastname, username, email, password, isAdmin, userPic) VALUES (?, ?, ?, ?, ?, ?, ?);");
-        getIdQuery = conn.prepareStatement("SELECT * FROM Users WHERE id = ?;");
-        getNameQuery = conn.prepareStatement("SELECT * FROM Users WHERE username = ?;");
-        getListQuery = conn.prepareStatement("SELECT * FROM Users;");
-        modifyQuery = conn.prepareStatement("UPDATE Users SET firstname = ?, lastname = ?, username = ?, email = ?, password = ?, isAdmin = ?, userPic = ? WHERE id = ?;");
+        addQuery = conn.prepareStatement("INSERT INTO Users (firstname, lastname, username, email, password, isAdmin, userPicHash) VALUES (?, ?, ?, ?, ?, ?, ?);", Statement.RETURN_GENERATED_KEYS);
+        getIdQuery = conn.prepareStatement("SELECT Users.*, Pictures.data AS userPic FROM Users LEFT JOIN Pictures ON Pictures.hash = Users.userPicHash WHERE Users.id = ?;");
+        getIdWithoutPictureQuery = conn.prepareStatement("SELECT id, firstname, lastname, username, password, email, isAdmin, userPicHash FROM Users WHERE id = ?;");
+        getNameQuery = conn.prepareStatement("SELECT Users.*, Pictures.data AS userPic FROM Users LEFT JOIN Pictures ON Pictures.hash = Users.userPicHash WHERE Users.username = ?;");
+        getAuthQuery = conn.prepareStatement("SELECT id, isAdmin FROM Users WHERE id = ?;");
+        getPictureHashQuery = conn.prepareStatement("SELECT userPicHash FROM Users WHERE id = ?;");
+        writePictureQuery = conn.prepareStatement("UPDATE Users SET userPicHash = ? WHERE id = ?;");
+        getListQuery = conn.prepareStatement("SELECT Users.*, Pictures.data AS userPic FROM Users LEFT JOIN Pictures ON Pictures.hash = Users.userPicHash;");
+        modifyQuery = conn.prepareStatement("UPDATE Users SET firstname = ?, lastname = ?, username = ?, email = ?, password = ?, isAdmin = ?, userPicHash = ? WHERE id = ?;");
         deleteQuery = conn.prepareStatement("DELETE FROM Users WHERE id = ?;");
     }
 
     /**
      * Método para añadir usuarios a la base de datos.
      * 
+     * La imagen se guarda en el almacén de imagenes, si no estaba ya, en la misma
+     * transacción que el usuario.
+     * 
      * @param user El usuario encapsulado en un objeto.
      * @throws SQLException Excepcion en la consulta SQL.
+     * @throws ManagerErrorException Excepcion de la clase gestora.
      */
     @Override
-    public void add(User user) throws SQLException {
-        // Asociamos los valores respecto a la sentencia sql.
-        addQuery.setString(1, user.getFirstName());
-        
-        addQuery.setString(2, user.getLastName());
-        addQuery.setString(3, user.getUsername());
-        addQuery.setString(4, user.getEmail());
-        addQuery.setString(5, user.getPassword());
-        addQuery.setBoolean(6, user.isAdmin());
-
-        // Este es un posible valor nulo.
-        if(user.getUserPic() != null) {
-            addQuery.setBytes(7, ServerUtils.imageToByteArray(user.getUserPic(), "png"));
-        } else {
-            addQuery.setNull(7, Types.BINARY);
-        }
+    public void add(User user) throws SQLException, ManagerErrorException {
+        pictures.inTransaction(() -> {
+            // Guardamos la imagen en el almacén.
+            final String pictureHash = pictures.put(user.getUserPic(), null);
 
-        // Ejecutamos la sentencia sql.
-        addQuery.execute();
+            // Asociamos los valores respecto a la sentencia sql.
+            addQuery.setString(1, user.getFirstName());
+
+            addQuery.setString(2, user.getLastName());
+            addQuery.setString(3, user.getUsername());
+            addQuery.setString(4, user.getEmail());
+            addQuery.setString(5, user.getPassword());
+            addQuery.setBoolean(6, user.isAdmin());
+            addQuery.setString(7, pictureHash);
+
+            // Ejecutamos la sentencia sql.
+            addQuery.execute();
+
+            // Asignamos al usuario el id generado por la base de datos.
+            try (ResultSet keys = addQuery.getGeneratedKeys()) {
+                if (keys.next())
+                    user.setId(keys.getInt("id"));
+            }
+
+            user.setUserPicHash(pictureHash);
+        });
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(conn);
     }
 
     /**
@@ -127,7 +170,8 @@ public class UsersMgt implements ManagersIntf<User> {
                 user.setLastName(rs.getString("lastname"));
                 user.setPassword(rs.getString("password"));
                 user.setUsername(rs.getString("username"));
-                user.setUserPic(ServerUtils.imageFromByteArray(rs.getBytes("userPic")));
+                user.setUserPic(rs.getBytes("userPic"));
+                user.setUserPicHash(rs.getString("userPicHash"));
             } else { 
                 throw new ManagerErrorException("No se ha encontrado el usuario");
             }
@@ -136,6 +180,27 @@ public class UsersMgt implements ManagersIntf<User> {
         return user;
     }
 
+    /**
+     * Método para obtener en forma de objeto el usuario, a partir de un id de
+     * usuario, sin cargar su imagen, solo la referencia a ella, para modificarlo
+     * sin leer la imagen del almacén.
+     * 
+     * @param id El id de usuario.
+     * @return El usuario encapsulado en forma de objeto, sin imagen.
+     * @throws SQLException Excepcion en la consulta SQL.
+     * @throws ManagerErrorException Excepcion dada al no encontrar el usuario solicitado.
+     */
+    public User getWithoutPicture(int id) throws SQLException, ManagerErrorException {
+        getIdWithoutPictureQuery.setInt(1, id);
+
+        try (ResultSet rs = getIdWithoutPictureQuery.executeQuery()) {
+            if (!rs.next())
+                throw new ManagerErrorException("No se ha encontrado el usuario");
+
+            return toUser(rs, false, true);
+        }
+    }
+
     /**
      * Método para obtener en forma de objeto el usuario, a partir de un nombre de
      * usuario, el usuario encapsulado.
@@ -164,7 +229,8 @@ public class UsersMgt implements ManagersIntf<User> {
                 user.setLastName(rs.getString("lastname"));
                 user.setPassword(rs.getString("password"));
                 user.setUsername(rs.getString("username"));
-                user.setUserPic(ServerUtils.imageFromByteArray(rs.getBytes("userPic")));
+                user.setUserPic(rs.getBytes("userPic"));
+                user.setUserPicHash(rs.getString("userPicHash"));
             } else {
                 throw new ManagerErrorException("No se ha encontrado el usuario");
             }
@@ -173,6 +239,93 @@ public class UsersMgt implements ManagersIntf<User> {
         return user;
     }
 
+    /**
+     * Método para obtener los datos necesarios para verificar el token de inicio
+     * de sesión de un usuario, a partir de su id.
+     * 
+     * Solo se consultan el id y si es administrador, de manera que no se lee la
+     * imagen del usuario en cada verificación.
+     * 
+     * @param id El id de usuario.
+     * @return El usuario encapsulado, solo con el id y si es administrador.
+     * @throws SQLException Excepcion en la consulta SQL.
+     * @throws ManagerErrorException Excepcion dada al no encontrar el usuario solicitado.
+     */
+    public User getAuth(int id) throws SQLException, ManagerErrorException {
+        // Preparamos una instancia del objeto a devolver
+        User user = null;
+
+        // Asociamos los valores respecto a la sentencia sql.
+        getAuthQuery.setInt(1, id);
+
+        // Ejecutamos la sentencia sql y recuperamos lo que nos ha retornado.
+        try (ResultSet rs = getAuthQuery.executeQuery()) {
+            if (rs.next()) {
+                user = new User();
+
+                user.setId(rs.getInt("id"));
+                user.setAdmin(rs.getBoolean("isAdmin"));
+            } else {
+                throw new ManagerErrorException("No se ha encontrado el usuario");
+            }
+        }
+
+        return user;
+    }
+
+    /**
+     * Método para obtener el hash con el que se referencia la imagen de un
+     * usuario en el almacén de imagenes.
+     * 
+     * @param id El id de usuario.
+     * @return El hash de la imagen, o null si no tiene imagen.
+     * @throws SQLException Excepcion en la consulta SQL.
+     * @throws ManagerErrorException Excepcion dada al no encontrar el usuario solicitado.
+     */
+    public String getPictureHash(int id) throws SQLException, ManagerErrorException {
+        // Asociamos los valores respecto a la sentencia sql.
+        getPictureHashQuery.setInt(1, id);
+
+        // Ejecutamos la sentencia sql y recuperamos lo que nos ha retornado.
+        try (ResultSet rs = getPictureHashQuery.executeQuery()) {
+            if (!rs.next())
+                throw new ManagerErrorException("No se ha encontrado el usuario");
+
+            return rs.getString("userPicHash");
+        }
+    }
+
+    /**
+     * Método para reemplazar la imagen del usuario a partir de un stream de tamaño
+     * conocido, sin cargarla entera en memoria.
+     *
+     * @param id     El id del usuario.
+     * @param in     El stream con la imagen.
+     * @param length El tamaño de la imagen.
+     * @param hash   El hash SHA-256 de la imagen, calculado al leerla.
+     * @return El hash de la imagen en el almacén de imagenes.
+     * @throws SQLException Excepcion en la consulta SQL.
+     * @throws ManagerErrorException Excepcion dada al no encontrar el usuario solicitado.
+     */
+    public String writePicture(int id, InputStream in, long length, String hash) throws SQLException, ManagerErrorException {
+        final String[] pictureHash = new String[1];
+
+        pictures.inTransaction(() -> {
+            pictureHash[0] = pictures.put(in, length, hash);
+
+            writePictureQuery.setString(1, pictureHash[0]);
+            writePictureQuery.setInt(2, id);
+
+            if (writePictureQuery.executeUpdate() == 0)
+                throw new ManagerErrorException("No se ha encontrado el usuario");
+        });
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(conn);
+
+        return pictureHash[0];
+    }
+
     /**
      * Método para obtener en forma de lista de usuarios, los usuarios presentes
      * en la base de datos.
@@ -199,7 +352,8 @@ public class UsersMgt implements ManagersIntf<User> {
                 user.setLastName(rs.getString("lastname"));
                 user.setPassword(rs.getString("password"));
                 user.setUsername(rs.getString("username"));
-                user.setUserPic(ServerUtils.imageFromByteArray(rs.getBytes("userPic")));
+                user.setUserPic(rs.getBytes("userPic"));
+                user.setUserPicHash(rs.getString("userPicHash"));
 
                 usersList.add(user);
             }
@@ -208,6 +362,159 @@ public class UsersMgt implements ManagersIntf<User> {
         return usersList;
     }
 
+    /**
+     * Método para obtener en forma de lista de usuarios, los usuarios presentes
+     * en la base de datos, consultando solo las columnas necesarias.
+     * 
+     * Las columnas ligeras y la referencia a la imagen se consultan siempre,
+     * mientras que la imagen y la contraseña solo se consultan si el conjunto de columnas contiene
+     * PICTURE_COLUMN o PASSWORD_COLUMN respectivamente.
+     * 
+     * @param columns Las columnas solicitadas.
+     * @return El listado de usuarios.
+     * @throws SQLException Excepcion en la consulta SQL.
+     */
+    public List<User> getList(Set<String> columns) throws SQLException {
+        final boolean withPicture = columns.contains(PICTURE_COLUMN);
+        final boolean withPassword = columns.contains(PASSWORD_COLUMN);
+
+        // Preparamos una instancia del objeto a devolver
+        List<User> usersList = null;
+
+        // Lanzamos la consulta SQL y generamos la lista de usuarios.
+        try(ResultSet rs = getListQuery(columns).executeQuery()) {
+            usersList = new ArrayList<>();
+
+            while (rs.next())
+                usersList.add(toUser(rs, withPicture, withPassword));
+        }
+
+        return usersList;
+    }
+
+    /**
+     * Método para obtener los usuarios presentes en la base de datos como un
+     * Stream, leyendolos mediante un cursor a medida que se recorre.
+     * 
+     * @return El Stream de usuarios, que se debe cerrar al terminar.
+     * @throws SQLException Excepcion en la consulta SQL.
+     */
+    @Override
+    public Stream<User> stream() throws SQLException {
+        return ResultSetStream.open(getListQuery, (rs) -> toUser(rs, true, true));
+    }
+
+    /**
+     * Método para obtener los usuarios presentes en la base de datos como un
+     * Stream, consultando solo las columnas necesarias al igual que getList.
+     * 
+     * @param columns Las columnas solicitadas.
+     * @return El Stream de usuarios, que se debe cerrar al terminar.
+     * @throws SQLException Excepcion en la consulta SQL.
+     */
+    public Stream<User> stream(Set<String> columns) throws SQLException {
+        final boolean withPicture = columns.contains(PICTURE_COLUMN);
+        final boolean withPassword = columns.contains(PASSWORD_COLUMN);
+
+        return ResultSetStream.open(getListQuery(columns), (rs) -> toUser(rs, withPicture, withPassword));
+    }
+
+    /**
+     * Método para obtener una página de usuarios, los de id mayor que after en
+     * orden de id, mediante el indice de la clave primaria y consultando solo las
+     * columnas necesarias al igual que getList.
+     * 
+     * @param columns Las columnas solicitadas.
+     * @param after   El id del último usuario de la página anterior, o 0.
+     * @param limit   El número máximo de usuarios a obtener.
+     * @return La página de usuarios.
+     * @throws SQLException Excepcion en la consulta SQL.
+     */
+    public List<User> getPage(Set<String> columns, int after, int limit) throws SQLException {
+        final boolean withPicture = columns.contains(PICTURE_COLUMN);
+        final boolean withPassword = columns.contains(PASSWORD_COLUMN);
+        final PreparedStatement query = getListQuery(columns, true);
+        List<User> usersList = new ArrayList<>();
+
+        // Asociamos los valores respecto a la sentencia sql.
+        query.setInt(1, after);
+        query.setInt(2, limit);
+
+        // Lanzamos la consulta SQL y generamos la página de usuarios.
+        try(ResultSet rs = query.executeQuery()) {
+            while (rs.next())
+                usersList.add(toUser(rs, withPicture, withPassword));
+        }
+
+        return usersList;
+    }
+
+    /**
+     * Método privado para obtener la consulta del listado con las columnas
+     * solicitadas, preparandola la primera vez que se usa.
+     * 
+     * @param columns Las columnas solicitadas.
+     * @return La consulta preparada.
+     * @throws SQLException Excepcion en la consulta SQL.
+     */
+    private PreparedStatement getListQuery(Set<String> columns) throws SQLException {
+        return getListQuery(columns, false);
+    }
+
+    /**
+     * Método privado para obtener la consulta del listado con las columnas
+     * solicitadas, completo o por páginas, preparandola la primera vez que se usa.
+     * 
+     * @param columns Las columnas solicitadas.
+     * @param paged   Si la consulta obtiene una página a partir de un id.
+     * @return La consulta preparada.
+     * @throws SQLException Excepcion en la consulta SQL.
+     */
+    private PreparedStatement getListQuery(Set<String> columns, boolean paged) throws SQLException {
+        final boolean withPicture = columns.contains(PICTURE_COLUMN);
+        final boolean withPassword = columns.contains(PASSWORD_COLUMN);
+        final int projection = (withPicture ? 1 : 0) | (withPassword ? 2 : 0) | (paged ? 4 : 0);
+
+        // Preparamos la consulta de esta proyección la primera vez que se usa.
+        if (getListProjectionQueries[projection] == null) {
+            getListProjectionQueries[projection] = conn.prepareStatement("SELECT Users.id, firstname, lastname, username, email, isAdmin, userPicHash"
+                    + (withPassword ? ", password" : "") + (withPicture ? ", Pictures.data AS userPic FROM Users LEFT JOIN Pictures ON Pictures.hash = Users.userPicHash" : " FROM Users")
+                    + (paged ? " WHERE Users.id > ? ORDER BY Users.id LIMIT ?;" : ";"));
+        }
+
+        return getListProjectionQueries[projection];
+    }
+
+    /**
+     * Método privado para construir un usuario a partir de la fila actual de un
+     * ResultSet del listado.
+     * 
+     * @param rs           El ResultSet posicionado en la fila.
+     * @param withPicture  Si la consulta incluye la imagen.
+     * @param withPassword Si la consulta incluye la contraseña.
+     * @return El usuario.
+     * @throws SQLException Excepcion en la consulta SQL.
+     */
+    private User toUser(ResultSet rs, boolean withPicture, boolean withPassword) throws SQLException {
+        User user = new User();
+
+        user.setId(rs.getInt("id"));
+        user.setAdmin(rs.getBoolean("isAdmin"));
+        user.setEmail(rs.getString("email"));
+        user.setFirstName(rs.getString("firstname"));
+        user.setLastName(rs.getString("lastname"));
+        user.setUsername(rs.getString("username"));
+        user.setUserPicHash(rs.getString("userPicHash"));
+
+        if (withPassword)
+            user.setPassword(rs.getString("password"));
+
+        if (withPicture)
+            user.setUserPic(rs.getBytes("userPic"));
+
+        return user;
+    }
+
     /**
      * Método para actualizar el usuario en la base de datos.
      * 
@@ -217,26 +524,32 @@ public class UsersMgt implements ManagersIntf<User> {
      */
     @Override
     public void modify(User user) throws SQLException, ManagerErrorException {
-        // Asociamos los valores respecto a la sentencia sql.
-        modifyQuery.setString(1, user.getFirstName());
-        modifyQuery.setString(2, user.getLastName());
-        modifyQuery.setString(3, user.getUsername());
-        modifyQuery.setString(4, user.getEmail());
-        modifyQuery.setString(5, user.getPassword());
-        modifyQuery.setBoolean(6, user.isAdmin());
-        
-        // Este es un posible valor nulo.
-        if(user.getUserPic() != null) {
-            modifyQuery.setBytes(7, ServerUtils.imageToByteArray(user.getUserPic(), "png"));
-        } else {
-            modifyQuery.setNull(7, Types.BINARY);
-        }
+        pictures.inTransaction(() -> {
+            // Guardamos la imagen en el almacén, si ha cambiado.
+            final String pictureHash = (user.getUserPic() != null) ? pictures.put(user.getUserPic(), user.getUserPicHash()) : user.getUserPicHash();
 
-        modifyQuery.setInt(8, user.getId());
+            // Asociamos los valores respecto a la sentencia sql.
+            modifyQuery.setString(1, user.getFirstName());
+            modifyQuery.setString(2, user.getLastName());
+            modifyQuery.setString(3, user.getUsername());
+            modifyQuery.setString(4, user.getEmail());
+            modifyQuery.setString(5, user.getPassword());
+            modifyQuery.setBoolean(6, user.isAdmin());
+            modifyQuery.setString(7, pictureHash);
+            modifyQuery.setInt(8, user.getId());
 
-        // Ejecutamos la sentencia sql.
-        if(modifyQuery.executeUpdate() == 0) 
-            throw new ManagerErrorException("No se ha encontrado el usuario durante la actualización del mismo.");
+            // Ejecutamos la sentencia sql.
+            if(modifyQuery.executeUpdate() == 0)
+                throw new ManagerErrorException("No se ha encontrado el usuario durante la actualización del mismo.");
+
+            user.setUserPicHash(pictureHash);
+        });
+
+        // Los tokens verificados del usuario ya no reflejan sus datos.
+        TokenCache.getCache().invalidateUser(user.getId());
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(conn);
     }
     
     /**
@@ -254,5 +567,11 @@ public class UsersMgt implements ManagersIntf<User> {
         // Ejecutamos la sentencia sql.
         if(deleteQuery.executeUpdate() == 0) 
             throw new ManagerErrorException("No se ha encontrado el usuario durante la eliminación del mismo.");
+
+        // Los tokens verificados del usuario ya no son validos.
+        TokenCache.getCache().invalidateUser(user.getId());
+
+        // Actualizamos la versión de la tabla para que los listados reflejen el cambio.
+        TableVersions.getVersions().refresh(conn);
     }
 }
\ No newline at end of file
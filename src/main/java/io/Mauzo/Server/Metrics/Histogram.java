@@ -0,0 +1,116 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de bajo coste para registrar duraciones desde varios hilos.
+ * 
+ * Los valores se agrupan en cubos de potencias de dos, por lo que registrar un
+ * valor solo supone incrementar un par de contadores sin bloqueos. Los
+ * percentiles que devuelve son aproximados, con el limite superior del cubo en
+ * el que caen, lo cual es suficiente para vigilar tiempos de espera.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class Histogram {
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /**
+     * Método para registrar un nuevo valor en el histograma.
+     * 
+     * @param value El valor a registrar, los negativos se registran como cero.
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+
+        buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Getter para obtener el número de valores registrados.
+     * 
+     * @return El número de valores.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Getter para obtener el valor máximo registrado.
+     * 
+     * @return El valor máximo.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Getter para obtener la media de los valores registrados.
+     * 
+     * @return La media, o cero si no hay valores.
+     */
+    public double getMean() {
+        long total = count.sum();
+
+        return (total == 0) ? 0 : (double) sum.sum() / total;
+    }
+
+    /**
+     * Getter para obtener el percentil aproximado de los valores registrados.
+     * 
+     * @param percentile El percentil, entre 0 y 100.
+     * @return El limite superior del cubo en el que cae el percentil.
+     */
+    public long getPercentile(double percentile) {
+        long total = count.sum();
+        long target = (long) Math.ceil(total * percentile / 100.0);
+        long accumulated = 0;
+
+        for (int i = 0; i < BUCKETS && total != 0; i++) {
+            accumulated += buckets[i].sum();
+
+            // El cubo i contiene los valores menores que 2^i.
+            if (accumulated >= target)
+                return Math.min((i == 0) ? 0 : (1L << i) - 1, getMax());
+        }
+
+        return getMax();
+    }
+}
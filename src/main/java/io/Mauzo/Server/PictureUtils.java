@@ -0,0 +1,397 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server;
+
+// Paquetes del framework estandar de java.
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Paquetes del framework extendido de java.
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import io.Mauzo.Server.Managers.Connections.PoolTimeoutException;
+import io.Mauzo.Server.Templates.PictureInfo;
+
+/**
+ * Clase de utilidades para servir las imagenes de productos y usuarios como
+ * contenido binario.
+ * 
+ * Las respuestas llevan el tipo de contenido de la imagen, un ETag fuerte
+ * calculado a partir del hash de su contenido, y admiten peticiones
+ * condicionales con If-None-Match y peticiones parciales con Range, de manera
+ * que los clientes pueden guardar las imagenes en su cache HTTP.
+ * 
+ * @author Neirth Sergio Martinez
+ */
+public class PictureUtils {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final long[] UNSATISFIABLE = new long[0];
+    private static final int IMMUTABLE_MAX_AGE = 31536000;
+    private static final int CHUNK_SIZE = Integer.valueOf(ServerUtils.loadProperties().getProperty("mauzo.pictures.chunkSize", "65536"));
+
+    private PictureUtils() {
+    }
+
+    /**
+     * Interfaz funcional que escribe un rango de una imagen en un stream de
+     * salida, permitiendo servir imagenes sin tenerlas enteras en memoria.
+     */
+    @FunctionalInterface
+    public interface PictureSource {
+        /**
+         * Método que escribe un rango de la imagen.
+         * 
+         * @param offset El primer byte a escribir.
+         * @param length El número de bytes a escribir.
+         * @param out    El stream de salida.
+         * @throws Exception Excepción al leer o escribir la imagen.
+         */
+        void write(long offset, long length, OutputStream out) throws Exception;
+    }
+
+    /**
+     * Método para construir la respuesta con una imagen ya cargada en memoria,
+     * teniendo en cuenta las cabeceras If-None-Match, Range e If-Range de la
+     * petición.
+     * 
+     * @author Neirth Sergio Martinez
+     * 
+     * @param req       La petición HTTP.
+     * @param picture   La imagen tal cual se guarda en la base de datos.
+     * @param immutable Si la URL de la imagen identifica siempre el mismo contenido.
+     * @return La respuesta preconstruida.
+     */
+    public static ResponseBuilder pictureResponse(HttpServletRequest req, byte[] picture, boolean immutable) {
+        // Si no hay imagen, no hay nada que servir.
+        if (picture == null)
+            return Response.status(Status.NOT_FOUND);
+
+        return pictureResponse(req, getInfo(picture), immutable, (offset, length, out) -> out.write(picture, (int) offset, (int) length));
+    }
+
+    /**
+     * Método para obtener los metadatos de una imagen ya cargada en memoria.
+     * 
+     * @param picture La imagen tal cual se guarda en la base de datos.
+     * @return Los metadatos de la imagen.
+     */
+    public static PictureInfo getInfo(byte[] picture) {
+        PictureInfo info = new PictureInfo();
+        info.setLength(picture.length);
+        info.setHash(getHash(picture));
+        info.setContentType(getContentType(picture));
+
+        return info;
+    }
+
+    /**
+     * Método para construir la respuesta con una imagen, teniendo en cuenta las
+     * cabeceras If-None-Match, Range e If-Range de la petición.
+     * 
+     * Si la imagen no existe se responde con un 404, si el cliente ya tiene la
+     * misma versión con un 304, si solicita un rango valido con un 206, si el
+     * rango no se puede satisfacer con un 416 y en el resto de casos con un 200.
+     * El contenido solo se lee de la fuente en el momento de escribir el cuerpo
+     * de la respuesta, y solo el rango solicitado.
+     * 
+     * Las imagenes servidas por su hash son inmutables, por lo que los clientes
+     * pueden guardarlas en su cache sin volver a validarlas.
+     * 
+     * @author Neirth Sergio Martinez
+     * 
+     * @param req       La petición HTTP.
+     * @param info      Los metadatos de la imagen, o null si no existe.
+     * @param immutable Si la URL de la imagen identifica siempre el mismo contenido.
+     * @param source    La fuente de la que leer el contenido de la imagen.
+     * @return La respuesta preconstruida.
+     */
+    public static ResponseBuilder pictureResponse(HttpServletRequest req, PictureInfo info, boolean immutable, PictureSource source) {
+        // Si no hay imagen, no hay nada que servir.
+        if (info == null)
+            return Response.status(Status.NOT_FOUND);
+
+        final EntityTag etag = new EntityTag(info.getHash());
+        final long total = info.getLength();
+
+        // Si el cliente ya tiene esta versión de la imagen, no la enviamos.
+        if (matchesEtag(req.getHeader(HttpHeaders.IF_NONE_MATCH), etag.getValue()))
+            return withCacheHeaders(Response.notModified(etag), immutable);
+
+        final String range = req.getHeader("Range");
+        final String ifRange = req.getHeader("If-Range");
+
+        // Solo atendemos el rango si la imagen no ha cambiado desde que se solicitó.
+        if (range != null && (ifRange == null || ifRange.trim().equals(etag.toString()))) {
+            final long[] bounds = parseRange(range, total);
+
+            if (bounds == UNSATISFIABLE) {
+                return withCacheHeaders(Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE), immutable)
+                        .header("Content-Range", "bytes */" + total).tag(etag);
+            }
+
+            if (bounds != null) {
+                final long length = bounds[1] - bounds[0] + 1;
+
+                return withCacheHeaders(Response.status(Status.PARTIAL_CONTENT).entity(toOutput(source, bounds[0], length)).type(info.getContentType()), immutable)
+                        .header("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + total)
+                        .header(HttpHeaders.CONTENT_LENGTH, length).tag(etag);
+            }
+        }
+
+        return withCacheHeaders(Response.ok(toOutput(source, 0, total), info.getContentType()), immutable)
+                .header(HttpHeaders.CONTENT_LENGTH, total).tag(etag);
+    }
+
+    /**
+     * Getter del tamaño de los fragmentos en los que se leen las imagenes de la
+     * base de datos al servirlas.
+     * 
+     * @return El tamaño de los fragmentos en bytes.
+     */
+    public static int getChunkSize() {
+        return CHUNK_SIZE;
+    }
+
+    /**
+     * Método para obtener el tipo de contenido de una imagen a partir de sus
+     * primeros bytes.
+     * 
+     * @author Neirth Sergio Martinez
+     * 
+     * @param picture La imagen en array de bytes.
+     * @return El tipo de contenido, o null si no es un formato soportado.
+     */
+    public static String getContentType(byte[] picture) {
+        if (picture == null || picture.length < 8)
+            return null;
+
+        // PNG: 89 50 4E 47 0D 0A 1A 0A
+        if ((picture[0] & 0xFF) == 0x89 && picture[1] == 'P' && picture[2] == 'N' && picture[3] == 'G'
+                && picture[4] == 0x0D && picture[5] == 0x0A && picture[6] == 0x1A && picture[7] == 0x0A)
+            return "image/png";
+
+        // JPEG: FF D8 FF
+        if ((picture[0] & 0xFF) == 0xFF && (picture[1] & 0xFF) == 0xD8 && (picture[2] & 0xFF) == 0xFF)
+            return "image/jpeg";
+
+        // GIF: GIF87a o GIF89a
+        if (picture[0] == 'G' && picture[1] == 'I' && picture[2] == 'F' && picture[3] == '8'
+                && (picture[4] == '7' || picture[4] == '9') && picture[5] == 'a')
+            return "image/gif";
+
+        // BMP: BM
+        if (picture[0] == 'B' && picture[1] == 'M')
+            return "image/bmp";
+
+        return null;
+    }
+
+    /**
+     * Método para calcular el hash SHA-256 del contenido de una imagen, con el que
+     * se identifica en el almacén de imagenes y que se usa como ETag de la misma.
+     * 
+     * @author Neirth Sergio Martinez
+     * 
+     * @param picture La imagen en array de bytes.
+     * @return El hash en hexadecimal.
+     */
+    public static String getHash(byte[] picture) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-256").digest(picture));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Método para convertir un hash a hexadecimal en minusculas, el mismo formato
+     * que usa la función encode() de PostgreSQL.
+     * 
+     * @author Neirth Sergio Martinez
+     * 
+     * @param digest El hash en array de bytes.
+     * @return El hash en hexadecimal.
+     */
+    public static String toHex(byte[] digest) {
+        final char[] hex = new char[digest.length * 2];
+
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+        }
+
+        return new String(hex);
+    }
+
+    /**
+     * Método para comprobar si un texto tiene el formato de un hash del almacén
+     * de imagenes.
+     * 
+     * @author Neirth Sergio Martinez
+     * 
+     * @param hash El texto a comprobar.
+     * @return Verdadero si es un hash SHA-256 en hexadecimal.
+     */
+    public static boolean isHash(String hash) {
+        return hash != null && hash.length() == 64 && hash.chars().allMatch((c) -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'));
+    }
+
+    /**
+     * Método que comprueba si la cabecera If-None-Match contiene el ETag
+     * indicado, usando la comparación débil que indica el RFC 7232.
+     * 
+     * @param header El valor de la cabecera If-None-Match.
+     * @param value  El valor del ETag, sin comillas.
+     * @return Verdadero si la cabecera contiene el ETag.
+     */
+    static boolean matchesEtag(String header, String value) {
+        if (header == null)
+            return false;
+
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+
+            if (candidate.equals("*"))
+                return true;
+
+            if (candidate.startsWith("W/"))
+                candidate = candidate.substring(2);
+
+            if (candidate.equals("\"" + value + "\""))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Método que interpreta una cabecera Range con un único rango de bytes.
+     * 
+     * @param header El valor de la cabecera Range.
+     * @param length El tamaño del contenido.
+     * @return El primer y último byte del rango, null si la cabecera se debe
+     *         ignorar o UNSATISFIABLE si el rango no se puede satisfacer.
+     */
+    static long[] parseRange(String header, long length) {
+        header = header.trim();
+
+        // Solo atendemos rangos de bytes, y uno solo a la vez.
+        if (!header.startsWith("bytes=") || header.indexOf(',') != -1)
+            return null;
+
+        final String spec = header.substring(6).trim();
+        final int dash = spec.indexOf('-');
+
+        if (dash == -1)
+            return null;
+
+        try {
+            final String first = spec.substring(0, dash).trim();
+            final String last = spec.substring(dash + 1).trim();
+
+            // Rango de sufijo: los ultimos n bytes.
+            if (first.isEmpty()) {
+                final long suffix = Long.parseLong(last);
+
+                return (suffix <= 0 || length == 0) ? UNSATISFIABLE : new long[] { Math.max(0, length - suffix), length - 1 };
+            }
+
+            final long start = Long.parseLong(first);
+            final long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+
+            if (end < start)
+                return null;
+
+            if (start >= length)
+                return UNSATISFIABLE;
+
+            return new long[] { start, Math.min(end, length - 1) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Método privado que adapta un rango de una fuente de imagen a la salida de
+     * la respuesta HTTP.
+     * 
+     * Si no hay conexiones libres para leer la imagen se responde con un 503, y
+     * cualquier otro error se propaga como una excepción de entrada y salida, lo
+     * que corta la conexión en vez de enviar una respuesta incompleta como si
+     * fuera valida.
+     * 
+     * @param source La fuente de la imagen.
+     * @param offset El primer byte a escribir.
+     * @param length El número de bytes a escribir.
+     * @return La salida de la respuesta.
+     */
+    private static StreamingOutput toOutput(PictureSource source, long offset, long length) {
+        return (out) -> {
+            try {
+                source.write(offset, length, out);
+            } catch (IOException | WebApplicationException e) {
+                throw e;
+            } catch (PoolTimeoutException e) {
+                throw new ServiceUnavailableException(e.getRetryAfter());
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        };
+    }
+
+    /**
+     * Método privado que añade las cabeceras de cache a la respuesta. Las
+     * imagenes solo se pueden guardar en caches privadas, dado que requieren
+     * haber iniciado sesión. Las que se sirven por su hash no caducan nunca, y el
+     * resto se revalidan siempre con su ETag.
+     * 
+     * @param response  La respuesta preconstruida.
+     * @param immutable Si la URL de la imagen identifica siempre el mismo contenido.
+     * @return La respuesta con las cabeceras de cache.
+     */
+    private static ResponseBuilder withCacheHeaders(ResponseBuilder response, boolean immutable) {
+        final CacheControl cacheControl = new CacheControl();
+        cacheControl.setPrivate(true);
+
+        if (immutable) {
+            cacheControl.setMaxAge(IMMUTABLE_MAX_AGE);
+            cacheControl.getCacheExtension().put("immutable", null);
+        } else {
+            cacheControl.setNoCache(true);
+        }
+
+        return response.cacheControl(cacheControl).header("Accept-Ranges", "bytes");
+    }
+}
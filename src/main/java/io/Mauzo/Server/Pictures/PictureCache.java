@@ -0,0 +1,294 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Pictures;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Templates.PictureInfo;
+
+/**
+ * Clase que guarda en memoria las imagenes más solicitadas, fuera del heap de
+ * la maquina virtual, en ByteBuffers directos.
+ * 
+ * Las entradas se identifican por el hash de la imagen en el almacén de
+ * imagenes y el tamaño de la miniatura, por lo que nunca hay que invalidarlas:
+ * si la imagen de un producto o usuario cambia, cambia su hash. Cuando la cache
+ * supera mauzo.pictures.cacheSize bytes se eliminan las entradas usadas hace más
+ * tiempo, y las imagenes de más de mauzo.pictures.cacheMaxEntry bytes no se
+ * guardan, se siguen leyendo por fragmentos de la base de datos.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class PictureCache {
+    private static final PictureCache cache = new PictureCache();
+
+    /**
+     * Interfaz funcional que escribe el contenido completo de una imagen en un
+     * stream, usada para cargar una entrada sin pasar la imagen entera por el
+     * heap.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        void write(OutputStream out) throws Exception;
+    }
+
+    /**
+     * Clase que representa una entrada de la cache, con los metadatos de la
+     * imagen y su contenido fuera del heap.
+     */
+    public static class Entry {
+        private final PictureInfo info;
+        private final ByteBuffer data;
+
+        private Entry(PictureInfo info, ByteBuffer data) {
+            this.info = info;
+            this.data = data;
+        }
+
+        public PictureInfo getInfo() {
+            return info;
+        }
+
+        /**
+         * Método para escribir un rango de la imagen en un stream. Cada escritura
+         * usa su propia vista del ByteBuffer, por lo que varias peticiones pueden
+         * leer la misma entrada a la vez.
+         * 
+         * @param offset El primer byte a escribir.
+         * @param length El número de bytes a escribir.
+         * @param out    El stream de salida.
+         * @throws IOException Excepción al escribir en el stream.
+         */
+        public void write(long offset, long length, OutputStream out) throws IOException {
+            final ByteBuffer slice = data.duplicate();
+            ((Buffer) slice).position((int) offset);
+            ((Buffer) slice).limit((int) (offset + length));
+
+            // El canal copia por bloques pequeños, sin copiar la imagen entera al heap.
+            final WritableByteChannel channel = Channels.newChannel(out);
+
+            while (slice.hasRemaining())
+                channel.write(slice);
+        }
+    }
+
+    private final long capacity;
+    private final int maxEntrySize;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes = 0;
+
+    // Métricas de la cache.
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructor privado que carga la configuración de la cache.
+     */
+    private PictureCache() {
+        Properties properties = ServerUtils.loadProperties();
+
+        capacity = Long.valueOf(properties.getProperty("mauzo.pictures.cacheSize", "67108864"));
+        maxEntrySize = (int) Math.min(capacity, Long.valueOf(properties.getProperty("mauzo.pictures.cacheMaxEntry", "2097152")));
+    }
+
+    /**
+     * Método para obtener la clave de una imagen o de una de sus miniaturas.
+     * 
+     * @param hash El hash de la imagen.
+     * @param size El tamaño de la miniatura, o null para la imagen original.
+     * @return La clave de la entrada.
+     */
+    public static String key(String hash, Integer size) {
+        return (size == null) ? hash : hash + "@" + size;
+    }
+
+    /**
+     * Método para obtener una entrada de la cache, marcandola como la usada más
+     * recientemente.
+     * 
+     * @param key La clave de la entrada.
+     * @return La entrada, o null si no está en la cache.
+     */
+    public Entry get(String key) {
+        Entry entry;
+
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+
+        if (entry != null)
+            hits.increment();
+        else
+            misses.increment();
+
+        return entry;
+    }
+
+    /**
+     * Método para comprobar si una imagen de un tamaño dado se puede guardar en la
+     * cache.
+     * 
+     * @param length El tamaño de la imagen en bytes.
+     * @return Verdadero si se puede guardar.
+     */
+    public boolean isCacheable(long length) {
+        return length > 0 && length <= maxEntrySize;
+    }
+
+    /**
+     * Método para guardar en la cache una imagen que ya se tiene en memoria.
+     * 
+     * @param key     La clave de la entrada.
+     * @param info    Los metadatos de la imagen.
+     * @param picture La imagen.
+     * @return La entrada guardada, o null si la imagen no se puede guardar.
+     */
+    public Entry put(String key, PictureInfo info, byte[] picture) {
+        if (!isCacheable(picture.length))
+            return null;
+
+        final ByteBuffer data = ByteBuffer.allocateDirect(picture.length);
+        data.put(picture);
+        ((Buffer) data).flip();
+
+        return store(key, new Entry(info, data));
+    }
+
+    /**
+     * Método para guardar en la cache una imagen escribiendola directamente en el
+     * ByteBuffer de la entrada.
+     * 
+     * @param key    La clave de la entrada.
+     * @param info   Los metadatos de la imagen.
+     * @param loader La fuente con el contenido de la imagen.
+     * @return La entrada guardada, o null si la imagen no se puede guardar.
+     * @throws Exception Excepción al leer la imagen.
+     */
+    public Entry load(String key, PictureInfo info, Loader loader) throws Exception {
+        if (!isCacheable(info.getLength()))
+            return null;
+
+        final ByteBuffer data = ByteBuffer.allocateDirect((int) info.getLength());
+
+        loader.write(new OutputStream() {
+            @Override
+            public void write(int b) {
+                data.put((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                data.put(b, off, len);
+            }
+        });
+
+        // Si no se ha leido la imagen entera, no la guardamos.
+        if (data.hasRemaining())
+            throw new IOException("La imagen " + info.getHash() + " es más corta de lo esperado");
+
+        ((Buffer) data).flip();
+
+        return store(key, new Entry(info, data));
+    }
+
+    /**
+     * Método privado que añade una entrada a la cache, eliminando las usadas hace
+     * más tiempo hasta que haya espacio. Si otra petición ya ha guardado la misma
+     * entrada, se mantiene la existente.
+     * 
+     * @param key   La clave de la entrada.
+     * @param entry La entrada.
+     * @return La entrada que queda en la cache.
+     */
+    private Entry store(String key, Entry entry) {
+        synchronized (entries) {
+            final Entry existing = entries.get(key);
+
+            if (existing != null)
+                return existing;
+
+            final Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+
+            while (usedBytes + entry.data.capacity() > capacity && iterator.hasNext()) {
+                usedBytes -= iterator.next().getValue().data.capacity();
+                iterator.remove();
+                evictions.increment();
+            }
+
+            entries.put(key, entry);
+            usedBytes += entry.data.capacity();
+        }
+
+        return entry;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int getEntries() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getUsedBytes() {
+        synchronized (entries) {
+            return usedBytes;
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Getter para obtener la instancia de la cache de imagenes.
+     * 
+     * @return La cache de imagenes.
+     */
+    public static PictureCache getCache() {
+        return cache;
+    }
+}
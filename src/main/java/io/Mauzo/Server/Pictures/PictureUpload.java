@@ -0,0 +1,256 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Pictures;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Properties;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.ws.rs.core.Response.Status;
+
+import io.Mauzo.Server.PictureUtils;
+import io.Mauzo.Server.ServerUtils;
+
+/**
+ * Clase que valida las imagenes subidas como contenido binario antes de
+ * guardarlas en la base de datos.
+ * 
+ * Solo se leen los primeros bytes de la petición, hasta
+ * mauzo.pictures.headerLimit, para comprobar el formato y las dimensiones de la
+ * imagen con las cabeceras que entienden los lectores de ImageIO, sin llegar a
+ * decodificarla, y despues se copian a un fichero temporal antes de ocupar una
+ * conexión con la base de datos, calculando a la vez su hash para guardarla
+ * directamente bajo su clave definitiva. Las imagenes que superan mauzo.pictures.maxUploadSize se
+ * rechazan a partir del Content-Length, sin leer nada del cuerpo. Las imagenes
+ * recibidas en Base64 pasan por las mismas comprobaciones.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class PictureUpload {
+    private static final Properties properties = ServerUtils.loadProperties();
+    private static final long maxUploadSize = Long.valueOf(properties.getProperty("mauzo.pictures.maxUploadSize", "5242880"));
+    private static final int headerLimit = Integer.valueOf(properties.getProperty("mauzo.pictures.headerLimit", "262144"));
+    private static final int maxWidth = Integer.valueOf(properties.getProperty("mauzo.pictures.maxWidth", "4096"));
+    private static final int maxHeight = Integer.valueOf(properties.getProperty("mauzo.pictures.maxHeight", "4096"));
+
+    /**
+     * Clase estatica para las imagenes que no se pueden aceptar, con el estado
+     * HTTP con el que se debe responder.
+     */
+    public static class PictureUploadException extends Exception {
+        private static final long serialVersionUID = 3270851462392518730L;
+
+        private final Status status;
+
+        public PictureUploadException(String msg, Status status) {
+            super(msg);
+
+            this.status = status;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * Clase estatica con la imagen ya copiada al fichero temporal, junto a su
+     * tamaño y su hash SHA-256. Al cerrarla se elimina el fichero temporal.
+     */
+    public static class SpooledPicture extends FilterInputStream {
+        private final long length;
+        private final String hash;
+
+        private SpooledPicture(InputStream in, long length, String hash) {
+            super(in);
+
+            this.length = length;
+            this.hash = hash;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+    }
+
+    private PictureUpload() {
+    }
+
+    /**
+     * Método para validar una imagen a partir de su cabecera, devolviendo un
+     * stream con la imagen completa listo para guardarlo en la base de datos.
+     * 
+     * La imagen se lee por completo del cliente a un fichero temporal antes de
+     * devolver el stream, de manera que la conexión con la base de datos solo
+     * se ocupa para guardarla. Mientras se copia se calcula el hash de la imagen,
+     * por lo que se puede guardar en el almacén sin volver a leerla. El stream se
+     * debe cerrar para eliminar el fichero temporal.
+     * 
+     * Se responde con un 411 si no se conoce el tamaño de la imagen, con un 413 si
+     * es demasiado grande en bytes o en dimensiones, con un 415 si no es un
+     * formato soportado y con un 400 si la cabecera está dañada.
+     * 
+     * @param body   El cuerpo de la petición.
+     * @param length El tamaño indicado en la cabecera Content-Length.
+     * @return La imagen completa, de tamaño length, junto a su hash.
+     * @throws PictureUploadException La imagen no se puede aceptar.
+     * @throws IOException Excepción al leer el cuerpo de la petición.
+     */
+    public static SpooledPicture open(InputStream body, long length) throws PictureUploadException, IOException {
+        if (length < 0)
+            throw new PictureUploadException("Se requiere la cabecera Content-Length", Status.LENGTH_REQUIRED);
+
+        if (length == 0)
+            throw new PictureUploadException("La imagen está vacia", Status.BAD_REQUEST);
+
+        // Rechazamos las imagenes demasiado grandes sin leer el cuerpo.
+        if (length > maxUploadSize)
+            throw new PictureUploadException("La imagen ocupa " + length + " bytes, el máximo es " + maxUploadSize, Status.REQUEST_ENTITY_TOO_LARGE);
+
+        // Calculamos el hash de la imagen a medida que la leemos del cliente.
+        final MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        final InputStream digesting = new DigestInputStream(body, digest);
+
+        // Leemos solo la cabecera de la imagen.
+        final byte[] header = new byte[(int) Math.min(headerLimit, length)];
+        int read = 0;
+
+        while (read < header.length) {
+            final int count = digesting.read(header, read, header.length - read);
+
+            if (count == -1)
+                throw new PictureUploadException("El cuerpo es más corto que el Content-Length", Status.BAD_REQUEST);
+
+            read += count;
+        }
+
+        validateHeader(header);
+
+        // Copiamos la imagen a un fichero temporal, asi un cliente lento no retiene ninguna conexión.
+        final Path spool = Files.createTempFile("mauzo-picture-", ".upload");
+
+        try {
+            try (OutputStream out = Files.newOutputStream(spool)) {
+                final byte[] buffer = new byte[8192];
+                long remaining = length - header.length;
+
+                out.write(header);
+
+                while (remaining > 0) {
+                    final int count = digesting.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+
+                    if (count == -1)
+                        throw new PictureUploadException("El cuerpo es más corto que el Content-Length", Status.BAD_REQUEST);
+
+                    out.write(buffer, 0, count);
+                    remaining -= count;
+                }
+            }
+
+            // El fichero temporal se elimina al cerrar el stream.
+            return new SpooledPicture(Files.newInputStream(spool, StandardOpenOption.DELETE_ON_CLOSE), length, PictureUtils.toHex(digest.digest()));
+        } catch (PictureUploadException | IOException | RuntimeException e) {
+            Files.deleteIfExists(spool);
+            throw e;
+        }
+    }
+
+    /**
+     * Método para validar una imagen ya leida por completo, como las recibidas
+     * en Base64 dentro del cuerpo Json, con los mismos limites de tamaño, formato
+     * y dimensiones que las subidas como contenido binario.
+     * 
+     * @param picture La imagen completa.
+     * @throws PictureUploadException La imagen no se puede aceptar.
+     */
+    public static void validate(byte[] picture) throws PictureUploadException {
+        if (picture.length == 0)
+            throw new PictureUploadException("La imagen está vacia", Status.BAD_REQUEST);
+
+        if (picture.length > maxUploadSize)
+            throw new PictureUploadException("La imagen ocupa " + picture.length + " bytes, el máximo es " + maxUploadSize, Status.REQUEST_ENTITY_TOO_LARGE);
+
+        validateHeader(picture);
+    }
+
+    /**
+     * Método privado que comprueba el formato y las dimensiones de una imagen a
+     * partir de su cabecera.
+     * 
+     * @param header Los primeros bytes de la imagen.
+     * @throws PictureUploadException La imagen no se puede aceptar.
+     */
+    private static void validateHeader(byte[] header) throws PictureUploadException {
+        if (PictureUtils.getContentType(header) == null)
+            throw new PictureUploadException("El formato de la imagen no está soportado", Status.UNSUPPORTED_MEDIA_TYPE);
+
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(header))) {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+
+            if (!readers.hasNext())
+                throw new PictureUploadException("No hay lector para el formato de la imagen", Status.UNSUPPORTED_MEDIA_TYPE);
+
+            final ImageReader reader = readers.next();
+
+            try {
+                reader.setInput(input, true, true);
+
+                final int width = reader.getWidth(0);
+                final int height = reader.getHeight(0);
+
+                if (width > maxWidth || height > maxHeight)
+                    throw new PictureUploadException("La imagen mide " + width + "x" + height + ", el máximo es " + maxWidth + "x" + maxHeight, Status.REQUEST_ENTITY_TOO_LARGE);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new PictureUploadException("No se ha podido leer la cabecera de la imagen: " + e.getMessage(), Status.BAD_REQUEST);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Pictures;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.imageio.ImageIO;
+
+import io.Mauzo.Server.PictureUtils;
+import io.Mauzo.Server.ServerApp;
+import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Managers.Connections;
+import io.Mauzo.Server.Managers.PicturesMgt;
+import io.Mauzo.Server.Metrics.Histogram;
+
+/**
+ * Clase que genera en segundo plano las variantes redimensionadas de las
+ * imagenes de productos y usuarios.
+ * 
+ * Cuando se sube una imagen, los controladores encolan un trabajo que la
+ * decodifica, genera una variante por cada tamaño configurado en
+ * mauzo.pictures.thumbnailSizes y las guarda en la base de datos junto a la
+ * original. Los trabajos se ejecutan en un grupo de hilos propio con una cola
+ * acotada, de manera que redimensionar nunca ocupa los hilos de las peticiones;
+ * si la cola está llena, el trabajo se descarta y se sirve la imagen original.
+ * 
+ * Las variantes pertenecen a la imagen del almacén de imagenes, no a su
+ * propietario, por lo que una imagen compartida solo se redimensiona una vez, y
+ * solo hay un trabajo encolado por imagen a la vez.
+ * 
+ * Se registran la profundidad de la cola y el tiempo de proceso de cada trabajo
+ * en microsegundos.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class ThumbnailService {
+    private static ThumbnailService service = null;
+
+    private final int[] sizes;
+    private final ThreadPoolExecutor executor;
+
+    // Imagenes con un trabajo encolado o en curso, para no repetirlos.
+    private final Set<String> pendingJobs = ConcurrentHashMap.newKeySet();
+
+    // Métricas de los trabajos.
+    private final Histogram processingTime = new Histogram();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Constructor privado que carga la configuración y prepara el grupo de hilos.
+     */
+    private ThumbnailService() {
+        Properties properties = ServerUtils.loadProperties();
+        int threads = Integer.valueOf(properties.getProperty("mauzo.pictures.thumbnailThreads", "1"));
+        int queueSize = Integer.valueOf(properties.getProperty("mauzo.pictures.thumbnailQueue", "100"));
+        AtomicInteger threadCount = new AtomicInteger(0);
+
+        sizes = Arrays.stream(properties.getProperty("mauzo.pictures.thumbnailSizes", "64,256").split(","))
+                .map(String::trim).filter((size) -> !size.isEmpty()).mapToInt(Integer::parseInt).sorted().distinct().toArray();
+
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), (runnable) -> {
+            Thread thread = new Thread(runnable, "mauzo-thumbnails-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+
+            return thread;
+        }, (runnable, pool) -> {
+            // Si la cola está llena descartamos el trabajo, se servirá la imagen original.
+            if (runnable instanceof Job)
+                pendingJobs.remove(((Job) runnable).hash);
+
+            rejected.increment();
+            ServerApp.getLoggerSystem().warn("Thumbnail queue is full, discarding job");
+        });
+    }
+
+    /**
+     * Método para encolar la generación de las variantes de una imagen del
+     * almacén de imagenes, que se lee en el hilo del trabajo.
+     * 
+     * Los trabajos encolados solo guardan el hash, asi la cola no retiene en
+     * memoria las imagenes subidas mientras esperan.
+     * 
+     * @param hash El hash de la imagen en el almacén de imagenes.
+     */
+    public void submit(String hash) {
+        if (hash != null)
+            enqueue(hash);
+    }
+
+    /**
+     * Método para comprobar si un tamaño es uno de los tamaños configurados.
+     * 
+     * @param size El tamaño.
+     * @return Verdadero si se generan variantes de ese tamaño.
+     */
+    public boolean isValidSize(int size) {
+        return Arrays.binarySearch(sizes, size) >= 0;
+    }
+
+    public int[] getSizes() {
+        return sizes.clone();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveJobs() {
+        return executor.getActiveCount();
+    }
+
+    public Histogram getProcessingTime() {
+        return processingTime;
+    }
+
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Método privado para encolar un trabajo, salvo que ya haya uno encolado o en
+     * curso para la misma imagen.
+     * 
+     * @param hash El hash de la imagen.
+     */
+    private void enqueue(String hash) {
+        if (sizes.length == 0 || !pendingJobs.add(hash))
+            return;
+
+        executor.execute(new Job(hash));
+    }
+
+    /**
+     * Método privado que ejecuta un trabajo, generando y guardando las variantes
+     * de la imagen.
+     * 
+     * @param hash El hash de la imagen.
+     */
+    private void process(String hash) {
+        final long startTime = System.nanoTime();
+
+        try {
+            // Si las variantes ya existen, o la imagen se ha eliminado, no hay nada que hacer.
+            final byte[] picture = load(hash);
+
+            if (picture == null)
+                return;
+
+            final BufferedImage image = ServerUtils.imageFromByteArray(picture);
+
+            if (image == null)
+                throw new IOException("No se ha podido decodificar la imagen " + hash);
+
+            final String format = "image/jpeg".equals(PictureUtils.getContentType(picture)) ? "jpeg" : "png";
+            final byte[][] variants = new byte[sizes.length][];
+
+            for (int i = 0; i < sizes.length; i++)
+                variants[i] = encode(resize(image, sizes[i], format.equals("png")), format);
+
+            store(hash, variants);
+            processed.increment();
+        } catch (Exception e) {
+            failed.increment();
+            ServerUtils.writeServerException(e);
+        } finally {
+            pendingJobs.remove(hash);
+            processingTime.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
+        }
+    }
+
+    /**
+     * Método privado para leer de la base de datos la imagen original de un
+     * trabajo.
+     * 
+     * @param hash El hash de la imagen.
+     * @return La imagen original, o null si ya tiene todas sus variantes o se ha
+     *         eliminado.
+     * @throws Exception Excepción en la base de datos.
+     */
+    private byte[] load(String hash) throws Exception {
+        PicturesMgt picturesMgt = Connections.getController().acquirePictures();
+
+        try {
+            if (picturesMgt.countVariants(hash) >= sizes.length)
+                return null;
+
+            return picturesMgt.get(hash);
+        } finally {
+            Connections.getController().releasePictures(picturesMgt);
+        }
+    }
+
+    /**
+     * Método privado para guardar las variantes generadas.
+     * 
+     * @param hash     El hash de la imagen.
+     * @param variants Las variantes, en el orden de los tamaños configurados.
+     * @throws Exception Excepción en la base de datos.
+     */
+    private void store(String hash, byte[][] variants) throws Exception {
+        PicturesMgt picturesMgt = Connections.getController().acquirePictures();
+
+        try {
+            for (int i = 0; i < sizes.length; i++)
+                picturesMgt.putVariant(hash, sizes[i], variants[i]);
+        } finally {
+            Connections.getController().releasePictures(picturesMgt);
+        }
+    }
+
+    /**
+     * Método privado para redimensionar una imagen de manera que su lado mayor
+     * mida como mucho el tamaño indicado, reduciendo a la mitad en cada paso para
+     * mantener la calidad en reducciones grandes.
+     * 
+     * @param image     La imagen original.
+     * @param size      El tamaño del lado mayor.
+     * @param withAlpha Si se conserva el canal de transparencia.
+     * @return La imagen redimensionada.
+     */
+    private static BufferedImage resize(BufferedImage image, int size, boolean withAlpha) {
+        final int type = withAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        final double scale = Math.min(1.0, (double) size / Math.max(image.getWidth(), image.getHeight()));
+        final int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        final int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+
+            BufferedImage next = new BufferedImage(width, height, type);
+            Graphics2D graphics = next.createGraphics();
+
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(current, 0, 0, width, height, null);
+            graphics.dispose();
+
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+
+        return current;
+    }
+
+    /**
+     * Método privado para codificar una imagen en el formato indicado.
+     * 
+     * @param image  La imagen.
+     * @param format El formato de salida.
+     * @return La imagen codificada.
+     * @throws IOException Excepción al codificar la imagen.
+     */
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            if (!ImageIO.write(image, format, out))
+                throw new IOException("No hay codificador para el formato " + format);
+
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Clase privada que representa un trabajo encolado, para poder identificar
+     * su imagen si se descarta.
+     */
+    private final class Job implements Runnable {
+        private final String hash;
+
+        private Job(String hash) {
+            this.hash = hash;
+        }
+
+        @Override
+        public void run() {
+            process(hash);
+        }
+    }
+
+    /**
+     * Getter para obtener la instancia del servicio de miniaturas.
+     * 
+     * @return El servicio de miniaturas.
+     */
+    public static synchronized ThumbnailService getService() {
+        if (service == null)
+            service = new ThumbnailService();
+
+        return service;
+    }
+}
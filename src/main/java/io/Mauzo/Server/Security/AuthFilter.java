@@ -0,0 +1,85 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Security;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.ext.Provider;
+
+import io.Mauzo.Server.ServerApp;
+import io.Mauzo.Server.ServerUtils;
+import io.Mauzo.Server.Managers.Connections.PoolTimeoutException;
+
+/**
+ * Filtro que autentica cada petición HTTP una sola vez, antes de que llegue a
+ * las clases controladoras.
+ * 
+ * Se obtiene el token de la cabecera AUTHORIZATION, se verifica y el usuario
+ * resultante se expone a traves del SecurityContext de la petición, de manera
+ * que los controladores solo declaran con @RolesAllowed los roles requeridos.
+ * 
+ * Si no hay token, o no es valido, la petición continua sin usuario, y serán
+ * los controladores protegidos los que respondan con un error 403. Si no hay
+ * conexiones libres para verificarlo, se responde directamente con un 503.
+ * 
+ * @author Neirth Sergio Martinez
+ */
+@Provider
+@Priority(Priorities.AUTHENTICATION)
+public class AuthFilter implements ContainerRequestFilter {
+    /**
+     * Nombre de la propiedad de la petición que guarda el usuario verificado.
+     */
+    public static final String PRINCIPAL_PROPERTY = "io.Mauzo.Server.Security.principal";
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        // Obtenemos el token de la cabecera y lo verificamos.
+        final String token = ServerUtils.getToken(requestContext.getHeaderString(HttpHeaders.AUTHORIZATION));
+        final UserPrincipal principal;
+
+        try {
+            principal = ServerUtils.verifyToken(token);
+        } catch (PoolTimeoutException e) {
+            // Si no hay conexiones libres para verificar el token, respondemos con un 503.
+            ServerApp.getLoggerSystem().warn(e.getMessage());
+            requestContext.abortWith(Response.status(Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, e.getRetryAfter()).build());
+
+            return;
+        }
+
+        if (principal != null) {
+            final boolean isSecure = requestContext.getSecurityContext().isSecure();
+
+            // Exponemos el usuario verificado al resto de la petición.
+            requestContext.setProperty(PRINCIPAL_PROPERTY, principal);
+            requestContext.setSecurityContext(new TokenSecurityContext(principal, isSecure));
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Security;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.Mauzo.Server.ServerUtils;
+
+/**
+ * Clase que guarda en memoria los tokens de inicio de sesión ya verificados.
+ * 
+ * Verificar un token supone comprobar su firma y consultar el usuario en la base
+ * de datos, por lo que se guarda el resultado para las siguientes peticiones con
+ * el mismo token. Cada entrada caduca cuando lo hace el token o, como mucho,
+ * tras el tiempo configurado en mauzo.auth.tokenCache.ttl.
+ * 
+ * La cache tiene un tamaño máximo y se invalida cuando se modifica o elimina el
+ * usuario al que pertenecen los tokens. Cada invalidación incrementa la
+ * generación de la cache, y los usuarios consultados antes de una invalidación
+ * no se guardan, dado que pueden estar desactualizados.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class TokenCache {
+    private static final TokenCache cache = new TokenCache();
+
+    /**
+     * Clase que representa una entrada de la cache.
+     */
+    private static class Entry {
+        private final UserPrincipal principal;
+        private final long expiration;
+
+        Entry(UserPrincipal principal, long expiration) {
+            this.principal = principal;
+            this.expiration = expiration;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttl;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong(0);
+
+    /**
+     * Constructor privado de la instancia compartida por el servidor.
+     */
+    private TokenCache() {
+        this(ServerUtils.loadProperties());
+    }
+
+    /**
+     * Constructor privado que carga la configuración de la cache.
+     * 
+     * @param properties La configuración del servidor.
+     */
+    private TokenCache(Properties properties) {
+        this(Integer.valueOf(properties.getProperty("mauzo.auth.tokenCache.maxEntries", "10000")), Long.valueOf(properties.getProperty("mauzo.auth.tokenCache.ttl", "300000")));
+    }
+
+    /**
+     * Constructor de una cache con la configuración indicada, usado por los
+     * test.
+     * 
+     * @param maxEntries El número máximo de entradas.
+     * @param ttl        El tiempo máximo de cada entrada en milisegundos.
+     */
+    TokenCache(int maxEntries, long ttl) {
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Método para obtener el usuario verificado de un token.
+     * 
+     * @param token El token JWT.
+     * @return El usuario verificado, o null si no está en la cache o ha caducado.
+     */
+    public UserPrincipal get(String token) {
+        Entry entry = entries.get(token);
+
+        if (entry == null)
+            return null;
+
+        // Si ha caducado, la retiramos de la cache.
+        if (entry.expiration <= System.currentTimeMillis()) {
+            entries.remove(token, entry);
+            return null;
+        }
+
+        return entry.principal;
+    }
+
+    /**
+     * Método para obtener la generación actual de la cache, que se debe leer
+     * antes de consultar el usuario de un token para guardarlo despues con put.
+     * 
+     * @return La generación actual.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Método para guardar en la cache el usuario verificado de un token, salvo
+     * que la cache se haya invalidado desde que se consultó el usuario.
+     * 
+     * @param token      El token JWT.
+     * @param principal  El usuario verificado.
+     * @param generation La generación de la cache antes de consultar el usuario.
+     */
+    public void put(String token, UserPrincipal principal, long generation) {
+        long expiration = Math.min(principal.getExpiration(), System.currentTimeMillis() + ttl);
+
+        if (this.generation.get() != generation)
+            return;
+
+        // Si la cache está llena, hacemos hueco antes de añadir la entrada.
+        if (entries.size() >= maxEntries)
+            evict();
+
+        final Entry entry = new Entry(principal, expiration);
+        entries.put(token, entry);
+
+        // Si se ha invalidado mientras la añadiamos, la retiramos.
+        if (this.generation.get() != generation)
+            entries.remove(token, entry);
+    }
+
+    /**
+     * Método para invalidar todos los tokens de un usuario, dado que se ha
+     * modificado o eliminado.
+     * 
+     * @param userId El id del usuario.
+     */
+    public void invalidateUser(int userId) {
+        generation.incrementAndGet();
+        entries.values().removeIf((entry) -> entry.principal.getId() == userId);
+    }
+
+    /**
+     * Método para vaciar la cache.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Método para obtener el número de entradas de la cache, incluidas las que
+     * han caducado y todavía no se han retirado.
+     * 
+     * @return El número de entradas.
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Método privado para hacer hueco en la cache, primero se retiran las
+     * entradas caducadas y, si no es suficiente, una décima parte de la cache.
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        entries.values().removeIf((entry) -> entry.expiration <= now);
+
+        Iterator<String> iterator = entries.keySet().iterator();
+
+        for (int i = entries.size() - (maxEntries * 9 / 10); i > 0 && iterator.hasNext(); i--) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Getter para obtener la instancia de la cache de tokens.
+     * 
+     * @return La cache de tokens.
+     */
+    public static TokenCache getCache() {
+        return cache;
+    }
+}
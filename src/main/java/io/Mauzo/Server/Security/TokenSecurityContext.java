@@ -0,0 +1,76 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Security;
+
+import java.security.Principal;
+
+import javax.ws.rs.core.SecurityContext;
+
+/**
+ * Contexto de seguridad de una petición autenticada mediante un token de
+ * inicio de sesión.
+ * 
+ * Todo usuario verificado tiene el rol de usuario, y además el rol de
+ * administrador si así lo indican tanto el token como la base de datos.
+ * 
+ * @author Neirth Sergio Martinez
+ */
+public class TokenSecurityContext implements SecurityContext {
+    private final UserPrincipal principal;
+    private final boolean isSecure;
+
+    /**
+     * Constructor del contexto de seguridad.
+     * 
+     * @param principal El usuario verificado.
+     * @param isSecure  Si la petición se ha realizado por un canal seguro.
+     */
+    public TokenSecurityContext(UserPrincipal principal, boolean isSecure) {
+        this.principal = principal;
+        this.isSecure = isSecure;
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        return principal;
+    }
+
+    @Override
+    public boolean isUserInRole(String role) {
+        if (UserPrincipal.ROLE_ADMIN.equals(role))
+            return principal.isAdmin();
+
+        return UserPrincipal.ROLE_USER.equals(role);
+    }
+
+    @Override
+    public boolean isSecure() {
+        return isSecure;
+    }
+
+    @Override
+    public String getAuthenticationScheme() {
+        return "Bearer";
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Security;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import io.Mauzo.Server.ServerApp;
+import io.Mauzo.Server.ServerUtils;
+
+/**
+ * Clase que mantiene en memoria un directorio con los datos de los usuarios
+ * necesarios para iniciar sesión y verificar los tokens.
+ * 
+ * La tabla de usuarios es pequeña y cambia poco, por lo que se carga entera al
+ * arrancar el servidor y se mantiene actualizada escuchando, con LISTEN, las
+ * notificaciones del canal mauzo_users que emite la base de datos cada vez que
+ * se añade, modifica o elimina un usuario. Asi todos los nodos del cluster ven
+ * los cambios en milisegundos, sin consultar la tabla en cada petición.
+ * 
+ * Si se pierde la conexión de escucha, el directorio deja de estar disponible,
+ * y las consultas vuelven a la base de datos, hasta que se reconecta y se
+ * recarga por completo, dado que se pueden haber perdido notificaciones.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class UserDirectory {
+    private static final String CHANNEL = "mauzo_users";
+    private static final UserDirectory directory = new UserDirectory();
+
+    /**
+     * Clase que representa los datos de un usuario en el directorio.
+     */
+    public static class Entry {
+        private final int id;
+        private final String username;
+        private final boolean isAdmin;
+        private final String password;
+        private final long version;
+
+        Entry(int id, String username, boolean isAdmin, String password, long version) {
+            this.id = id;
+            this.username = username;
+            this.isAdmin = isAdmin;
+            this.password = password;
+            this.version = version;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public boolean isAdmin() {
+            return isAdmin;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    private final long pollTimeout;
+    private final long reconnectDelay;
+
+    private final Map<Integer, Entry> usersById = new ConcurrentHashMap<>();
+    private final Map<String, Entry> usersByName = new ConcurrentHashMap<>();
+
+    private volatile boolean live = false;
+    private Thread listenerThread = null;
+
+    /**
+     * Constructor privado que carga la configuración del directorio.
+     */
+    private UserDirectory() {
+        Properties properties = ServerUtils.loadProperties();
+
+        pollTimeout = Long.valueOf(properties.getProperty("mauzo.auth.directory.pollTimeout", "1000"));
+        reconnectDelay = Long.valueOf(properties.getProperty("mauzo.auth.directory.reconnectDelay", "5000"));
+    }
+
+    /**
+     * Método para arrancar el directorio, el cual carga los usuarios y lanza el
+     * hilo que escucha las notificaciones de la base de datos.
+     * 
+     * Las siguientes invocaciones no realizan ninguna operación.
+     */
+    public synchronized void start() {
+        if (listenerThread != null)
+            return;
+
+        listenerThread = new Thread(this::listen, "mauzo-users-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+    }
+
+    /**
+     * Método para obtener un usuario del directorio a partir de su id.
+     * 
+     * @param id El id del usuario.
+     * @return El usuario, o null si no está en el directorio.
+     */
+    public Entry get(int id) {
+        return usersById.get(id);
+    }
+
+    /**
+     * Método para obtener un usuario del directorio a partir de su nombre de
+     * usuario.
+     * 
+     * @param username El nombre de usuario.
+     * @return El usuario, o null si no está en el directorio.
+     */
+    public Entry get(String username) {
+        return usersByName.get(username);
+    }
+
+    /**
+     * Método para saber si el directorio está al día, es decir, si se ha cargado
+     * y sigue escuchando las notificaciones de la base de datos.
+     * 
+     * @return Verdadero si el directorio está al día.
+     */
+    public boolean isLive() {
+        return live;
+    }
+
+    /**
+     * Método privado que ejecuta el hilo de escucha, reconectando y recargando el
+     * directorio cada vez que se pierde la conexión.
+     */
+    private void listen() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try (Connection conn = ServerApp.openConnection()) {
+                PGConnection pgConn = conn.unwrap(PGConnection.class);
+
+                // Escuchamos antes de cargar, asi no se pierde ningún cambio intermedio.
+                try (Statement st = conn.createStatement()) {
+                    st.execute("LISTEN " + CHANNEL + ";");
+                }
+
+                try (PreparedStatement getIdQuery = conn.prepareStatement("SELECT id, username, isAdmin, password, xmin::text::bigint AS version FROM Users WHERE id = ?;")) {
+                    reload(conn);
+                    live = true;
+
+                    ServerApp.getLoggerSystem().info("User directory loaded with " + usersById.size() + " users");
+
+                    while (!Thread.currentThread().isInterrupted()) {
+                        PGNotification[] notifications = pgConn.getNotifications((int) pollTimeout);
+
+                        if (notifications != null) {
+                            for (PGNotification notification : notifications)
+                                apply(conn, getIdQuery, notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                ServerApp.getLoggerSystem().warn("User directory listener disconnected, " + e.toString());
+            } finally {
+                live = false;
+            }
+
+            // Esperamos antes de reconectar.
+            try {
+                Thread.sleep(reconnectDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Método privado que carga por completo el directorio desde la base de datos.
+     * 
+     * @param conn La conexión con la base de datos.
+     * @throws SQLException Excepción en la consulta SQL.
+     */
+    private void reload(Connection conn) throws SQLException {
+        Map<Integer, Entry> loaded = new ConcurrentHashMap<>();
+
+        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("SELECT id, username, isAdmin, password, xmin::text::bigint AS version FROM Users;")) {
+            while (rs.next()) {
+                Entry entry = readEntry(rs);
+                loaded.put(entry.getId(), entry);
+            }
+        }
+
+        // Retiramos los usuarios que ya no existen y actualizamos el resto.
+        usersById.keySet().retainAll(loaded.keySet());
+
+        for (Entry entry : loaded.values())
+            put(entry);
+
+        usersByName.values().removeIf((entry) -> usersById.get(entry.getId()) != entry);
+
+        // Los tokens verificados pueden corresponder a cambios perdidos.
+        TokenCache.getCache().clear();
+    }
+
+    /**
+     * Método privado que aplica una notificación de cambio de un usuario.
+     * 
+     * @param conn       La conexión con la base de datos.
+     * @param getIdQuery La consulta preparada para obtener un usuario.
+     * @param payload    El contenido de la notificación, el id del usuario o *.
+     * @throws SQLException Excepción en la consulta SQL.
+     */
+    private void apply(Connection conn, PreparedStatement getIdQuery, String payload) throws SQLException {
+        // Si han cambiado todos los usuarios, recargamos el directorio.
+        if ("*".equals(payload)) {
+            reload(conn);
+            return;
+        }
+
+        int id = Integer.parseInt(payload);
+        getIdQuery.setInt(1, id);
+
+        try (ResultSet rs = getIdQuery.executeQuery()) {
+            if (rs.next()) {
+                put(readEntry(rs));
+            } else {
+                remove(id);
+            }
+        }
+
+        TokenCache.getCache().invalidateUser(id);
+    }
+
+    /**
+     * Método privado para añadir o reemplazar un usuario en el directorio.
+     * 
+     * @param entry El usuario.
+     */
+    private void put(Entry entry) {
+        Entry previous = usersById.put(entry.getId(), entry);
+
+        // Si ha cambiado el nombre de usuario, retiramos el anterior.
+        if (previous != null && !previous.getUsername().equals(entry.getUsername()))
+            usersByName.remove(previous.getUsername(), previous);
+
+        usersByName.put(entry.getUsername(), entry);
+    }
+
+    /**
+     * Método privado para retirar un usuario del directorio.
+     * 
+     * @param id El id del usuario.
+     */
+    private void remove(int id) {
+        Entry previous = usersById.remove(id);
+
+        if (previous != null)
+            usersByName.remove(previous.getUsername(), previous);
+    }
+
+    /**
+     * Método privado para leer un usuario de una fila de la consulta.
+     * 
+     * @param rs La fila de la consulta.
+     * @return El usuario.
+     * @throws SQLException Excepción en la consulta SQL.
+     */
+    private static Entry readEntry(ResultSet rs) throws SQLException {
+        return new Entry(rs.getInt("id"), rs.getString("username"), rs.getBoolean("isAdmin"), rs.getString("password"), rs.getLong("version"));
+    }
+
+    /**
+     * Getter para obtener la instancia del directorio de usuarios.
+     * 
+     * @return El directorio de usuarios.
+     */
+    public static UserDirectory getDirectory() {
+        return directory;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Security;
+
+import java.security.Principal;
+
+/**
+ * Modelo con la identidad de un usuario cuyo token de inicio de sesión ya ha
+ * sido verificado, tanto su firma como su existencia en la base de datos.
+ * 
+ * @author Neirth Sergio Martínez
+ */
+public class UserPrincipal implements Principal {
+    /**
+     * Rol que tiene cualquier usuario que haya iniciado sesión.
+     */
+    public static final String ROLE_USER = "user";
+
+    /**
+     * Rol que tienen los usuarios administradores.
+     */
+    public static final String ROLE_ADMIN = "admin";
+
+    private final int id;
+    private final String username;
+    private final boolean isAdmin;
+    private final long expiration;
+
+    /**
+     * Constructor del usuario verificado.
+     * 
+     * @param id         El id del usuario.
+     * @param username   El nombre de usuario.
+     * @param isAdmin    Si el usuario es administrador.
+     * @param expiration El instante, en milisegundos, en el que expira el token.
+     */
+    public UserPrincipal(int id, String username, boolean isAdmin, long expiration) {
+        this.id = id;
+        this.username = username;
+        this.isAdmin = isAdmin;
+        this.expiration = expiration;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public String getName() {
+        return username;
+    }
+
+    public boolean isAdmin() {
+        return isAdmin;
+    }
+
+    public long getExpiration() {
+        return expiration;
+    }
+}
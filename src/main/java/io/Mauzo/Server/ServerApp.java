@@ -24,7 +24,6 @@
 package io.Mauzo.Server;
 
 // Paquetes relativos a la conexion con la base de datos.
-import java.sql.Statement;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.DriverManager;
@@ -35,6 +34,7 @@ import org.apache.logging.log4j.LogManager;
 
 // Paquetes relativos a la inicialización del servidor.
 import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.filter.RolesAllowedDynamicFeature;
 import org.springframework.boot.SpringApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -44,11 +44,17 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import io.Mauzo.Server.Controllers.DiscountsCtrl;
 import io.Mauzo.Server.Controllers.InformsCtrl;
 import io.Mauzo.Server.Controllers.LoginCtrl;
+import io.Mauzo.Server.Controllers.MetricsCtrl;
+import io.Mauzo.Server.Controllers.PicturesCtrl;
 import io.Mauzo.Server.Controllers.ProductsCtrl;
 import io.Mauzo.Server.Controllers.SalesCtrl;
 import io.Mauzo.Server.Controllers.UsersCtrl;
 import io.Mauzo.Server.Managers.Connections;
+import io.Mauzo.Server.Managers.Migrations;
+import io.Mauzo.Server.Managers.TableVersions;
 import io.Mauzo.Server.Controllers.RefundsCtrl;
+import io.Mauzo.Server.Security.AuthFilter;
+import io.Mauzo.Server.Security.UserDirectory;
 
 /**
  * Clase principal del servidor.
@@ -64,6 +70,7 @@ import io.Mauzo.Server.Controllers.RefundsCtrl;
 @SpringBootApplication
 public class ServerApp {
     private static Connection connection = null;
+    private static boolean databaseReady = false;
     private static Logger loggerSystem = LogManager.getLogger(ServerApp.class);
     private static String url = System.getenv("JDBC_DATABASE_URL");
 
@@ -91,6 +98,12 @@ public class ServerApp {
                 //  Preferiría un Connections.getController().init() o mejor, Connections.initControllers()
                 Connections.getController();
                 ServerApp.getConnection();
+
+                // Cargamos el directorio de usuarios y escuchamos sus cambios.
+                UserDirectory.getDirectory().start();
+
+                // Escuchamos las versiones de las tablas para las ETags de los listados.
+                TableVersions.getVersions().start();
             } catch (Exception e) {
                 loggerSystem.error("The server couldn't be loaded, please check the debug info...");
                 ServerUtils.writeServerException(e);
@@ -126,6 +139,12 @@ public class ServerApp {
         config.register(ProductsCtrl.class);
         config.register(InformsCtrl.class);
         config.register(DiscountsCtrl.class);
+        config.register(MetricsCtrl.class);
+        config.register(PicturesCtrl.class);
+
+        // Autenticación de las peticiones y control de roles de los controladores.
+        config.register(AuthFilter.class);
+        config.register(RolesAllowedDynamicFeature.class);
 
         return config;
     }
@@ -171,12 +190,33 @@ public class ServerApp {
      * 
      * Este obtendrá una variable de entorno llamada JDBC_DATABASE_URL, procedente
      * de la infraestructura de Heroku usado para albergar el servidor, este tendrá
-     * la URL con los parametros de conexión.
+     * la URL con los parametros de conexión. Antes de abrir la conexión, se
+     * asegura de que la estructura de la base de datos esté creada.
      * 
      * @throws SQLException Execepcion en caso de no poder conectar con la BBDD.
      * @return Devuelve un objeto de conexión.
      */
     public static Connection setConnection() throws SQLException {
+        // Creamos la estructura de datos de la bbdd, en caso de ser necesario.
+        initDatabase();
+
+        // Inicializamos el objeto correspondiente a la conexión.
+        connection = openConnection();
+
+        return connection;
+    }
+
+    /**
+     * Método para abrir una nueva conexión física con la base de datos, sin
+     * realizar ninguna operación sobre la estructura de la misma.
+     * 
+     * Es el método usado por el grupo de conexiones para crecer, dado que la
+     * estructura de la base de datos solo necesita crearse una vez.
+     * 
+     * @throws SQLException Execepcion en caso de no poder conectar con la BBDD.
+     * @return Devuelve un objeto de conexión.
+     */
+    public static Connection openConnection() throws SQLException {
         // Cargamos las dependencias del driver
         try {
             Class.forName("org.postgresql.Driver");
@@ -184,25 +224,28 @@ public class ServerApp {
             throw new SQLException("No se ha encontrado el driver de PostgreSQL: " + e.toString());
         }
 
-        // Inicializamos el objeto correspondiente a la conexión.
-        connection = DriverManager.getConnection(url);
+        return DriverManager.getConnection(url);
+    }
 
-        // Creamos la estructura de datos de la bbdd, en caso de ser necesario.
-        try (Statement st = connection.createStatement()) {
-            // Creamos la estructura de la base de datos
-            // FIXME: 08/06/2020 Muy bien, ..., pero en futuros usos, barajaría la idea de tener un fichero de
-            //  texto, ..., por ejemplo initDB.sql conde meta todas estas cosas, y el programa, lo que debe hacer es
-            //  leer ese fichero linea a linea y ejecutarlo
-            st.execute("CREATE TABLE IF NOT EXISTS Discounts (id SERIAL, codeDisc VARCHAR(10) NOT NULL, descDisc TEXT NOT NULL, pricePerc FLOAT NOT NULL, PRIMARY KEY (id), UNIQUE (codeDisc));");
-            st.execute("CREATE TABLE IF NOT EXISTS Products (id SERIAL, prodName VARCHAR(45) NOT NULL, prodCode VARCHAR(45) NOT NULL, prodPrice FLOAT NOT NULL, prodDesc TEXT NULL, prodPic BYTEA NULL, PRIMARY KEY (id), UNIQUE(prodCode));");
-            st.execute("CREATE TABLE IF NOT EXISTS Users (id SERIAL, firstname VARCHAR(45) NOT NULL, lastname VARCHAR(45) NOT NULL, username VARCHAR(45) NOT NULL, password TEXT NOT NULL, email TEXT NOT NULL, isAdmin BOOLEAN NOT NULL, userPic BYTEA NULL, PRIMARY KEY (id), UNIQUE (username));");
-            st.execute("CREATE TABLE IF NOT EXISTS Sales (id SERIAL, stampRef DATE NOT NULL, userId INT NOT NULL, prodId INT NOT NULL, discId INT NULL, PRIMARY KEY (id), FOREIGN KEY (discId) REFERENCES Discounts(id), FOREIGN KEY (prodId) REFERENCES Products(id), FOREIGN KEY (userId) REFERENCES Users(id));");
-            st.execute("CREATE TABLE IF NOT EXISTS Refunds (id SERIAL, dateRefund DATE NOT NULL, userId INT NOT NULL, saleId INT NOT NULL, PRIMARY KEY (id), FOREIGN KEY (userId) REFERENCES Users(id), FOREIGN KEY (saleId) REFERENCES Sales(id) ON DELETE SET NULL ON UPDATE NO ACTION);");
-
-            // Agregamos el usuario administrador
-            st.execute("INSERT INTO public.Users(firstname, lastname, username, email, password, isAdmin, userPic) VALUES ('Super', 'Administrador', 'admin', 'admin@localhost', '21232f297a57a5a743894a0e4a801fc3', true, null) ON CONFLICT DO NOTHING;");
+    /**
+     * Método para crear o actualizar la estructura de la base de datos y el
+     * usuario administrador, en caso de ser necesario, mediante las migraciones
+     * versionadas de la carpeta db/migrations.
+     * 
+     * Este método solo se ejecuta una vez durante la vida del servidor, las
+     * siguientes invocaciones no realizan ninguna operación.
+     * 
+     * @throws SQLException Execepcion en caso de no poder conectar con la BBDD.
+     */
+    public static synchronized void initDatabase() throws SQLException {
+        if (databaseReady)
+            return;
+
+        // Aplicamos las migraciones pendientes con una conexión de un solo uso.
+        try (Connection conn = openConnection()) {
+            Migrations.migrate(conn);
         }
 
-        return connection;
+        databaseReady = true;
     }
 }
\ No newline at end of file
@@ -31,17 +31,27 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
-import java.sql.ResultSet;
-import java.sql.Statement;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.ToIntFunction;
 
 // Paquetes del framework extendido de java.
+import javax.json.stream.JsonGenerator;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response.Status;
 import javax.xml.bind.DatatypeConverter;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
 import javax.crypto.spec.SecretKeySpec;
 import javax.imageio.ImageIO;
 import javax.servlet.http.HttpServletRequest;
@@ -58,6 +68,23 @@ import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.SignatureException;
 
+// Paquetes relativos a los codificadores Json.
+import io.Mauzo.Server.Codecs.JsonCodec;
+
+// Paquetes relativos al grupo de conexiones.
+import io.Mauzo.Server.Managers.Connections;
+import io.Mauzo.Server.Managers.TableVersions;
+import io.Mauzo.Server.Managers.UsersMgt;
+import io.Mauzo.Server.Managers.Connections.PoolTimeoutException;
+import io.Mauzo.Server.Templates.User;
+import io.Mauzo.Server.Pictures.PictureUpload;
+import io.Mauzo.Server.Pictures.PictureUpload.PictureUploadException;
+
+// Paquetes relativos a la seguridad del servidor.
+import io.Mauzo.Server.Security.TokenCache;
+import io.Mauzo.Server.Security.UserDirectory;
+import io.Mauzo.Server.Security.UserPrincipal;
+
 /**
  * Clase de utiliades del proyecto de Mauzo Server.
  * 
@@ -82,36 +109,101 @@ public class ServerUtils {
         ResponseBuilder executeContent() throws Exception;
     }
 
+    public interface JsonContent {
+        /**
+         * Funcion lambda para escribir el contenido de una respuesta Json a medida
+         * que se genera, usada por el método jsonStream de este archivo de
+         * utilidades.
+         * 
+         * @param generator El generador Json sobre la respuesta.
+         * @throws Exception Puede devolver cualquier tipo de excepcion que será
+         *                   traducida por el método jsonStream.
+         */
+        void writeContent(JsonGenerator generator) throws Exception;
+    }
+
+    public interface RowWriter<T> {
+        /**
+         * Funcion lambda para escribir un elemento de un listado con un generador
+         * Json, usada por el método pageResponse de este archivo de utilidades.
+         * 
+         * @param generator El generador Json sobre la respuesta.
+         * @param obj       El elemento a escribir.
+         * @throws Exception Puede devolver cualquier tipo de excepcion.
+         */
+        void writeRow(JsonGenerator generator, T obj) throws Exception;
+    }
+
+    /**
+     * Cabecera con el id a indicar en el parametro after para obtener la
+     * siguiente página de un listado.
+     */
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private static final Properties paginationProperties = loadProperties();
+    private static final int defaultPageLimit = Integer.valueOf(paginationProperties.getProperty("mauzo.pagination.defaultLimit", "100"));
+    private static final int maxPageLimit = Integer.valueOf(paginationProperties.getProperty("mauzo.pagination.maxLimit", "1000"));
+
     private static Key privateKey;
+    private static volatile JwtParser jwtParser;
 
     /**
      * Método para procesar y responder a una petición generica con las
      * comprobaciones, requeridas por el servidor, y por ende por el proyecto.
      * 
      * Se checkeará si el usuario ha iniciado sesión validando el token que nos
-     * habrá entregado en la cabecera AUTHENTICATOR de la petición HTTP.
+     * habrá entregado en la cabecera AUTHENTICATOR de la petición HTTP. Dicha
+     * comprobación la realiza una sola vez el filtro AuthFilter, y los roles
+     * requeridos se declaran en el controlador con la anotación @RolesAllowed.
      * 
      * Si la cabecera no estuviera presente, si hubiera algún inconveniente con la
      * base de datos o otro problema, el método devolverá al cliente un error 500.
+     * Si no hubiera conexiones libres con la base de datos, devolverá un error 503.
      * 
      * Si no, devolverá un 200 indicando que ha sido procesado correctamente.
      * 
-     * @param req      La petición HTTP.
-     * @param paramId  A que Id se refiere, en caso de referirse a uno.
-     * @param jsonData Los datos en Json que ha enviado el cliente
      * @param content  Funcion lambda con todos los pasos a seguir.
      * 
      * @author Neirth Sergio Martinez
      * 
      * @return La respuesta con la cual responderemos al cliente.
      */
-    public static Response genericMethod(HttpServletRequest req, Integer paramId, String jsonData, Content content) {
+    public static Response genericMethod(Content content) {
         // Convertimos la información JSON recibida en un objeto.
         ResponseBuilder response = null;
 
+        // Lanzamos el resto de la secuencia a ejecutar.
+        response = executeContent(content);
+
+        // Lanzamos la respuesta.
+        return response.build();
+    }
+
+    /**
+     * Método privado que ejecuta la secuencia de instrucciones de los métodos
+     * generic y traduce las excepciones capturadas en la respuesta adecuada.
+     * 
+     * Si el grupo de conexiones está agotado, se responde rapidamente con un
+     * error 503 y la cabecera Retry-After, en vez de acumular hilos del servidor
+     * esperando una conexión. Cualquier otra excepción devuelve un error 500.
+     * 
+     * @author Neirth Sergio Martinez
+     * 
+     * @param content Funcion lambda con todos los pasos a seguir.
+     * @return La respuesta preconstruida.
+     */
+    private static ResponseBuilder executeContent(Content content) {
+        ResponseBuilder response = null;
+
         try {
             // Lanzamos el resto de la secuencia a ejecutar.
             response = content.executeContent();
+        } catch (PoolTimeoutException e) {
+            // Informamos del problema sin el stacktrace, dado que es esperado bajo carga.
+            ServerApp.getLoggerSystem().warn(e.getMessage());
+
+            // Establecemos la respuesta como servicio no disponible.
+            response = Response.status(Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, e.getRetryAfter());
         } catch (Exception e) {
             // Invocamos la funcion para escribir en el registro la excepción.
             writeServerException(e);
@@ -120,105 +212,163 @@ public class ServerUtils {
             response = Response.status(Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getMessage());
         }
 
-        // Lanzamos la respuesta.
-        return response.build();
+        return response;
     }
 
     /**
-     * Método para procesar y responder a una petición generica con las
-     * comprobaciones, requeridas por el servidor, y por ende por el proyecto.
+     * Método para construir el cuerpo de una respuesta Json que se escribe a
+     * medida que se genera, sin construir el documento completo en memoria.
      * 
-     * Se checkeará si el usuario ha iniciado sesión validando el token que nos
-     * habrá entregado en la cabecera AUTHENTICATOR de la petición HTTP.
-     * 
-     * Si la cabecera no estuviera presente, si hubiera algún inconveniente con la
-     * base de datos o otro problema, el método devolverá al cliente un error 500.
-     * 
-     * Si no, devolverá un 200 indicando que ha sido procesado correctamente.
+     * El contenido se ejecuta al escribir la respuesta, por lo que las conexiones
+     * que necesite se deben adquirir dentro del mismo. Si el grupo de conexiones
+     * está agotado se responde con un error 503 y la cabecera Retry-After, igual
+     * que en los métodos generic.
      * 
-     * @param req      La petición HTTP.
-     * @param paramId  A que Id se refiere, en caso de referirse a uno.
-     * @param jsonData Los datos en Json que ha enviado el cliente
-     * @param content  Funcion lambda con todos los pasos a seguir.
-     *
      * @author Neirth Sergio Martinez
      * 
-     * @return La respuesta con la cual responderemos al cliente.
+     * @param content Funcion lambda que escribe el contenido.
+     * @return El cuerpo de la respuesta.
      */
-    public static Response genericUserMethod(HttpServletRequest req, Integer paramId, String jsonData,
-            Content content) {
-        // Obtenemos el token
-        String token = getToken(req);
-
-        // Convertimos la información JSON recibida en un objeto.
-        ResponseBuilder response = null;
+    public static StreamingOutput jsonStream(JsonContent content) {
+        return (out) -> {
+            final JsonGenerator generator = JsonCodec.getGeneratorFactory().createGenerator(out, StandardCharsets.UTF_8);
 
-        if (isTokenLogged(token) != false) {
             try {
-                // Lanzamos el resto de la secuencia a ejecutar.
-                response = content.executeContent();
+                content.writeContent(generator);
+            } catch (IOException | WebApplicationException e) {
+                throw e;
+            } catch (PoolTimeoutException e) {
+                // Informamos del problema sin el stacktrace, dado que es esperado bajo carga.
+                ServerApp.getLoggerSystem().warn(e.getMessage());
+
+                throw new ServiceUnavailableException(e.getRetryAfter());
             } catch (Exception e) {
-                // Invocamos la funcion para escribir en el registro la excepción.
                 writeServerException(e);
 
-                // Establecemos la respuesta como error.
-                response = Response.status(Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getMessage());
+                throw new IOException(e);
             }
-        } else {
-            response = Response.status(Status.FORBIDDEN);
-        }
 
-        // Lanzamos la respuesta.
-        return response.build();
+            // Volcamos lo que quede pendiente, el stream lo cierra el servidor.
+            generator.flush();
+        };
     }
 
     /**
-     * Método para procesar y responder a una petición generica con las
-     * comprobaciones requeridas a un usuario administrador, requeridas por el
-     * servidor, y por ende por el proyecto.
+     * Método para obtener el tamaño de página de un listado a partir del parametro
+     * limit de la petición. Si no está presente se usa
+     * mauzo.pagination.defaultLimit, y nunca se superan las
+     * mauzo.pagination.maxLimit filas.
      * 
-     * Se checkeará si el usuario ha iniciado sesión validando el token que nos
-     * habrá entregado en la cabecera AUTHENTICATOR de la petición HTTP.
+     * @author Neirth Sergio Martinez
      * 
-     * Si la cabecera no estuviera presente, si hubiera algún inconveniente con la
-     * base de datos o otro problema, el método devolverá al cliente un error 500.
+     * @param limit El valor del parametro limit, o null.
+     * @return El tamaño de página, menor que 1 si el parametro no es valido.
+     */
+    public static int getPageLimit(Integer limit) {
+        return (limit == null) ? defaultPageLimit : Math.min(limit, maxPageLimit);
+    }
+
+    /**
+     * Método para construir la respuesta con una página de un listado, paginado
+     * por id mediante los parametros after y limit.
      * 
-     * Si no, devolverá un 200 indicando que ha sido procesado correctamente.
+     * La página se debe haber consultado con un elemento más del tamaño de
+     * página, si este existe, hay una página siguiente, y se indica su cursor en
+     * la cabecera X-Next-Cursor y su URL en la cabecera Link con rel="next".
      * 
-     * @param req      La petición HTTP.
-     * @param paramId  A que Id se refiere, en caso de referirse a uno.
-     * @param jsonData Los datos en Json que ha enviado el cliente
-     * @param content  Funcion lambda con todos los pasos a seguir.
+     * @author Neirth Sergio Martinez
+     * 
+     * @param uriInfo La URL de la petición.
+     * @param page    Los elementos consultados, hasta limit + 1.
+     * @param limit   El tamaño de página.
+     * @param idOf    La función que obtiene el id de un elemento.
+     * @param writer  La función que escribe cada elemento.
+     * @return La respuesta preconstruida.
+     */
+    public static <T> ResponseBuilder pageResponse(UriInfo uriInfo, List<T> page, int limit, ToIntFunction<T> idOf, RowWriter<T> writer) {
+        final List<T> rows = (page.size() > limit) ? page.subList(0, limit) : page;
+
+        ResponseBuilder response = Response.ok(jsonStream((generator) -> {
+            generator.writeStartArray();
+
+            for (T row : rows)
+                writer.writeRow(generator, row);
+
+            generator.writeEnd();
+        }), MediaType.APPLICATION_JSON);
+
+        // Si sobra un elemento, indicamos donde empieza la página siguiente.
+        if (page.size() > limit) {
+            final int next = idOf.applyAsInt(rows.get(rows.size() - 1));
+
+            response.header(NEXT_CURSOR_HEADER, next);
+            response.link(uriInfo.getRequestUriBuilder().replaceQueryParam("after", next).replaceQueryParam("limit", limit).build(), "next");
+        }
+
+        return response;
+    }
+
+    /**
+     * Método para obtener la ETag debil de un listado, a partir de la versión
+     * de las tablas de las que depende y de los parametros de la petición.
      * 
      * @author Neirth Sergio Martinez
      * 
-     * @return La respuesta con la cual responderemos al cliente.
+     * @param uriInfo La URL de la petición.
+     * @param tables  Las tablas de las que depende el listado.
+     * @return La ETag, o null si las versiones no están al día.
      */
-    public static Response genericAdminMethod(HttpServletRequest req, Integer paramId, String jsonData,
-            Content content) {
-        // Obtenemos el token
-        String token = getToken(req);
+    public static EntityTag getListTag(UriInfo uriInfo, String... tables) {
+        final StringBuilder value = new StringBuilder();
+        final String query = uriInfo.getRequestUri().getRawQuery();
 
-        // Convertimos la información JSON recibida en un objeto.
-        ResponseBuilder response = null;
+        for (String table : tables) {
+            final long version = TableVersions.getVersions().get(table);
 
-        if (isTokenLogged(token) != false && isTokenAdmin(token) == true) {
-            try {
-                // Lanzamos el resto de la secuencia a ejecutar.
-                response = content.executeContent();
-            } catch (Exception e) {
-                // Invocamos la funcion para escribir en el registro la excepción.
-                writeServerException(e);
+            if (version < 0)
+                return null;
 
-                // Establecemos la respuesta como error.
-                response = Response.status(Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getMessage());
-            }
-        } else {
-            response = Response.status(Status.FORBIDDEN);
+            value.append(version).append('.');
         }
 
-        // Lanzamos la respuesta.
-        return response.build();
+        value.append(Integer.toHexString((query != null) ? query.hashCode() : 0));
+
+        return new EntityTag(value.toString(), true);
+    }
+
+    /**
+     * Método para construir la respuesta de un listado con su ETag.
+     * 
+     * Si la cabecera If-None-Match de la petición coincide con la ETag actual,
+     * se responde con un 304 sin ejecutar el contenido, y por tanto sin
+     * adquirir ninguna conexión del grupo. Si las versiones de las tablas no
+     * están al día, se ejecuta el contenido y se responde sin ETag.
+     * 
+     * @author Neirth Sergio Martinez
+     * 
+     * @param request La petición, para evaluar sus precondiciones.
+     * @param uriInfo La URL de la petición.
+     * @param content Funcion lambda que construye la respuesta del listado.
+     * @param tables  Las tablas de las que depende el listado.
+     * @return La respuesta preconstruida.
+     * @throws Exception Las excepciones del contenido.
+     */
+    public static ResponseBuilder versionedResponse(Request request, UriInfo uriInfo, Content content, String... tables) throws Exception {
+        final EntityTag tag = getListTag(uriInfo, tables);
+
+        if (tag == null)
+            return content.executeContent();
+
+        // Si el cliente ya tiene esta versión del listado, lanzamos la respuesta 304 NOT MODIFIED.
+        final ResponseBuilder notModified = request.evaluatePreconditions(tag);
+
+        if (notModified != null)
+            return notModified;
+
+        // Solo las respuestas correctas llevan la ETag.
+        final Response response = content.executeContent().build();
+
+        return (response.getStatus() == Status.OK.getStatusCode()) ? Response.fromResponse(response).tag(tag) : Response.fromResponse(response);
     }
 
     /**
@@ -256,25 +406,28 @@ public class ServerUtils {
      * @return El token recibido.
      */
     public static String getToken(final HttpServletRequest req) {
-        // Declaramos las variables
-        String token = null;
-        List<String> authHeader = null;
+        // Obtenemos la primera cabecera de autorización, si existe.
+        final List<String> authHeader = Collections.list(req.getHeaders(HttpHeaders.AUTHORIZATION));
 
-        // Obtenemos el token
-        authHeader = Collections.list(req.getHeaders(HttpHeaders.AUTHORIZATION));
+        return authHeader.isEmpty() ? null : getToken(authHeader.get(0));
+    }
 
+    /**
+     * Método para recuperar el token de seguridad a partir del valor de la
+     * cabecera AUTHORIZATION, con la forma "Bearer token".
+     * 
+     * @author Neirth Sergio Martinez
+     * 
+     * @param authHeader El valor de la cabecera.
+     * @return El token recibido, o null si no hay token.
+     */
+    public static String getToken(final String authHeader) {
         // Comprobamos que exista un token.
-        // FIXME: 08/06/2020 Es al contrario, ..., el if va en un nivel superior al try
-        try {
-            if (authHeader.size() != 0)
-                token = authHeader.get(0).substring(7).trim();    
-        } catch (Exception e) {
-            token = null;
-        }
-
+        if (authHeader == null || authHeader.length() <= 7)
+            return null;
 
         // Devolvemos el token.
-        return token;
+        return authHeader.substring(7).trim();
     }
 
     /**
@@ -287,41 +440,11 @@ public class ServerUtils {
      * @return Verdadero si es valido o falso si no lo es.
      */
     public static boolean isTokenLogged(final String token) {
-        // Iniciamos el parser con la clave.
-        boolean returnVar = false;
-
         try {
-            // Inicializamos el parser del token.
-            final JwtParser jwtsParser = Jwts.parser();
-
-            // Cargamos la llave y validamos el token
-            jwtsParser.setSigningKey(ServerUtils.getKey());
-
-            // Obtenemos los datos del token.
-            final Claims claims = jwtsParser.parseClaimsJws(token).getBody();
-
-            // Ejecutamos la consulta de verificación.
-            Statement st = ServerApp.getConnection().createStatement();
-            ResultSet rs = st.executeQuery("SELECT * FROM Users WHERE id = " + claims.getId());
-
-            // Obtenemos el resultado.
-            rs.next();
-
-            // Si no ha lanzado una excepción anda okey el token.
-            returnVar = claims.getId().equals(rs.getString("id"));
-        } catch (final SignatureException e) {
-            // Si la firma es invalida, anulamos el token.
-            returnVar = false;
-        } catch (final ExpiredJwtException e) {
-            // Si el token ha expirado, anulamos el token.
-            returnVar = false;
-        } catch (final Exception e) {
-            // Si es cualquier otra excepción no prevista, anulamos el token.
-            returnVar = false;
+            return verifyToken(token) != null;
+        } catch (PoolTimeoutException e) {
+            return false;
         }
-
-        // Devolvemos el estado del token esté como este.
-        return returnVar;
     }
 
     /**
@@ -334,41 +457,108 @@ public class ServerUtils {
      * @return Verdadero si es valido o falso si no lo es.
      */
     public static boolean isTokenAdmin(final String token) {
-        // Iniciamos el parser con la clave.
-        boolean returnVar = false;
-
         try {
-            // Inicializamos el parser del token.
-            final JwtParser jwtsParser = Jwts.parser();
+            final UserPrincipal principal = verifyToken(token);
+
+            return principal != null && principal.isAdmin();
+        } catch (PoolTimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Método para verificar el token pasado por parametro y obtener el usuario al
+     * que pertenece.
+     * 
+     * El resultado de la verificación se guarda en la cache de tokens, por lo que
+     * solo la primera petición con un token valida su firma y consulta el usuario
+     * en la base de datos, mediante una conexión del grupo reservada para ello.
+     * 
+     * @author Neirth Sergio Martinez
+     * 
+     * @param token El token JWT.
+     * @return El usuario verificado, o null si el token no es valido.
+     * @throws PoolTimeoutException No hay conexiones libres para consultar el usuario.
+     */
+    public static UserPrincipal verifyToken(final String token) throws PoolTimeoutException {
+        // Sin token no hay nada que verificar.
+        if (token == null)
+            return null;
 
-            // Cargamos la llave.
-            jwtsParser.setSigningKey(ServerUtils.getKey());
+        // Si ya se ha verificado anteriormente, no repetimos el proceso.
+        UserPrincipal principal = TokenCache.getCache().get(token);
 
-            // Validamos y obtenemos los datos del token.
-            final Claims claims = jwtsParser.parseClaimsJws(token).getBody();
+        if (principal != null)
+            return principal;
+
+        // Leemos la generación de la cache antes de consultar el usuario, por si se invalida mientras tanto.
+        final long generation = TokenCache.getCache().getGeneration();
+
+        try {
+            // Validamos el token y obtenemos sus datos.
+            final Claims claims = getParser().parseClaimsJws(token).getBody();
 
-            // Ejecutamos la consulta de verificación.
-            Statement st = ServerApp.getConnection().createStatement();
-            ResultSet rs = st.executeQuery("SELECT * FROM Users WHERE id = " + claims.getId());
+            // Consultamos el usuario al que pertenece el token.
+            final User user = getAuthUser(Integer.parseInt(claims.getId()));
 
-            // Obtenemos el resultado.
-            rs.next();
+            // Solo es administrador si lo indica el token y la base de datos.
+            final boolean isAdmin = claims.get("adm").toString().equals("true") && user.isAdmin();
 
-            // Si no ha lanzado una excepción, comprobamos si es admin.
-            returnVar = claims.get("adm").toString().equals("true") && rs.getBoolean("isAdmin");
+            principal = new UserPrincipal(user.getId(), claims.getSubject(), isAdmin, claims.getExpiration().getTime());
+            TokenCache.getCache().put(token, principal, generation);
+        } catch (final PoolTimeoutException e) {
+            // Si no hay conexiones libres, no podemos decidir sobre el token.
+            throw e;
         } catch (final SignatureException e) {
             // Si la firma es invalida, anulamos el token.
-            returnVar = false;
+            principal = null;
         } catch (final ExpiredJwtException e) {
             // Si el token ha expirado, anulamos el token.
-            returnVar = false;
+            principal = null;
         } catch (final Exception e) {
             // Si es cualquier otra excepción no prevista, anulamos el token.
-            returnVar = false;
+            principal = null;
         }
 
-        // Devolvemos el estado del token esté como este.
-        return returnVar;
+        // Devolvemos el usuario verificado esté como este.
+        return principal;
+    }
+
+    /**
+     * Método privado para obtener los datos de un usuario necesarios para
+     * verificar su token.
+     * 
+     * Se consulta el directorio de usuarios en memoria y, si no está al día o no
+     * contiene el usuario, la base de datos mediante una conexión del grupo
+     * reservada para ello.
+     * 
+     * @author Neirth Sergio Martinez
+     * 
+     * @param id El id del usuario.
+     * @return El usuario, solo con el id y si es administrador.
+     * @throws Exception Excepción en la base de datos o si no existe el usuario.
+     */
+    private static User getAuthUser(final int id) throws Exception {
+        final UserDirectory directory = UserDirectory.getDirectory();
+        final UserDirectory.Entry entry = directory.isLive() ? directory.get(id) : null;
+
+        if (entry != null) {
+            final User user = new User();
+
+            user.setId(entry.getId());
+            user.setAdmin(entry.isAdmin());
+
+            return user;
+        }
+
+        // Consultamos el usuario con una conexión dedicada a la verificación.
+        final UsersMgt usersMgt = Connections.getController().acquireAuth();
+
+        try {
+            return usersMgt.getAuth(id);
+        } finally {
+            Connections.getController().releaseAuth(usersMgt);
+        }
     }
 
     /**
@@ -389,6 +579,26 @@ public class ServerUtils {
         return privateKey;
     }
     
+    /**
+     * Método para obtener el parser que valida los Json Web Token, el cual se
+     * construye una sola vez con la llave del servidor y se reutiliza en todas
+     * las peticiones.
+     * 
+     * @author Neirth Sergio Martinez
+     * 
+     * @return El parser de los Json Web Token.
+     */
+    private static JwtParser getParser() {
+        JwtParser parser = jwtParser;
+
+        if (parser == null) {
+            parser = Jwts.parser().setSigningKey(getKey());
+            jwtParser = parser;
+        }
+
+        return parser;
+    }
+
     /**
      * Introduce una clave privada arbitraria para propósitos de Test.
      *
@@ -398,6 +608,8 @@ public class ServerUtils {
      */
     static void setKey(Key privateKey) {
         ServerUtils.privateKey = privateKey;
+        ServerUtils.jwtParser = null;
+        TokenCache.getCache().clear();
     }
 
     /**
@@ -484,6 +696,66 @@ public class ServerUtils {
         return (array == null) ? null : Base64.getEncoder().encodeToString(array);
     }
 
+    /**
+     * Interpreta el parametro fields de una petición, con la lista de atributos
+     * separados por comas que el cliente desea recibir.
+     * 
+     * Si el parametro no está presente, se devuelven los atributos por defecto,
+     * de manera que los atributos pesados solo se envían si se solicitan
+     * expresamente.
+     * 
+     * @author Neirth Sergio Martinez
+     * 
+     * @param fields   El valor del parametro fields.
+     * @param defaults Los atributos por defecto.
+     * @return El conjunto de atributos solicitados.
+     */
+    public static Set<String> parseFields(String fields, String... defaults) {
+        final Set<String> result = new HashSet<>();
+
+        if (fields == null || fields.trim().isEmpty()) {
+            Collections.addAll(result, defaults);
+        } else {
+            for (String field : fields.split(",")) {
+                if (!field.trim().isEmpty())
+                    result.add(field.trim());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Transforma una imagen codificada en Base64 a un array de bytes, tal cual se
+     * guarda en la base de datos, sin decodificar la imagen.
+     * 
+     * Se comprueban el tamaño, el formato y las dimensiones de la imagen a partir
+     * de su cabecera, igual que en las subidas como contenido binario, dado que
+     * las miniaturas la decodifican despues por completo.
+     * 
+     * @author Neirth Sergio Martinez
+     *
+     * @param base64 La imagen codificada en Base64.
+     * @return La imagen en array de bytes, o null si no hay imagen.
+     * @throws PictureUploadException La imagen no se puede aceptar.
+     */
+    public static byte[] pictureFromBase64(String base64) throws PictureUploadException {
+        final byte[] picture;
+
+        if (base64 == null)
+            return null;
+
+        try {
+            picture = byteArrayFromBase64(base64);
+        } catch (IllegalArgumentException e) {
+            throw new PictureUploadException("La imagen no está codificada en Base64", Status.BAD_REQUEST);
+        }
+
+        PictureUpload.validate(picture);
+
+        return picture;
+    }
+
     /**
      * Obtiene el fichero application.properties, lo mapea a una nueva instancia
      * Properties y la devuelve para su uso.
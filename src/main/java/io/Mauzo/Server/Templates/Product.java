@@ -23,8 +23,6 @@
  */
 package io.Mauzo.Server.Templates;
 
-import java.awt.image.BufferedImage;
-
 public class Product {
     private String name;
     private String code;
@@ -32,7 +30,8 @@ public class Product {
     // FIXME: 08/06/2020 Normalmente el id es un Long, y suele ponerse lo primero
     private Integer id;
     private String description;
-    private BufferedImage picture;
+    private byte[] picture;
+    private String pictureHash;
 
     public String getDescription() {
         return description;
@@ -42,14 +41,22 @@ public class Product {
         this.description = description;
     }
 
-    public BufferedImage getPicture() {
+    public byte[] getPicture() {
         return picture;
     }
 
-    public void setPicture(BufferedImage picture) {
+    public void setPicture(byte[] picture) {
         this.picture = picture;
     }
 
+    public String getPictureHash() {
+        return pictureHash;
+    }
+
+    public void setPictureHash(String pictureHash) {
+        this.pictureHash = pictureHash;
+    }
+
     public String getName() {
         return name;
     }
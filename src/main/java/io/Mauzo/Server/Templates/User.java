@@ -23,8 +23,6 @@
  */
 package io.Mauzo.Server.Templates;
 
-import java.awt.image.BufferedImage;
-
 /**
  * Modelo de usuario con atributos iguales a la base de datos.
  * 
@@ -40,7 +38,8 @@ public class User {
     private String email;
     // FIXME: 08/06/2020 si isAdmin es NOT NULL, puedes usar boolean
     private Boolean isAdmin;
-    private BufferedImage userPic;
+    private byte[] userPic;
+    private String userPicHash;
 
     public Integer getId() {
         return id;
@@ -98,11 +97,19 @@ public class User {
         this.email = email;
     }
 
-    public BufferedImage getUserPic() {
+    public byte[] getUserPic() {
         return userPic;
     }
 
-    public void setUserPic(BufferedImage userPic) {
+    public void setUserPic(byte[] userPic) {
         this.userPic = userPic;
     }
+
+    public String getUserPicHash() {
+        return userPicHash;
+    }
+
+    public void setUserPicHash(String userPicHash) {
+        this.userPicHash = userPicHash;
+    }
 }
\ No newline at end of file
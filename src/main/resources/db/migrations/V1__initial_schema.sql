@@ -0,0 +1,9 @@
+-- Estructura inicial de la base de datos del servidor de Mauzo.
+CREATE TABLE IF NOT EXISTS Discounts (id SERIAL, codeDisc VARCHAR(10) NOT NULL, descDisc TEXT NOT NULL, pricePerc FLOAT NOT NULL, PRIMARY KEY (id), UNIQUE (codeDisc));
+CREATE TABLE IF NOT EXISTS Products (id SERIAL, prodName VARCHAR(45) NOT NULL, prodCode VARCHAR(45) NOT NULL, prodPrice FLOAT NOT NULL, prodDesc TEXT NULL, prodPic BYTEA NULL, PRIMARY KEY (id), UNIQUE(prodCode));
+CREATE TABLE IF NOT EXISTS Users (id SERIAL, firstname VARCHAR(45) NOT NULL, lastname VARCHAR(45) NOT NULL, username VARCHAR(45) NOT NULL, password TEXT NOT NULL, email TEXT NOT NULL, isAdmin BOOLEAN NOT NULL, userPic BYTEA NULL, PRIMARY KEY (id), UNIQUE (username));
+CREATE TABLE IF NOT EXISTS Sales (id SERIAL, stampRef DATE NOT NULL, userId INT NOT NULL, prodId INT NOT NULL, discId INT NULL, PRIMARY KEY (id), FOREIGN KEY (discId) REFERENCES Discounts(id), FOREIGN KEY (prodId) REFERENCES Products(id), FOREIGN KEY (userId) REFERENCES Users(id));
+CREATE TABLE IF NOT EXISTS Refunds (id SERIAL, dateRefund DATE NOT NULL, userId INT NOT NULL, saleId INT NOT NULL, PRIMARY KEY (id), FOREIGN KEY (userId) REFERENCES Users(id), FOREIGN KEY (saleId) REFERENCES Sales(id) ON DELETE SET NULL ON UPDATE NO ACTION);
+
+-- Agregamos el usuario administrador.
+INSERT INTO public.Users(firstname, lastname, username, email, password, isAdmin, userPic) VALUES ('Super', 'Administrador', 'admin', 'admin@localhost', '21232f297a57a5a743894a0e4a801fc3', true, null) ON CONFLICT DO NOTHING;
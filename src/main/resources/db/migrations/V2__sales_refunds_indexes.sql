@@ -0,0 +1,7 @@
+-- Indices para los informes por rango de fechas y las busquedas por usuario, producto, descuento o venta.
+CREATE INDEX IF NOT EXISTS sales_stampref_idx ON Sales (stampRef);
+CREATE INDEX IF NOT EXISTS sales_userid_idx ON Sales (userId);
+CREATE INDEX IF NOT EXISTS sales_prodid_idx ON Sales (prodId);
+CREATE INDEX IF NOT EXISTS sales_discid_idx ON Sales (discId);
+CREATE INDEX IF NOT EXISTS refunds_daterefund_idx ON Refunds (dateRefund);
+CREATE INDEX IF NOT EXISTS refunds_saleid_idx ON Refunds (saleId);
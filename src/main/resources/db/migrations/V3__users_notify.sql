@@ -0,0 +1,20 @@
+-- Notificamos los cambios en los usuarios a todos los nodos del cluster.
+CREATE OR REPLACE FUNCTION mauzo_users_notify() RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP = 'TRUNCATE' THEN
+        PERFORM pg_notify('mauzo_users', '*');
+    ELSIF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('mauzo_users', OLD.id::text);
+    ELSE
+        PERFORM pg_notify('mauzo_users', NEW.id::text);
+    END IF;
+
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS users_notify_trg ON Users;
+CREATE TRIGGER users_notify_trg AFTER INSERT OR UPDATE OR DELETE ON Users FOR EACH ROW EXECUTE PROCEDURE mauzo_users_notify();
+
+DROP TRIGGER IF EXISTS users_truncate_trg ON Users;
+CREATE TRIGGER users_truncate_trg AFTER TRUNCATE ON Users FOR EACH STATEMENT EXECUTE PROCEDURE mauzo_users_notify();
@@ -0,0 +1,2 @@
+-- Variantes redimensionadas de las imagenes de productos y usuarios.
+CREATE TABLE IF NOT EXISTS PictureVariants (owner VARCHAR(10) NOT NULL, ownerId INT NOT NULL, size INT NOT NULL, data BYTEA NOT NULL, PRIMARY KEY (owner, ownerId, size));
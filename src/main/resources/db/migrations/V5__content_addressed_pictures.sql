@@ -0,0 +1,66 @@
+-- Almacén de imagenes direccionado por contenido: cada imagen se guarda una sola
+-- vez, identificada por el hash SHA-256 de sus bytes en hexadecimal, y los
+-- productos y usuarios solo guardan la referencia a su hash.
+CREATE TABLE IF NOT EXISTS Pictures (hash VARCHAR(64) NOT NULL, data BYTEA NOT NULL, refCount INT NOT NULL DEFAULT 0, PRIMARY KEY (hash));
+
+ALTER TABLE Products ADD COLUMN IF NOT EXISTS prodPicHash VARCHAR(64) NULL REFERENCES Pictures (hash);
+ALTER TABLE Users ADD COLUMN IF NOT EXISTS userPicHash VARCHAR(64) NULL REFERENCES Pictures (hash);
+
+-- Movemos las imagenes existentes al almacén, una sola vez por contenido.
+INSERT INTO Pictures (hash, data)
+    SELECT DISTINCT ON (hash) hash, data FROM (
+        SELECT encode(sha256(prodPic), 'hex') AS hash, prodPic AS data FROM Products WHERE prodPic IS NOT NULL
+        UNION ALL
+        SELECT encode(sha256(userPic), 'hex') AS hash, userPic AS data FROM Users WHERE userPic IS NOT NULL
+    ) AS existing
+    ON CONFLICT (hash) DO NOTHING;
+
+UPDATE Products SET prodPicHash = encode(sha256(prodPic), 'hex') WHERE prodPic IS NOT NULL;
+UPDATE Users SET userPicHash = encode(sha256(userPic), 'hex') WHERE userPic IS NOT NULL;
+
+UPDATE Pictures SET refCount = (SELECT count(*) FROM Products WHERE prodPicHash = Pictures.hash) + (SELECT count(*) FROM Users WHERE userPicHash = Pictures.hash);
+
+ALTER TABLE Products DROP COLUMN IF EXISTS prodPic;
+ALTER TABLE Users DROP COLUMN IF EXISTS userPic;
+
+-- Las variantes redimensionadas pasan a pertenecer a la imagen, no a su propietario.
+DROP TABLE IF EXISTS PictureVariants;
+CREATE TABLE IF NOT EXISTS PictureVariants (hash VARCHAR(64) NOT NULL REFERENCES Pictures (hash) ON DELETE CASCADE, size INT NOT NULL, data BYTEA NOT NULL, PRIMARY KEY (hash, size));
+
+-- Contamos las referencias a cada imagen y eliminamos las que ya no se usan. El
+-- primer argumento es el nombre, en minusculas, de la columna con la referencia.
+CREATE OR REPLACE FUNCTION mauzo_picture_refs() RETURNS TRIGGER AS $$
+DECLARE
+    oldHash VARCHAR(64) := NULL;
+    newHash VARCHAR(64) := NULL;
+BEGIN
+    IF TG_OP <> 'INSERT' THEN
+        oldHash := to_jsonb(OLD) ->> TG_ARGV[0];
+    END IF;
+
+    IF TG_OP <> 'DELETE' THEN
+        newHash := to_jsonb(NEW) ->> TG_ARGV[0];
+    END IF;
+
+    IF newHash IS NOT DISTINCT FROM oldHash THEN
+        RETURN NULL;
+    END IF;
+
+    IF newHash IS NOT NULL THEN
+        UPDATE Pictures SET refCount = refCount + 1 WHERE hash = newHash;
+    END IF;
+
+    IF oldHash IS NOT NULL THEN
+        UPDATE Pictures SET refCount = refCount - 1 WHERE hash = oldHash;
+        DELETE FROM Pictures WHERE hash = oldHash AND refCount <= 0;
+    END IF;
+
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS products_picture_refs_trg ON Products;
+CREATE TRIGGER products_picture_refs_trg AFTER INSERT OR UPDATE OF prodPicHash OR DELETE ON Products FOR EACH ROW EXECUTE PROCEDURE mauzo_picture_refs('prodpichash');
+
+DROP TRIGGER IF EXISTS users_picture_refs_trg ON Users;
+CREATE TRIGGER users_picture_refs_trg AFTER INSERT OR UPDATE OF userPicHash OR DELETE ON Users FOR EACH ROW EXECUTE PROCEDURE mauzo_picture_refs('userpichash');
@@ -0,0 +1,2 @@
+-- Indice para filtrar las devoluciones por usuario, el resto de filtros ya tienen indice.
+CREATE INDEX IF NOT EXISTS refunds_userid_idx ON Refunds (userId);
@@ -0,0 +1,30 @@
+-- Versión de cada tabla, que se incrementa con cada cambio y se notifica a todos los nodos del cluster.
+CREATE TABLE IF NOT EXISTS TableVersions (tableName VARCHAR(45) NOT NULL, version BIGINT NOT NULL DEFAULT 0, PRIMARY KEY (tableName));
+
+INSERT INTO TableVersions (tableName) VALUES ('products'), ('discounts'), ('sales'), ('refunds'), ('users') ON CONFLICT DO NOTHING;
+
+CREATE OR REPLACE FUNCTION mauzo_versions_notify() RETURNS TRIGGER AS $$
+DECLARE
+    newVersion BIGINT;
+BEGIN
+    UPDATE TableVersions SET version = version + 1 WHERE tableName = TG_TABLE_NAME RETURNING version INTO newVersion;
+    PERFORM pg_notify('mauzo_versions', TG_TABLE_NAME || ':' || newVersion);
+
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS products_versions_trg ON Products;
+CREATE TRIGGER products_versions_trg AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Products FOR EACH STATEMENT EXECUTE PROCEDURE mauzo_versions_notify();
+
+DROP TRIGGER IF EXISTS discounts_versions_trg ON Discounts;
+CREATE TRIGGER discounts_versions_trg AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Discounts FOR EACH STATEMENT EXECUTE PROCEDURE mauzo_versions_notify();
+
+DROP TRIGGER IF EXISTS sales_versions_trg ON Sales;
+CREATE TRIGGER sales_versions_trg AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Sales FOR EACH STATEMENT EXECUTE PROCEDURE mauzo_versions_notify();
+
+DROP TRIGGER IF EXISTS refunds_versions_trg ON Refunds;
+CREATE TRIGGER refunds_versions_trg AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Refunds FOR EACH STATEMENT EXECUTE PROCEDURE mauzo_versions_notify();
+
+DROP TRIGGER IF EXISTS users_versions_trg ON Users;
+CREATE TRIGGER users_versions_trg AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Users FOR EACH STATEMENT EXECUTE PROCEDURE mauzo_versions_notify();
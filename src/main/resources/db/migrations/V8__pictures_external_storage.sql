@@ -0,0 +1,7 @@
+-- Guardamos las imagenes en TOAST sin comprimir, asi substring() sobre la columna
+-- solo lee los fragmentos de TOAST del rango pedido, en vez de descomprimir la
+-- imagen desde el principio en cada fragmento que se sirve.
+ALTER TABLE Pictures ALTER COLUMN data SET STORAGE EXTERNAL;
+
+-- El cambio solo afecta a los valores nuevos, reescribimos las imagenes existentes.
+UPDATE Pictures SET data = data || ''::bytea;
@@ -0,0 +1,3 @@
+-- Indice para comprobar si una imagen es la de algún producto antes de servirla
+-- a un usuario que no es administrador.
+CREATE INDEX IF NOT EXISTS products_prodpichash_idx ON Products (prodPicHash);
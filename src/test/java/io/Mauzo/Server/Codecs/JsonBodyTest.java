@@ -0,0 +1,208 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Codecs;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.Response.Status;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.Mauzo.Server.Templates.Sale;
+import io.Mauzo.Server.Templates.User;
+
+/**
+ * Test para probar la lectura de los cuerpos Json de las peticiones, con los
+ * tamaños máximos de cada interfaz web y los atributos obligatorios.
+ * 
+ * No requiere base de datos, la petición es sintética y solo indica el
+ * Content-Length, y el cuerpo se lee de un array en memoria.
+ * 
+ * @author Neirth Sergio Martinez
+ */
+public class JsonBodyTest {
+    private static final String SALE = "{\"stampRef\": 1600000000000, \"userId\": 1, \"prodId\": 2}";
+
+    /**
+     * Test que comprueba que se lee un cuerpo valido con el codificador de la
+     * plantilla.
+     * 
+     * @throws Exception Puede arrojar cualquier tipo de Excepción.
+     */
+    @Test
+    public void checkRead() throws Exception {
+        // Informamos al usuario del test que se ejecuta
+        System.out.println("Ejecutando test de cuerpos Json");
+
+        final byte[] body = "{\"username\": \"admin\", \"password\": \"secret\"}".getBytes(StandardCharsets.UTF_8);
+        final User user = JsonBody.read(createRequest(body.length), new ByteArrayInputStream(body), "login", UserCodec.getCodec());
+
+        Assert.assertEquals("admin", user.getUsername());
+        Assert.assertEquals("secret", user.getPassword());
+    }
+
+    /**
+     * Test que comprueba que los tamaños máximos de cada interfaz web se leen de
+     * la configuración, con el tamaño general para las que no tienen uno propio.
+     */
+    @Test
+    public void checkMaxSize() {
+        Assert.assertEquals(4096, JsonBody.getMaxSize("login"));
+        Assert.assertEquals(7340032, JsonBody.getMaxSize("products"));
+        Assert.assertEquals(16384, JsonBody.getMaxSize("sales"));
+    }
+
+    /**
+     * Test que comprueba que un cuerpo cuyo Content-Length supera el máximo se
+     * rechaza con un 413 sin leer nada del cuerpo.
+     * 
+     * @throws Exception Puede arrojar cualquier tipo de Excepción.
+     */
+    @Test
+    public void checkContentLengthLimit() throws Exception {
+        final InputStream unread = new InputStream() {
+            @Override
+            public int read() {
+                throw new AssertionError("No se debe leer el cuerpo");
+            }
+        };
+
+        assertStatus(Status.REQUEST_ENTITY_TOO_LARGE, () -> JsonBody.read(createRequest(4097), unread, "login", UserCodec.getCodec()));
+    }
+
+    /**
+     * Test que comprueba que un cuerpo sin Content-Length se rechaza con un 413
+     * en cuanto supera el máximo al leerlo.
+     * 
+     * @throws Exception Puede arrojar cualquier tipo de Excepción.
+     */
+    @Test
+    public void checkStreamLimit() throws Exception {
+        final StringBuilder json = new StringBuilder("{\"username\": \"");
+
+        for (int i = 0; i < 5000; i++)
+            json.append('a');
+
+        final byte[] body = json.append("\"}").toString().getBytes(StandardCharsets.UTF_8);
+
+        assertStatus(Status.REQUEST_ENTITY_TOO_LARGE, () -> JsonBody.read(createRequest(-1), new ByteArrayInputStream(body), "login", UserCodec.getCodec()));
+
+        // Un Content-Length menor que el cuerpo real tampoco permite superar el máximo.
+        assertStatus(Status.REQUEST_ENTITY_TOO_LARGE, () -> JsonBody.read(createRequest(100), new ByteArrayInputStream(body), "login", UserCodec.getCodec()));
+    }
+
+    /**
+     * Test que comprueba que los cuerpos vacios o que no son un objeto Json
+     * valido se rechazan con un 400.
+     * 
+     * @throws Exception Puede arrojar cualquier tipo de Excepción.
+     */
+    @Test
+    public void checkInvalidBody() throws Exception {
+        assertStatus(Status.BAD_REQUEST, () -> JsonBody.read(createRequest(0), new ByteArrayInputStream(new byte[0]), "sales", SaleCodec.getCodec()));
+
+        final byte[] body = "{\"userId\": ".getBytes(StandardCharsets.UTF_8);
+
+        assertStatus(Status.BAD_REQUEST, () -> JsonBody.read(createRequest(body.length), new ByteArrayInputStream(body), "sales", SaleCodec.getCodec()));
+    }
+
+    /**
+     * Test que comprueba que al crear un objeto se rechaza con un 400 el cuerpo
+     * al que le falta un atributo obligatorio, indicando cual, y se acepta el
+     * que los tiene todos.
+     * 
+     * @throws Exception Puede arrojar cualquier tipo de Excepción.
+     */
+    @Test
+    public void checkRequiredFields() throws Exception {
+        final byte[] complete = SALE.getBytes(StandardCharsets.UTF_8);
+        final Sale sale = JsonBody.readComplete(createRequest(complete.length), new ByteArrayInputStream(complete), "sales", SaleCodec.getCodec());
+
+        Assert.assertEquals(Integer.valueOf(1), sale.getUserId());
+        Assert.assertEquals(Integer.valueOf(2), sale.getProdId());
+
+        final byte[] missing = "{\"stampRef\": 1600000000000, \"userId\": 1}".getBytes(StandardCharsets.UTF_8);
+        final JsonBody.JsonBodyException e = assertStatus(Status.BAD_REQUEST, () -> JsonBody.readComplete(createRequest(missing.length), new ByteArrayInputStream(missing), "sales", SaleCodec.getCodec()));
+
+        Assert.assertTrue(e.getMessage().contains("prodId"));
+
+        // Al modificar un objeto los atributos son opcionales.
+        final Sale patch = JsonBody.read(createRequest(missing.length), new ByteArrayInputStream(missing), "sales", SaleCodec.getCodec());
+
+        Assert.assertNull(patch.getProdId());
+    }
+
+    /**
+     * Interfaz funcional para las lecturas que deben fallar.
+     */
+    private interface BodyRead {
+        void read() throws Exception;
+    }
+
+    /**
+     * Método que comprueba que una lectura falla con el estado HTTP indicado.
+     * 
+     * @param status El estado esperado.
+     * @param read   La lectura a ejecutar.
+     * @return La excepción lanzada por la lectura.
+     * @throws Exception Si la lectura falla con otra excepción.
+     */
+    private static JsonBody.JsonBodyException assertStatus(Status status, BodyRead read) throws Exception {
+        try {
+            read.read();
+        } catch (JsonBody.JsonBodyException e) {
+            Assert.assertEquals(status, e.getStatus());
+
+            return e;
+        }
+
+        Assert.fail("Se esperaba un error " + status.getStatusCode());
+
+        return null;
+    }
+
+    /**
+     * Método que crea una petición sintética con el Content-Length indicado.
+     * 
+     * @param contentLength El Content-Length, o -1 si no se conoce.
+     * @return La petición sintética.
+     */
+    private HttpServletRequest createRequest(long contentLength) {
+        return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getContentLengthLong":
+                    return contentLength;
+                case "getContentLength":
+                    return (int) contentLength;
+                default:
+                    return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Managers;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.Before;
+
+import io.Mauzo.Server.Templates.Sale;
+
+/**
+ * Test para probar el recorrido de los listados mediante un cursor en la base
+ * de datos.
+ * 
+ * En vez de una base de datos real, se usa una conexión sintética que genera un
+ * millón de ventas a medida que se leen, y que registra el estado de la conexión
+ * y de la consulta en el momento de ejecutarla.
+ * 
+ * @author Neirth Sergio Martinez
+ */
+public class ManagersStreamTest {
+    private static final int ROWS = 1000000;
+
+    // Estado registrado por la conexión sintética.
+    private boolean autoCommit;
+    private boolean autoCommitOnQuery;
+    private int fetchSizeOnQuery;
+    private int rowsRead;
+    private boolean resultSetClosed;
+
+    /**
+     * Reinicia el estado de la conexión sintética antes de cada test.
+     */
+    @Before
+    public void resetConnection() {
+        autoCommit = true;
+        autoCommitOnQuery = true;
+        fetchSizeOnQuery = 0;
+        rowsRead = 0;
+        resultSetClosed = false;
+    }
+
+    /**
+     * Test que comprueba que se recorren todas las ventas dentro de una
+     * transacción y con un tamaño de lectura, y que al cerrar el Stream se
+     * restablece la conexión.
+     * 
+     * @throws Exception Puede arrojar cualquier tipo de Excepción.
+     */
+    @Test
+    public void checkCursorStream() throws Exception {
+        // Informamos al usuario del test que se ejecuta
+        System.out.println("Ejecutando test de recorrido con cursor");
+
+        SalesMgt salesMgt = new SalesMgt(createConnection());
+        long count;
+        long idSum;
+
+        try (Stream<Sale> sales = salesMgt.stream()) {
+            long[] totals = new long[2];
+
+            sales.forEach((sale) -> {
+                totals[0]++;
+                totals[1] += sale.getId();
+            });
+
+            count = totals[0];
+            idSum = totals[1];
+
+            // Mientras el Stream está abierto, la conexión está en una transacción.
+            Assert.assertFalse(autoCommit);
+        }
+
+        Assert.assertEquals(ROWS, count);
+        Assert.assertEquals((long) ROWS * (ROWS + 1) / 2, idSum);
+
+        // La consulta se ha ejecutado como un cursor.
+        Assert.assertFalse(autoCommitOnQuery);
+        Assert.assertTrue(fetchSizeOnQuery > 0);
+
+        // Al cerrar el Stream se libera el cursor y se restablece la conexión.
+        Assert.assertTrue(resultSetClosed);
+        Assert.assertTrue(autoCommit);
+    }
+
+    /**
+     * Test que comprueba que las ventas solo se leen a medida que se recorre el
+     * Stream, y no todas al abrirlo.
+     * 
+     * @throws Exception Puede arrojar cualquier tipo de Excepción.
+     */
+    @Test
+    public void checkLazyStream() throws Exception {
+        SalesMgt salesMgt = new SalesMgt(createConnection());
+
+        try (Stream<Sale> sales = salesMgt.stream()) {
+            Assert.assertEquals(10, sales.limit(10).count());
+        }
+
+        Assert.assertEquals(10, rowsRead);
+        Assert.assertTrue(resultSetClosed);
+        Assert.assertTrue(autoCommit);
+    }
+
+    /**
+     * Test que comprueba que el recorrido mediante forEach, usado por los
+     * controladores, lee todas las ventas y cierra el cursor.
+     * 
+     * @throws Exception Puede arrojar cualquier tipo de Excepción.
+     */
+    @Test
+    public void checkForEach() throws Exception {
+        SalesMgt salesMgt = new SalesMgt(createConnection());
+        int[] count = new int[1];
+
+        salesMgt.forEach((sale) -> count[0]++);
+
+        Assert.assertEquals(ROWS, count[0]);
+        Assert.assertTrue(resultSetClosed);
+        Assert.assertTrue(autoCommit);
+    }
+
+    /**
+     * Método que crea una conexión sintética, cuyas consultas devuelven ROWS
+     * ventas generadas a medida que se leen.
+     * 
+     * @return La conexión sintética.
+     */
+    private Connection createConnection() {
+        final Connection[] conn = new Connection[1];
+        final int[] fetchSize = new int[1];
+
+        final PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getConnection":
+                    return conn[0];
+                case "setFetchSize":
+                    fetchSize[0] = (Integer) args[0];
+                    return null;
+                case "executeQuery":
+                    autoCommitOnQuery = autoCommit;
+                    fetchSizeOnQuery = fetchSize[0];
+                    return createResultSet();
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+
+        conn[0] = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    return statement;
+                case "getAutoCommit":
+                    return autoCommit;
+                case "setAutoCommit":
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+
+        return conn[0];
+    }
+
+    /**
+     * Método que crea un ResultSet sintético con ROWS ventas, cuyo id es el
+     * número de fila.
+     * 
+     * @return El ResultSet sintético.
+     */
+    private ResultSet createResultSet() {
+        return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "next":
+                    if (rowsRead == ROWS)
+                        return false;
+
+                    rowsRead++;
+                    return true;
+                case "getInt":
+                    return "id".equals(args[0]) ? rowsRead : 1;
+                case "getDate":
+                    return new Date(rowsRead * 1000L);
+                case "close":
+                    resultSetClosed = true;
+                    return null;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    /**
+     * Método que devuelve el valor por defecto de un tipo, para los métodos que
+     * no simula la conexión sintética.
+     * 
+     * @param type El tipo de retorno del método.
+     * @return El valor por defecto.
+     */
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class)
+            return false;
+        if (type == int.class)
+            return 0;
+        if (type == long.class)
+            return 0L;
+
+        return null;
+    }
+}
@@ -109,6 +109,7 @@ public class ManagersTest {
         } finally {
             Connections.getController().releaseUsers(usersMgt);
             Connections.getController().releaseProducts(productsMgt);
+            Connections.getController().releaseSales(salesMgt);
             Connections.getController().releaseRefunds(refundsMgt);
             Connections.getController().releaseDiscounts(discountsMgt);
         }
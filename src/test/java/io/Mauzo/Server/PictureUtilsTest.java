@@ -0,0 +1,229 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.Mauzo.Server.Templates.PictureInfo;
+
+/**
+ * Test para probar la interpretación de las cabeceras Range, If-Range e
+ * If-None-Match al servir las imagenes.
+ * 
+ * No requiere base de datos, la imagen se sirve desde un array en memoria y la
+ * petición es sintética, con las cabeceras indicadas en cada test.
+ * 
+ * @author Neirth Sergio Martinez
+ */
+public class PictureUtilsTest {
+    private static final String HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+    private static final int LENGTH = 1000;
+
+    /**
+     * Test que comprueba los rangos de bytes validos, incluidos los abiertos, los
+     * de sufijo y los que superan el final de la imagen.
+     */
+    @Test
+    public void checkParseRange() {
+        // Informamos al usuario del test que se ejecuta
+        System.out.println("Ejecutando test de cabeceras de imagenes");
+
+        Assert.assertArrayEquals(new long[] { 0, 99 }, PictureUtils.parseRange("bytes=0-99", LENGTH));
+        Assert.assertArrayEquals(new long[] { 500, 999 }, PictureUtils.parseRange("bytes=500-", LENGTH));
+        Assert.assertArrayEquals(new long[] { 999, 999 }, PictureUtils.parseRange("bytes=999-999", LENGTH));
+        Assert.assertArrayEquals(new long[] { 0, 999 }, PictureUtils.parseRange("bytes=0-5000", LENGTH));
+        Assert.assertArrayEquals(new long[] { 800, 999 }, PictureUtils.parseRange("bytes=-200", LENGTH));
+        Assert.assertArrayEquals(new long[] { 0, 999 }, PictureUtils.parseRange("bytes=-5000", LENGTH));
+        Assert.assertArrayEquals(new long[] { 10, 20 }, PictureUtils.parseRange(" bytes= 10 - 20 ", LENGTH));
+    }
+
+    /**
+     * Test que comprueba que los rangos que empiezan después del final de la
+     * imagen, y los sufijos vacios, no se pueden satisfacer.
+     */
+    @Test
+    public void checkUnsatisfiableRange() {
+        Assert.assertEquals(0, PictureUtils.parseRange("bytes=1000-", LENGTH).length);
+        Assert.assertEquals(0, PictureUtils.parseRange("bytes=2000-3000", LENGTH).length);
+        Assert.assertEquals(0, PictureUtils.parseRange("bytes=-0", LENGTH).length);
+        Assert.assertEquals(0, PictureUtils.parseRange("bytes=-10", 0).length);
+    }
+
+    /**
+     * Test que comprueba que se ignoran las cabeceras Range mal formadas, con
+     * otras unidades, con el final antes del principio o con varios rangos.
+     */
+    @Test
+    public void checkIgnoredRange() {
+        Assert.assertNull(PictureUtils.parseRange("bytes=100-50", LENGTH));
+        Assert.assertNull(PictureUtils.parseRange("bytes=0-1,5-6", LENGTH));
+        Assert.assertNull(PictureUtils.parseRange("items=0-99", LENGTH));
+        Assert.assertNull(PictureUtils.parseRange("bytes=abc-", LENGTH));
+        Assert.assertNull(PictureUtils.parseRange("bytes=-", LENGTH));
+        Assert.assertNull(PictureUtils.parseRange("bytes=100", LENGTH));
+    }
+
+    /**
+     * Test que comprueba la comparación débil de la cabecera If-None-Match.
+     */
+    @Test
+    public void checkMatchesEtag() {
+        Assert.assertTrue(PictureUtils.matchesEtag("\"" + HASH + "\"", HASH));
+        Assert.assertTrue(PictureUtils.matchesEtag("W/\"" + HASH + "\"", HASH));
+        Assert.assertTrue(PictureUtils.matchesEtag("\"otro\", W/\"" + HASH + "\"", HASH));
+        Assert.assertTrue(PictureUtils.matchesEtag("*", HASH));
+
+        Assert.assertFalse(PictureUtils.matchesEtag(null, HASH));
+        Assert.assertFalse(PictureUtils.matchesEtag(HASH, HASH));
+        Assert.assertFalse(PictureUtils.matchesEtag("\"otro\"", HASH));
+    }
+
+    /**
+     * Test que comprueba las respuestas completas, parciales, no modificadas y
+     * no satisfacibles a partir de las cabeceras de la petición.
+     * 
+     * @throws Exception Puede arrojar cualquier tipo de Excepción.
+     */
+    @Test
+    public void checkPictureResponse() throws Exception {
+        Response response = pictureResponse(headers());
+        Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
+        Assert.assertEquals(LENGTH, write(response).length);
+
+        response = pictureResponse(headers("Range", "bytes=10-19"));
+        Assert.assertEquals(Status.PARTIAL_CONTENT.getStatusCode(), response.getStatus());
+        Assert.assertEquals("bytes 10-19/" + LENGTH, response.getHeaderString("Content-Range"));
+        Assert.assertArrayEquals(new byte[] { 10, 11, 12, 13, 14, 15, 16, 17, 18, 19 }, write(response));
+
+        response = pictureResponse(headers("Range", "bytes=1000-"));
+        Assert.assertEquals(Status.REQUESTED_RANGE_NOT_SATISFIABLE.getStatusCode(), response.getStatus());
+        Assert.assertEquals("bytes */" + LENGTH, response.getHeaderString("Content-Range"));
+
+        response = pictureResponse(headers(HttpHeaders.IF_NONE_MATCH, "W/\"" + HASH + "\""));
+        Assert.assertEquals(Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+    }
+
+    /**
+     * Test que comprueba que el rango solo se atiende si If-Range coincide con
+     * el ETag fuerte de la imagen, y que en otro caso se envía la imagen entera.
+     * 
+     * @throws Exception Puede arrojar cualquier tipo de Excepción.
+     */
+    @Test
+    public void checkIfRange() throws Exception {
+        Response response = pictureResponse(headers("Range", "bytes=0-9", "If-Range", "\"" + HASH + "\""));
+        Assert.assertEquals(Status.PARTIAL_CONTENT.getStatusCode(), response.getStatus());
+
+        // Las ETag débiles nunca coinciden en If-Range.
+        response = pictureResponse(headers("Range", "bytes=0-9", "If-Range", "W/\"" + HASH + "\""));
+        Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
+        Assert.assertEquals(LENGTH, write(response).length);
+
+        response = pictureResponse(headers("Range", "bytes=0-9", "If-Range", "\"otro\""));
+        Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
+
+        // Si el rango no se puede satisfacer pero la imagen ha cambiado, se envía entera.
+        response = pictureResponse(headers("Range", "bytes=1000-", "If-Range", "\"otro\""));
+        Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
+    }
+
+    /**
+     * Método que construye la respuesta con una imagen sintética de LENGTH bytes,
+     * cuyo byte n vale n.
+     * 
+     * @param headers Las cabeceras de la petición.
+     * @return La respuesta construida.
+     */
+    private Response pictureResponse(Map<String, String> headers) {
+        final byte[] picture = new byte[LENGTH];
+
+        for (int i = 0; i < LENGTH; i++)
+            picture[i] = (byte) i;
+
+        final PictureInfo info = new PictureInfo();
+        info.setHash(HASH);
+        info.setLength(LENGTH);
+        info.setContentType("image/png");
+
+        return PictureUtils.pictureResponse(createRequest(headers), info, true, (offset, length, out) -> out.write(picture, (int) offset, (int) length)).build();
+    }
+
+    /**
+     * Método que escribe el cuerpo de una respuesta en memoria.
+     * 
+     * @param response La respuesta.
+     * @return El cuerpo de la respuesta.
+     * @throws Exception Puede arrojar cualquier tipo de Excepción.
+     */
+    private static byte[] write(Response response) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        ((StreamingOutput) response.getEntity()).write(out);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Método que agrupa las cabeceras de una petición a partir de parejas de
+     * nombre y valor.
+     * 
+     * @param pairs Los nombres y valores de las cabeceras.
+     * @return Las cabeceras.
+     */
+    private static Map<String, String> headers(String... pairs) {
+        final Map<String, String> headers = new HashMap<>();
+
+        for (int i = 0; i < pairs.length; i += 2)
+            headers.put(pairs[i], pairs[i + 1]);
+
+        return headers;
+    }
+
+    /**
+     * Método que crea una petición sintética con las cabeceras indicadas.
+     * 
+     * @param headers Las cabeceras de la petición.
+     * @return La petición sintética.
+     */
+    private HttpServletRequest createRequest(Map<String, String> headers) {
+        return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+            if ("getHeader".equals(method.getName()))
+                return headers.get(args[0]);
+
+            return null;
+        });
+    }
+}
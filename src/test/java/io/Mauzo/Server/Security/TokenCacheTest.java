@@ -0,0 +1,148 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 The Mauzo Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.Mauzo.Server.Security;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test para probar la cache de tokens verificados, sin base de datos.
+ * 
+ * Cada test usa su propia cache, con un tamaño y un tiempo máximo pequeños, en
+ * vez de la instancia compartida por el servidor.
+ * 
+ * @author Neirth Sergio Martinez
+ */
+public class TokenCacheTest {
+    private static final long HOUR = 3600000;
+
+    /**
+     * Test que comprueba que un usuario consultado antes de una invalidación no
+     * se guarda en la cache, y que uno consultado despues si.
+     */
+    @Test
+    public void checkStaleGeneration() {
+        // Informamos al usuario del test que se ejecuta
+        System.out.println("Ejecutando test de cache de tokens");
+
+        TokenCache cache = new TokenCache(10, HOUR);
+        long generation = cache.getGeneration();
+
+        // El usuario se modifica mientras se verificaba su token.
+        cache.invalidateUser(1);
+        cache.put("token", principal(1, HOUR), generation);
+
+        Assert.assertNull(cache.get("token"));
+        Assert.assertEquals(0, cache.size());
+
+        cache.put("token", principal(1, HOUR), cache.getGeneration());
+
+        Assert.assertNotNull(cache.get("token"));
+    }
+
+    /**
+     * Test que comprueba que al invalidar un usuario solo se retiran sus tokens.
+     */
+    @Test
+    public void checkInvalidateUser() {
+        TokenCache cache = new TokenCache(10, HOUR);
+
+        cache.put("token-1", principal(1, HOUR), cache.getGeneration());
+        cache.put("token-2", principal(2, HOUR), cache.getGeneration());
+        cache.invalidateUser(1);
+
+        Assert.assertNull(cache.get("token-1"));
+        Assert.assertNotNull(cache.get("token-2"));
+    }
+
+    /**
+     * Test que comprueba que las entradas caducan con el token o, como mucho,
+     * tras el tiempo máximo de la cache.
+     * 
+     * @throws Exception Puede arrojar cualquier tipo de Excepción.
+     */
+    @Test
+    public void checkExpiration() throws Exception {
+        TokenCache cache = new TokenCache(10, 50);
+
+        // Un token ya caducado no se sirve desde la cache.
+        cache.put("expired", principal(1, -1), cache.getGeneration());
+        Assert.assertNull(cache.get("expired"));
+
+        // Un token valido durante una hora solo se guarda el tiempo máximo de la cache.
+        cache.put("token", principal(1, HOUR), cache.getGeneration());
+        Assert.assertNotNull(cache.get("token"));
+
+        Thread.sleep(100);
+
+        Assert.assertNull(cache.get("token"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    /**
+     * Test que comprueba que la cache no supera el número máximo de entradas, y
+     * que al hacer hueco se retiran primero las caducadas.
+     */
+    @Test
+    public void checkEviction() {
+        TokenCache cache = new TokenCache(10, HOUR);
+
+        for (int i = 0; i < 5; i++)
+            cache.put("expired-" + i, principal(i, -1), cache.getGeneration());
+
+        for (int i = 0; i < 5; i++)
+            cache.put("token-" + i, principal(i, HOUR), cache.getGeneration());
+
+        Assert.assertEquals(10, cache.size());
+
+        // Al llenarse la cache se retiran las caducadas y se conservan el resto.
+        cache.put("token-5", principal(5, HOUR), cache.getGeneration());
+
+        Assert.assertEquals(6, cache.size());
+
+        for (int i = 0; i <= 5; i++)
+            Assert.assertNotNull(cache.get("token-" + i));
+
+        // Aunque no haya caducadas, nunca se supera el máximo.
+        for (int i = 6; i < 100; i++) {
+            cache.put("token-" + i, principal(i, HOUR), cache.getGeneration());
+
+            Assert.assertTrue(cache.size() <= 10);
+        }
+
+        Assert.assertNotNull(cache.get("token-99"));
+    }
+
+    /**
+     * Método que crea un usuario verificado cuyo token caduca dentro del tiempo
+     * indicado.
+     * 
+     * @param id       El id del usuario.
+     * @param validFor Los milisegundos hasta que caduca el token.
+     * @return El usuario verificado.
+     */
+    private static UserPrincipal principal(int id, long validFor) {
+        return new UserPrincipal(id, "user" + id, false, System.currentTimeMillis() + validFor);
+    }
+}
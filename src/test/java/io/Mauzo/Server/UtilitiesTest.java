@@ -108,6 +108,7 @@ public class UtilitiesTest {
         } finally {
             Connections.getController().releaseUsers(usersMgt);
             Connections.getController().releaseProducts(productsMgt);
+            Connections.getController().releaseSales(salesMgt);
             Connections.getController().releaseRefunds(refundsMgt);
             Connections.getController().releaseDiscounts(discountsMgt);
         }